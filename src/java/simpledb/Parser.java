@@ -21,9 +21,12 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Parser {
     static boolean explain = false;
+    static boolean batch = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -187,23 +190,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +211,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +221,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                        + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                        + si.getColumn()) || groupByFields.contains(si
                         .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,30 +242,27 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -278,12 +271,74 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * A statement with its LIMIT and OFFSET, which Zql does not parse, taken
+     * off the end.
+     */
+    static class LimitClause {
+        static final LimitClause NONE = new LimitClause(null, -1, 0);
+
+        final String statement;
+        final int limit; // -1 if there is none
+        final int offset;
+
+        LimitClause(String statement, int limit, int offset) {
+            this.statement = statement;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        boolean isPresent() {
+            return limit >= 0 || offset > 0;
+        }
+
+        void applyTo(LogicalPlan lp) {
+            if (isPresent()) {
+                lp.setLimit(limit, offset);
+            }
+        }
+    }
+
+    private static final Pattern LIMIT = Pattern.compile(
+            "\\s+(?:LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?|OFFSET\\s+(\\d+))\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Take a trailing "LIMIT n", "LIMIT n OFFSET m" or "OFFSET m" off the
+     * first statement in s.
+     */
+    static LimitClause stripLimit(String s) throws simpledb.ParsingException {
+        int end = s.indexOf(';');
+        if (end < 0) {
+            end = s.length();
+        }
+        Matcher m = LIMIT.matcher(s.substring(0, end));
+        if (!m.find()) {
+            return new LimitClause(s, -1, 0);
+        }
+        try {
+            int limit = m.group(1) != null ? Integer.parseInt(m.group(1)) : -1;
+            String offset = m.group(2) != null ? m.group(2) : m.group(3);
+            return new LimitClause(s.substring(0, m.start()) + s.substring(end), limit,
+                    offset != null ? Integer.parseInt(offset) : 0);
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT and OFFSET must fit in an int: " + m.group().trim());
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, LimitClause.NONE);
+    }
+
+    private Query handleQueryStatement(ZQuery s, TransactionId tId, LimitClause limit)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        limit.applyTo(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -311,6 +366,12 @@ public class Parser {
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
                 e.printStackTrace();
             }
+
+            if (batch) {
+                query.setPhysicalPlan(BatchPlan.toBatchPlan(physicalPlan));
+            } else if (ParallelPlan.getWorkers() > 1) {
+                query.setPhysicalPlan(ParallelPlan.schedule(ParallelPlan.parallelize(physicalPlan)));
+            }
         }
 
         return query;
@@ -465,12 +526,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitClause limit = stripLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(limit.statement.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                limit.applyTo(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -503,8 +567,17 @@ public class Parser {
 
     private void processNextStatementImpl(InputStream is, boolean expectNoErrors) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; ) {
+                text.write(buf, 0, n);
+            }
+            LimitClause limit = stripLimit(text.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(limit.statement.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
+            if (limit.isPresent() && !(s instanceof ZQuery)) {
+                throw new simpledb.ParsingException("LIMIT and OFFSET are only supported in queries");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,7 +598,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -584,11 +657,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"};
+            "insert", "delete", "values", "into", "limit", "offset"};
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 7) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -598,7 +671,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-batch] [-parallel workers] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -619,6 +692,19 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-batch")) {
+                    batch = true;
+                    System.out.println("Batch execution enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    try {
+                        ParallelPlan.setWorkers(Integer.parseInt(argv[++i]));
+                    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                        System.out.println("Expected a positive number of workers after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Parallel execution enabled with "
+                            + ParallelPlan.getWorkers() + " workers.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -56,12 +56,24 @@ public class Catalog {
      *                  this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name      the name of the table -- may be an empty string.  May not be null.  If a name
      *                  conflict exists, use the last table to be added as the table for a given name.
+     *                  A different file already added with the same id is replaced, and closed.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // TODO: some code goes here
-        catalog.put(file.getId(), new DbTable(file.getTupleDesc(), file, name, pkeyField));
+        DbTable old = catalog.put(file.getId(), new DbTable(file.getTupleDesc(), file, name, pkeyField));
         name2IdMap.put(name, file.getId());
+        if (old != null && old.dbfile_ != file) {
+            close(old.dbfile_);
+        }
+    }
+
+    private static void close(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -145,10 +157,13 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog, closing their files
      */
     public void clear() {
         // TODO: some code goes here
+        for (DbTable table : catalog.values()) {
+            close(table.dbfile_);
+        }
         catalog.clear();
         name2IdMap.clear();
     }
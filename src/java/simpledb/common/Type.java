@@ -30,6 +30,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +53,11 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new StringField(readString(data, offset), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +76,29 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Like {@link #parse(DataInputStream)}, but reads the field straight
+     * out of a serialized tuple or page.
+     *
+     * @param data   the bytes to read from
+     * @param offset where the field starts in data
+     * @return a Field object of the same type as this object
+     */
+    public abstract Field parse(byte[] data, int offset);
+
+    /**
+     * @return the big-endian int at offset, as DataOutput writes it
+     */
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * @return the value of the STRING_TYPE field serialized at offset
+     */
+    public static String readString(byte[] data, int offset) {
+        return new String(data, offset + 4, readInt(data, offset));
+    }
+
 }
@@ -7,25 +7,40 @@ import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
-import javafx.scene.control.TreeTableView.TreeTableViewSelectionModel;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be
+ * computed together in one pass, grouped by any number of columns.
+ * <p>
+ * With more than one worker (see {@link ParallelPlan#setWorkers}), and a
+ * child that {@link ParallelPlan} can split, the table's pages are
+ * aggregated a morsel at a time on the worker pool, into a partial aggregate
+ * for each of the morsels run at once, and the partial aggregates are then
+ * merged on the calling thread.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private OpIterator child_;
+    private final int[] gfields_;
+    private final int[] afields_;
+    private final Aggregator.Op[] aops_;
+    private final MemoryBudget budget;
+    private TupleDesc td_;
+
+    private OpIterator it_;
+    private Aggregator agg;
+    // false if the child was run a morsel at a time instead
+    private boolean childOpen;
+
     /**
-     * Constructor.
-     * <p>
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * Constructor for a single aggregate, grouped by at most one column.
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -33,65 +48,111 @@ public class Aggregate extends Operator {
      *               there is no grouping
      * @param aop    The aggregation operator to use
      */
-    private OpIterator child_;
-    private int afield_;
-    private int gfield_;
-    private Aggregator.Op aop_;
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new int[]{afield}, new Aggregator.Op[]{aop});
+    }
 
-    private OpIterator it_;
-    private Aggregator agg;
+    /**
+     * Constructor for several aggregates, grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param gfields The columns over which we are grouping the result, none
+     *                if there is no grouping
+     * @param afields The column over which each aggregate is computed
+     * @param aops    The operator of each aggregate
+     * @throws IllegalArgumentException if there are no aggregates, not an
+     *                                  operator for each aggregate column,
+     *                                  or an operator is SUM_COUNT or SC_AVG
+     */
+    public Aggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, MemoryBudget.DEFAULT);
+    }
 
-    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // TODO: some code goes here
+    /**
+     * Constructor for several aggregates, grouped by several columns, that
+     * keeps at most budget of groups in memory; past it, groups are spilled
+     * to disk and aggregated one partition at a time.
+     */
+    public Aggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+                     MemoryBudget budget) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate");
+        }
+        HashAggregator.checkSupported(aops);
         child_ = child;
-        afield_ = afield;
-        gfield_ = gfield;
-        aop_ = aop;
+        gfields_ = gfields.clone();
+        afields_ = afields.clone();
+        aops_ = aops.clone();
+        this.budget = budget;
+        td_ = makeTupleDesc();
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        // TODO: some code goes here
-        return gfield_ == -1 ? Aggregator.NO_GROUPING : gfield_;
+        return gfields_.length == 0 ? Aggregator.NO_GROUPING : gfields_[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples. If not,
+     *         return null;
      */
     public String groupFieldName() {
-        // TODO: some code goes here
-        return gfield_ == -1 ? null : child_.getTupleDesc().getFieldName(gfield_);
+        return gfields_.length == 0 ? null : child_.getTupleDesc().getFieldName(gfields_[0]);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, in the
+     *         order they are output; empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields_.clone();
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field of the first aggregate
      */
     public int aggregateField() {
-        // TODO: some code goes here
-        return afield_;
+        return afields_[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the aggregate field of the first aggregate
+     *         in the <b>OUTPUT</b> tuples
      */
     public String aggregateFieldName() {
-        // TODO: some code goes here
-        return child_.getTupleDesc().getFieldName(afield_);
+        return child_.getTupleDesc().getFieldName(afields_[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator of the first aggregate
      */
     public Aggregator.Op aggregateOp() {
-        // TODO: some code goes here
-        return aop_;
+        return aops_[0];
+    }
+
+    /**
+     * @return the aggregate field of each aggregate, in the order they are
+     *         output
+     */
+    public int[] aggregateFields() {
+        return afields_.clone();
+    }
+
+    /**
+     * @return the operator of each aggregate, in the order they are output
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops_.clone();
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return budget;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -100,38 +161,78 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
-        // TODO: some code goes here
         super.open();
-        child_.open();
-        if (gfield_ == -1) {
-            if (child_.getTupleDesc().getFieldType(afield_).equals(Type.INT_TYPE)) {
-                agg = new IntegerAggregator(-1, null, afield_, aop_);
-            }
-            else {
-                agg = new StringAggregator(-1, null, afield_, aop_);
+        int workers = ParallelPlan.getWorkers();
+        if (workers == 1 || !ParallelPlan.canSplit(child_)) {
+            child_.open();
+            childOpen = true;
+            agg = newAggregator(budget);
+            while (child_.hasNext()) {
+                agg.mergeTupleIntoGroup(child_.next());
             }
         }
-        else if (child_.getTupleDesc().getFieldType(afield_).equals(Type.INT_TYPE)) {
-            agg = new IntegerAggregator(gfield_, child_.getTupleDesc().getFieldType(gfield_), afield_, aop_);
+        else {
+            agg = aggregateInParallel(workers);
         }
-        else if (child_.getTupleDesc().getFieldType(afield_).equals(Type.STRING_TYPE)) {
-            agg = new StringAggregator(gfield_, child_.getTupleDesc().getFieldType(gfield_), afield_, aop_);
+        it_ = agg.iterator();
+        it_.open();
+    }
+
+    private HashAggregator newAggregator(MemoryBudget budget) {
+        TupleDesc ctd = child_.getTupleDesc();
+        Type[] gtypes = new Type[gfields_.length];
+        for (int i = 0; i < gtypes.length; i++) {
+            gtypes[i] = ctd.getFieldType(gfields_[i]);
         }
-        while (child_.hasNext()) {
-            agg.mergeTupleIntoGroup(child_.next());
+        Type[] atypes = new Type[afields_.length];
+        for (int i = 0; i < atypes.length; i++) {
+            atypes[i] = ctd.getFieldType(afields_[i]);
         }
-        OpIterator itr = agg.iterator();
-        itr = agg.iterator();
-        itr.open();
-        it_ = itr;
+        return new HashAggregator(gfields_, gtypes, afields_, atypes, aops_, budget);
     }
-    
+
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Aggregate the child's morsels into a partial aggregator for each of
+     * at most workers morsels run at once, and merge the results. The
+     * partial aggregators fill up together, so they share the budget.
+     */
+    private HashAggregator aggregateInParallel(int workers)
+            throws DbException, TransactionAbortedException {
+        int morsels = (ParallelPlan.numPages(child_) + ParallelPlan.MORSEL_PAGES - 1) / ParallelPlan.MORSEL_PAGES;
+        int n = Math.max(1, Math.min(workers, morsels));
+        List<HashAggregator> partials = new ArrayList<>(n);
+        List<ParallelPlan.MorselConsumer> consumers = new ArrayList<>(n);
+        MemoryBudget share = budget.share(n);
+        for (int i = 0; i < n; i++) {
+            HashAggregator partial = newAggregator(share);
+            partials.add(partial);
+            consumers.add(morsel -> {
+                while (morsel.hasNext()) {
+                    partial.mergeTupleIntoGroup(morsel.next());
+                }
+            });
+        }
+        HashAggregator result = newAggregator(budget);
+        try {
+            ParallelPlan.forEachMorsel(child_, ParallelPlan.MORSEL_PAGES, consumers).await();
+            for (HashAggregator partial : partials) {
+                partial.mergeInto(result);
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            for (HashAggregator partial : partials) {
+                partial.discard();
+            }
+            result.discard();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the next tuple. Its first fields are the fields by which we
+     * are grouping, if any, and the remaining fields are the result of
+     * computing each aggregate. Should return null if there are no more
+     * tuples.
      */
     
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
@@ -149,29 +250,38 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * <p>
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate. The first fields are the
+     * group by fields, if any, and the rest are the aggregate value columns,
+     * named after the fields they aggregate.
      */
     public TupleDesc getTupleDesc() {
-        // TODO: some code goes here
-        if (gfield_ == -1) {
-            return child_.getTupleDesc();
+        return td_;
+    }
+
+    private TupleDesc makeTupleDesc() {
+        TupleDesc ctd = child_.getTupleDesc();
+        int n = gfields_.length + afields_.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gfields_.length; i++) {
+            types[i] = ctd.getFieldType(gfields_[i]);
+            names[i] = ctd.getFieldName(gfields_[i]);
         }
-        return new TupleDesc(new Type[]{child_.getTupleDesc().getFieldType(gfield_), Type.INT_TYPE}, 
-            new String[]{child_.getTupleDesc().getFieldName(gfield_), child_.getTupleDesc().getFieldName(afield_)});
+        for (int i = 0; i < afields_.length; i++) {
+            types[gfields_.length + i] = Type.INT_TYPE;
+            names[gfields_.length + i] = ctd.getFieldName(afields_[i]);
+        }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
         // TODO: some code goes here
         it_.close();
-        child_.close();
+        agg.discard();
+        if (childOpen) {
+            child_.close();
+            childOpen = false;
+        }
         super.close();
     }
 
@@ -183,8 +293,8 @@ public class Aggregate extends Operator {
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // TODO: some code goes here
         child_ = children[0];
+        td_ = makeTupleDesc();
     }
 
 }
@@ -1,5 +1,6 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleIterator;
 
@@ -75,8 +76,9 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if groups cannot be spilled to disk
      */
-    void mergeTupleIntoGroup(Tuple tup);
+    void mergeTupleIntoGroup(Tuple tup) throws DbException;
 
     /**
      * Create a OpIterator over group aggregate results.
@@ -85,4 +87,11 @@ public interface Aggregator extends Serializable {
      */
     OpIterator iterator();
 
+    /**
+     * Release any resources, such as spill files, held by the aggregator,
+     * which cannot be used afterwards.
+     */
+    default void discard() {
+    }
+
 }
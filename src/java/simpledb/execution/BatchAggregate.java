@@ -0,0 +1,211 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: one aggregate
+ * over one column, grouped by at most one column. Each group keeps running
+ * accumulators in parallel arrays instead of a list of its values, and int
+ * group keys are numbered by an {@link IntGroupMap}, so nothing is allocated
+ * per input row.
+ * <p>
+ * Results follow IntegerAggregator and StringAggregator: sums are kept in a
+ * long, AVG is its integer division by the count, and SUM is truncated to an
+ * int. Unlike them, groups are never spilled. String columns can only be
+ * counted. Without grouping there is always exactly one output row; its AVG
+ * over no rows is 0.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient int numGroups;
+    private transient int[] counts, mins, maxs;
+    private transient long[] sums;
+    private transient IntGroupMap intGroups;
+    private transient String[] stringKeys;
+    private transient Map<String, Integer> stringGroups;
+
+    private transient TupleBatch out;
+    private transient int emitted;
+
+    /**
+     * @see Aggregate#Aggregate
+     * @throws IllegalArgumentException if aop cannot be computed over the
+     *                                  aggregate field's type
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc ctd = child.getTupleDesc();
+        if (!supports(ctd, afield, aop)) {
+            throw new IllegalArgumentException("cannot compute " + aop + " over " + ctd.getFieldType(afield));
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{ctd.getFieldName(afield)});
+        }
+        else {
+            td = new TupleDesc(new Type[]{ctd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{ctd.getFieldName(gfield), ctd.getFieldName(afield)});
+        }
+    }
+
+    /**
+     * @return true if aop over field afield of childTd can run in batches
+     */
+    static boolean supports(TupleDesc childTd, int afield, Aggregator.Op aop) {
+        switch (aop) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                return childTd.getFieldType(afield) == Type.INT_TYPE;
+            case COUNT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        numGroups = 0;
+        counts = new int[16];
+        sums = new long[16];
+        mins = new int[16];
+        maxs = new int[16];
+        stringKeys = new String[16];
+        intGroups = new IntGroupMap();
+        stringGroups = new HashMap<>();
+        if (gfield == Aggregator.NO_GROUPING) {
+            newGroup();
+        }
+
+        boolean ints = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int[] values = ints ? b.intColumn(afield) : null;
+            for (int r = 0; r < b.numRows(); r++) {
+                int pos = b.position(r);
+                int g = gfield == Aggregator.NO_GROUPING ? 0 : groupOf(b, pos);
+                counts[g]++;
+                if (ints) {
+                    int v = values[pos];
+                    sums[g] += v;
+                    mins[g] = Math.min(mins[g], v);
+                    maxs[g] = Math.max(maxs[g], v);
+                }
+            }
+        }
+        out = new TupleBatch(td);
+        emitted = 0;
+    }
+
+    private int newGroup() {
+        if (numGroups == counts.length) {
+            int n = numGroups * 2;
+            counts = Arrays.copyOf(counts, n);
+            sums = Arrays.copyOf(sums, n);
+            mins = Arrays.copyOf(mins, n);
+            maxs = Arrays.copyOf(maxs, n);
+            stringKeys = Arrays.copyOf(stringKeys, n);
+        }
+        mins[numGroups] = Integer.MAX_VALUE;
+        maxs[numGroups] = Integer.MIN_VALUE;
+        return numGroups++;
+    }
+
+    /**
+     * @return the group of the row at pos in b, created if it is new
+     */
+    private int groupOf(TupleBatch b, int pos) {
+        if (td.getFieldType(0) == Type.STRING_TYPE) {
+            String key = b.stringColumn(gfield)[pos];
+            Integer g = stringGroups.get(key);
+            if (g == null) {
+                g = newGroup();
+                stringKeys[g] = key;
+                stringGroups.put(key, g);
+            }
+            return g;
+        }
+        int key = b.intColumn(gfield)[pos];
+        int g = intGroups.get(key);
+        if (g < 0) {
+            g = intGroups.add(key);
+            newGroup();
+        }
+        return g;
+    }
+
+    private int result(int g) {
+        switch (aop) {
+            case MIN:
+                return mins[g];
+            case MAX:
+                return maxs[g];
+            case SUM:
+                return (int) sums[g];
+            case AVG:
+                return counts[g] == 0 ? 0 : (int) (sums[g] / counts[g]);
+            default:
+                return counts[g];
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchAggregate not yet open");
+        }
+        out.clear();
+        int valueCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        for (; emitted < numGroups && !out.isFull(); emitted++) {
+            int pos = out.addRow();
+            if (valueCol == 1) {
+                if (td.getFieldType(0) == Type.INT_TYPE) {
+                    out.setInt(0, pos, intGroups.key(emitted));
+                }
+                else {
+                    out.setString(0, pos, stringKeys[emitted]);
+                }
+            }
+            out.setInt(valueCol, pos, result(emitted));
+        }
+        return out.numRows() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+
+    public void close() {
+        child.close();
+        out = null;
+        intGroups = null;
+        stringGroups = null;
+    }
+}
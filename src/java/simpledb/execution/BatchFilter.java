@@ -0,0 +1,131 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. It evaluates the
+ * predicate over a whole column at a time and passes on the child's batch
+ * with a selection vector of the rows that satisfy it; no column data is
+ * copied.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private BatchOpIterator child;
+    private transient int[] sel;
+
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            if (sel == null || sel.length < b.numRows()) {
+                sel = new int[b.capacity()];
+            }
+            int n = p.getOperand() instanceof IntField
+                    ? selectInts(b, b.intColumn(p.getField()), ((IntField) p.getOperand()).getValue())
+                    : selectStrings(b, b.stringColumn(p.getField()), ((StringField) p.getOperand()).getValue());
+            if (n > 0) {
+                return b.select(sel, n);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fill sel with the positions of the live rows of b whose value in col
+     * satisfies the predicate, one tight loop per operator.
+     *
+     * @return the number of positions selected
+     */
+    private int selectInts(TupleBatch b, int[] col, int v) {
+        int rows = b.numRows();
+        int n = 0;
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] == v) sel[n++] = pos;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] != v) sel[n++] = pos;
+                }
+                break;
+            case GREATER_THAN:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] > v) sel[n++] = pos;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] >= v) sel[n++] = pos;
+                }
+                break;
+            case LESS_THAN:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] < v) sel[n++] = pos;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int r = 0; r < rows; r++) {
+                    int pos = b.position(r);
+                    if (col[pos] <= v) sel[n++] = pos;
+                }
+                break;
+        }
+        return n;
+    }
+
+    private int selectStrings(TupleBatch b, String[] col, String v) {
+        int rows = b.numRows();
+        int n = 0;
+        for (int r = 0; r < rows; r++) {
+            int pos = b.position(r);
+            if (StringField.compare(col[pos], p.getOp(), v)) {
+                sel[n++] = pos;
+            }
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. It copies
+ * all of child1 into column batches and indexes them with a chained hash
+ * table held in two int arrays, then streams child2's batches past it,
+ * writing the concatenated matches into output batches.
+ * <p>
+ * child1 is held in memory only while it fits in the join's
+ * {@link MemoryBudget}. Once it does not, the join is handed to a
+ * HashEquiJoin over the children, which partitions and spills them, and its
+ * tuples are returned in batches.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final MemoryBudget memoryBudget;
+
+    // build side: row i is at position i % capacity of built.get(i / capacity)
+    private transient List<TupleBatch> built;
+    private transient int[] heads; // bucket -> first row, or -1
+    private transient int[] next; // row -> next row in its bucket, or -1
+    private transient int mask;
+    private transient boolean comparable;
+
+    // probe side: the current child2 batch, row and position in the chain
+    private transient TupleBatch probe;
+    private transient int probeRow;
+    private transient int chain;
+    private transient boolean done;
+    private transient TupleBatch out;
+    // the join run on tuples, once child1 turned out not to fit
+    private transient BatchOpIterator spilling;
+
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        this(p, child1, child2, MemoryBudget.DEFAULT);
+    }
+
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2,
+                             MemoryBudget budget) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryBudget = budget;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        comparable = child1.getTupleDesc().getFieldType(pred.getField1())
+                == child2.getTupleDesc().getFieldType(pred.getField2());
+        if (!build()) {
+            built = null;
+            child2.close();
+            child1.close();
+            spilling = new TupleToBatch(new HashEquiJoin(pred, new BatchToTuple(child1),
+                    new BatchToTuple(child2), memoryBudget));
+            spilling.open();
+            return;
+        }
+        out = new TupleBatch(comboTD);
+        resetProbe();
+    }
+
+    /**
+     * Copy child1 into memory and index it.
+     *
+     * @return false, with child1 only partly copied, if it does not fit in
+     *         the memory budget
+     */
+    private boolean build() throws DbException, TransactionAbortedException {
+        int budget = memoryBudget.tuples(child1.getTupleDesc());
+        built = new ArrayList<>();
+        TupleDesc td1 = child1.getTupleDesc();
+        TupleBatch cur = null;
+        int numRows = 0;
+        TupleBatch b;
+        while ((b = child1.nextBatch()) != null) {
+            for (int r = 0; r < b.numRows(); r++) {
+                if (numRows == budget) {
+                    return false;
+                }
+                if (cur == null || cur.isFull()) {
+                    cur = new TupleBatch(td1);
+                    built.add(cur);
+                }
+                int pos = cur.addRow();
+                for (int c = 0; c < td1.numFields(); c++) {
+                    b.copyValue(c, b.position(r), cur, c, pos);
+                }
+                numRows++;
+            }
+        }
+
+        int buckets = Integer.highestOneBit(Math.max(numRows, 1) * 2 - 1) << 1;
+        mask = buckets - 1;
+        heads = new int[buckets];
+        Arrays.fill(heads, -1);
+        next = new int[numRows];
+        int cap = TupleBatch.DEFAULT_CAPACITY;
+        for (int i = 0; i < numRows; i++) {
+            int h = hash(built.get(i / cap), pred.getField1(), i % cap) & mask;
+            next[i] = heads[h];
+            heads[h] = i;
+        }
+        return true;
+    }
+
+    private void resetProbe() {
+        probe = null;
+        probeRow = 0;
+        chain = -1;
+        done = !comparable;
+    }
+
+    private static int hash(TupleBatch b, int col, int pos) {
+        int h = b.getTupleDesc().getFieldType(col) == Type.INT_TYPE
+                ? b.intColumn(col)[pos] : b.stringColumn(col)[pos].hashCode();
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean keysEqual(TupleBatch b1, int col1, int pos1, TupleBatch b2, int col2, int pos2) {
+        if (b1.getTupleDesc().getFieldType(col1) == Type.INT_TYPE) {
+            return b1.intColumn(col1)[pos1] == b2.intColumn(col2)[pos2];
+        }
+        return b1.stringColumn(col1)[pos1].equals(b2.stringColumn(col2)[pos2]);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (spilling != null) {
+            return spilling.nextBatch();
+        }
+        if (out == null) {
+            throw new IllegalStateException("BatchHashEquiJoin not yet open");
+        }
+        out.clear();
+        int cap = TupleBatch.DEFAULT_CAPACITY;
+        int n1 = child1.getTupleDesc().numFields();
+        int n2 = child2.getTupleDesc().numFields();
+        int probePos = probe == null ? -1 : probe.position(probeRow);
+        while (!done && !out.isFull()) {
+            if (chain < 0) {
+                // move on to the next probe row
+                if (probe != null) {
+                    probeRow++;
+                }
+                if (probe == null || probeRow >= probe.numRows()) {
+                    probe = child2.nextBatch();
+                    probeRow = 0;
+                    if (probe == null) {
+                        done = true;
+                        break;
+                    }
+                }
+                probePos = probe.position(probeRow);
+                chain = heads[hash(probe, pred.getField2(), probePos) & mask];
+                continue;
+            }
+            int i = chain;
+            chain = next[i];
+            TupleBatch b = built.get(i / cap);
+            int pos = i % cap;
+            if (keysEqual(b, pred.getField1(), pos, probe, pred.getField2(), probePos)) {
+                int o = out.addRow();
+                for (int c = 0; c < n1; c++) {
+                    b.copyValue(c, pos, out, c, o);
+                }
+                for (int c = 0; c < n2; c++) {
+                    probe.copyValue(c, probePos, out, n1 + c, o);
+                }
+            }
+        }
+        return out.numRows() > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spilling != null) {
+            spilling.rewind();
+            return;
+        }
+        child2.rewind();
+        resetProbe();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child1, child2};
+    }
+
+    public void close() {
+        if (spilling != null) {
+            // closes the children too
+            spilling.close();
+            spilling = null;
+        }
+        else {
+            child2.close();
+            child1.close();
+        }
+        built = null;
+        heads = null;
+        next = null;
+        probe = null;
+        out = null;
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch counterpart of {@link OpIterator}: instead of
+ * one Tuple per call, an operator hands its parent a {@link TupleBatch} of
+ * up to a few thousand rows stored as column vectors, so that per-row work
+ * is a loop over arrays rather than a chain of virtual calls and Field
+ * objects.
+ * <p>
+ * A batch belongs to the operator that returned it and is only valid until
+ * the next call to nextBatch, rewind or close on that operator, which may
+ * reuse it. {@link BatchToTuple} and {@link TupleToBatch} adapt between the
+ * two interfaces, and {@link BatchPlan} turns a tuple-at-a-time plan into a
+ * batch one.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows.
+     *
+     * @return a batch with at least one live row, or null if there are no
+     *         more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException           when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows in the batches of this iterator
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * @return the children of this operator, as Operator.getChildren does
+     */
+    BatchOpIterator[] getChildren();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
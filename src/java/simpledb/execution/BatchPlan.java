@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+/**
+ * BatchPlan rewrites a tuple-at-a-time physical plan, as built by
+ * LogicalPlan.physicalPlan, to run in batches. SeqScan, Filter, Project,
+ * HashEquiJoin and Aggregate are replaced by their batch versions. Any other
+ * Operator stays as it is, with its children rewritten and adapted back to
+ * tuples, so every plan can be rewritten and the result is always correct;
+ * it only runs faster where the batch operators reach.
+ * <p>
+ * Batch plans produce tuples without RecordIds, so they are meant for
+ * queries, not for the children of Insert and Delete.
+ */
+public class BatchPlan {
+
+    private BatchPlan() {
+    }
+
+    /**
+     * @return a tuple-at-a-time iterator over the same rows as plan, with
+     *         as much of plan as possible running in batches
+     */
+    public static OpIterator toBatchPlan(OpIterator plan) {
+        BatchOpIterator batch = toBatch(plan);
+        if (batch instanceof TupleToBatch) {
+            return ((TupleToBatch) batch).getTupleChild();
+        }
+        return new BatchToTuple(batch);
+    }
+
+    /**
+     * @return a batch iterator over the same rows as plan
+     */
+    public static BatchOpIterator toBatch(OpIterator plan) {
+        if (plan instanceof BatchToTuple) {
+            return ((BatchToTuple) plan).getBatchChild();
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan ss = (SeqScan) plan;
+            return new BatchSeqScan(ss.getTransactionId(), ss.getTableId(), ss.getAlias());
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new BatchFilter(f.getPredicate(), toBatch(f.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return new BatchProject(p.getFieldList(), p.getTupleDesc(), toBatch(p.getChildren()[0]));
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            OpIterator[] children = j.getChildren();
+            return new BatchHashEquiJoin(j.getJoinPredicate(), toBatch(children[0]), toBatch(children[1]),
+                    j.getMemoryBudget());
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            OpIterator child = a.getChildren()[0];
+            if (a.groupFields().length <= 1 && a.aggregateFields().length == 1
+                    && BatchAggregate.supports(child.getTupleDesc(), a.aggregateField(), a.aggregateOp())) {
+                return new BatchAggregate(toBatch(child), a.aggregateField(), a.groupField(), a.aggregateOp());
+            }
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            OpIterator[] adapted = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                adapted[i] = toBatchPlan(children[i]);
+            }
+            op.setChildren(adapted);
+        }
+        return new TupleToBatch(plan);
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}: it passes on each
+ * batch of its child as a view with the projected columns, without copying
+ * them.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] cols;
+    private final TupleDesc td;
+    private BatchOpIterator child;
+
+    /**
+     * @param fieldList the ids of the child's fields to project out
+     * @param td        the TupleDesc of the projection
+     * @param child     the child operator
+     */
+    public BatchProject(List<Integer> fieldList, TupleDesc td, BatchOpIterator child) {
+        this.cols = new int[fieldList.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = fieldList.get(i);
+        }
+        this.td = td;
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        return b == null ? null : b.project(cols, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[]{child};
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan}. Over a HeapFile it
+ * decodes the pages it reads through the buffer pool straight into column
+ * vectors (see {@link HeapPage#decodeInto}); over any other DbFile it falls
+ * back to the file's tuple iterator.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final TupleDesc td;
+    private transient TupleBatch batch;
+    // HeapFile scans: the page and slot to continue from
+    private transient int numPages;
+    private transient int pageNo;
+    private transient int slot;
+    // other files
+    private transient DbFileIterator it;
+
+    /**
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.td = new SeqScan(tid, tableId, tableAlias).getTupleDesc();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(td);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile) file).numPages();
+            pageNo = 0;
+            slot = 0;
+        }
+        else {
+            it = file.iterator(tid);
+            it.open();
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        }
+        batch.clear();
+        if (it != null) {
+            while (!batch.isFull() && it.hasNext()) {
+                batch.addTuple(it.next());
+            }
+        }
+        else {
+            while (!batch.isFull() && pageNo < numPages) {
+                HeapPageId pid = new HeapPageId(tableId, pageNo);
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                slot = page.decodeInto(slot, batch);
+                if (slot == page.getNumSlots()) {
+                    pageNo++;
+                    slot = 0;
+                }
+            }
+        }
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+
+    public void close() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        batch = null;
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchToTuple presents a {@link BatchOpIterator} as a tuple-at-a-time
+ * Operator, making one Tuple per live row of its child's batches. The
+ * tuples have no RecordIds.
+ */
+public class BatchToTuple extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int row;
+
+    public BatchToTuple(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch operator this adapter reads from
+     */
+    public BatchOpIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || row == batch.numRows()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(row++);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Gather runs its child, a plan that {@link ParallelPlan} can split, on the
+ * shared worker pool, and returns the tuples it produces to the calling
+ * thread. The table's pages are handed out in morsels of a few pages each
+ * (see {@link ParallelPlan#forEachMorsel}): a worker that finishes a morsel
+ * claims the next one, so workers that are slowed down do not hold up the
+ * others. Each worker runs a copy of the child over its morsel, so the
+ * Filters and Projects in the child run on the workers too.
+ * <p>
+ * The tuples are those of the child, in no particular order.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default number of pages in a morsel.
+     */
+    public static final int DEFAULT_MORSEL_PAGES = ParallelPlan.MORSEL_PAGES;
+
+    // tuples a worker hands over at once
+    private static final int CHUNK_TUPLES = 256;
+    // chunks each worker may have waiting for the calling thread
+    private static final int CHUNKS_PER_WORKER = 4;
+    // queued after the workers' last chunk
+    private static final List<Tuple> DONE = new ArrayList<>(0);
+
+    private OpIterator child;
+    private final int workers;
+    private final int morselPages;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient ParallelPlan.Morsels run;
+    private transient volatile boolean cancelled;
+    private transient boolean exhausted;
+    private transient List<Tuple> chunk;
+    private transient int pos;
+
+    /**
+     * @param child   the plan to run on the workers
+     * @param workers the most morsels to run at once
+     * @throws IllegalArgumentException if child cannot be split, or workers
+     *                                  is not positive
+     */
+    public Gather(OpIterator child, int workers) {
+        this(child, workers, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @param child       the plan to run on the workers
+     * @param workers     the most morsels to run at once
+     * @param morselPages the number of pages a worker claims at a time
+     * @throws IllegalArgumentException if child cannot be split, or workers
+     *                                  or morselPages is not positive
+     */
+    public Gather(OpIterator child, int workers, int morselPages) {
+        if (!ParallelPlan.canSplit(child)) {
+            throw new IllegalArgumentException("Gather needs a plan that can be split by pages");
+        }
+        if (workers < 1 || morselPages < 1) {
+            throw new IllegalArgumentException("workers and morsel pages must be positive");
+        }
+        this.child = child;
+        this.workers = workers;
+        this.morselPages = morselPages;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        int pages = ParallelPlan.numPages(child);
+        int n = Math.max(1, Math.min(workers, (pages + morselPages - 1) / morselPages));
+        queue = new ArrayBlockingQueue<>(n * CHUNKS_PER_WORKER);
+        cancelled = false;
+        exhausted = false;
+        chunk = null;
+        pos = 0;
+        BlockingQueue<List<Tuple>> q = queue;
+        run = ParallelPlan.forEachMorsel(child, morselPages,
+                Collections.nCopies(n, this::consume), () -> {
+                    try {
+                        put(q, DONE);
+                    } catch (DbException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+        super.open();
+    }
+
+    /**
+     * Put the tuples of morsel on the queue, a chunk at a time.
+     */
+    private void consume(OpIterator morsel) throws DbException, TransactionAbortedException {
+        List<Tuple> out = new ArrayList<>(CHUNK_TUPLES);
+        while (!cancelled && morsel.hasNext()) {
+            out.add(morsel.next());
+            if (out.size() == CHUNK_TUPLES) {
+                put(out);
+                out = new ArrayList<>(CHUNK_TUPLES);
+            }
+        }
+        if (!out.isEmpty()) {
+            put(out);
+        }
+    }
+
+    /**
+     * Put tuples on the queue, unless the Gather is closed first. Closing
+     * clears the queue, so workers waiting for room are let through, and
+     * stop once they see the Gather is closed; as each worker puts at most
+     * one chunk after that, they all fit.
+     */
+    private void put(List<Tuple> tuples) throws DbException {
+        if (!cancelled) {
+            put(queue, tuples);
+        }
+    }
+
+    private static void put(BlockingQueue<List<Tuple>> q, List<Tuple> tuples) throws DbException {
+        ParallelPlan.block(new ForkJoinPool.ManagedBlocker() {
+            private boolean put;
+
+            public boolean block() throws InterruptedException {
+                q.put(tuples);
+                put = true;
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return put || (put = q.offer(tuples));
+            }
+        });
+    }
+
+    /**
+     * @return the next chunk on the queue, or null if the workers are done
+     *         and there are none left
+     */
+    private List<Tuple> take() throws DbException {
+        List<List<Tuple>> taken = new ArrayList<>(1);
+        ParallelPlan.block(new ForkJoinPool.ManagedBlocker() {
+            public boolean block() throws InterruptedException {
+                taken.add(queue.take());
+                return true;
+            }
+
+            public boolean isReleasable() {
+                List<Tuple> c = taken.isEmpty() ? queue.poll() : null;
+                if (c != null) {
+                    taken.add(c);
+                }
+                return !taken.isEmpty();
+            }
+        });
+        List<Tuple> c = taken.get(0);
+        return c == DONE ? null : c;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || pos == chunk.size()) {
+            Throwable f = run.getFailure();
+            if (f != null) {
+                stop();
+                ParallelPlan.rethrow(f);
+            }
+            if (exhausted) {
+                return null;
+            }
+            chunk = take();
+            pos = 0;
+            exhausted = chunk == null;
+        }
+        return chunk.get(pos++);
+    }
+
+    /**
+     * Tell the workers to stop, and wait until they have.
+     */
+    private void stop() {
+        if (run != null && !cancelled) {
+            cancelled = true;
+            queue.clear();
+            run.cancel();
+        }
+        queue = null;
+        chunk = null;
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!ParallelPlan.canSplit(children[0])) {
+            throw new IllegalArgumentException("Gather needs a plan that can be split by pages");
+        }
+        child = children[0];
+    }
+}
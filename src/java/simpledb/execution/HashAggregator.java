@@ -0,0 +1,547 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * HashAggregator computes any number of aggregates, grouped by any number
+ * of fields, in one pass over its input; {@link IntegerAggregator} and
+ * {@link StringAggregator} are its single aggregate, single group-by field
+ * cases. Each group keeps running accumulators for each aggregate in arrays
+ * indexed by group number: a count, a long sum, a min and a max, so memory
+ * grows with the number of groups, not rows. A single INT group key is
+ * numbered by an {@link IntGroupMap}, other keys by a HashMap.
+ * <p>
+ * Once the groups no longer fit in the {@link MemoryBudget}, sized as
+ * their partial aggregates, the groups in memory are written out as partial
+ * aggregates to PARTITIONS spill files, chosen by a hash of their keys, and
+ * aggregation starts over with no groups. {@link #iterator} then adds the groups in memory to the files too,
+ * and aggregates the partial aggregates of one file at a time, spilling a
+ * file that still has too many groups with a different hash.
+ */
+class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of files each spill writes groups to.
+     */
+    static final int PARTITIONS = 16;
+
+    // past this depth a partition is aggregated in memory whatever its size
+    private static final int MAX_DEPTH = 4;
+
+    // the fields of a partial aggregate, after the group key
+    private static final int STATE_FIELDS = 5;
+
+    private final int[] gbfields;
+    private final Type[] gbfieldTypes;
+    private final int[] afields;
+    private final Type[] afieldTypes;
+    private final Op[] whats;
+    private final int depth;
+    private final MemoryBudget budget;
+    // the number of groups that fit in the budget
+    private final int maxGroups;
+    private final TupleDesc td;
+    // a partial aggregate: the group key, then for each aggregate its
+    // count, sum high and low words, min and max
+    private final TupleDesc stateTd;
+    private final boolean intKeys;
+
+    private int numGroups;
+    // accumulators of aggregate a of group g are at g * whats.length + a
+    private int[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+    private IntGroupMap intGroups;
+    // keys other than a single INT: a String, or a List of the key values
+    private Map<Object, Integer> groups;
+    private Object[] keys;
+
+    // null until groups are first spilled
+    private transient SpillFile[] partitions;
+
+    /**
+     * @param gbfields     the group-by fields of the input tuples, none if
+     *                     there is no grouping
+     * @param gbfieldTypes the types of the group-by fields
+     * @param afields      the aggregate field of each aggregate
+     * @param afieldTypes  the types of the aggregate fields
+     * @param whats        the operator of each aggregate
+     * @throws IllegalArgumentException if an aggregate other than COUNT is
+     *                                  over a STRING field, or is SUM_COUNT
+     *                                  or SC_AVG
+     */
+    HashAggregator(int[] gbfields, Type[] gbfieldTypes, int[] afields, Type[] afieldTypes, Op[] whats) {
+        this(gbfields, gbfieldTypes, afields, afieldTypes, whats, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Creates an aggregator that holds at most budget of groups in memory.
+     */
+    HashAggregator(int[] gbfields, Type[] gbfieldTypes, int[] afields, Type[] afieldTypes, Op[] whats,
+                   MemoryBudget budget) {
+        this(gbfields, gbfieldTypes, afields, afieldTypes, whats, budget, 0);
+    }
+
+    private HashAggregator(int[] gbfields, Type[] gbfieldTypes, int[] afields, Type[] afieldTypes, Op[] whats,
+                           MemoryBudget budget, int depth) {
+        if (gbfields.length != gbfieldTypes.length || afields.length != whats.length
+                || afieldTypes.length != whats.length || whats.length == 0) {
+            throw new IllegalArgumentException("mismatched group-by or aggregate fields");
+        }
+        checkSupported(whats);
+        for (int a = 0; a < whats.length; a++) {
+            if (afieldTypes[a] == Type.STRING_TYPE && whats[a] != Op.COUNT) {
+                throw new IllegalArgumentException("cannot compute " + whats[a] + " over a string field");
+            }
+        }
+        this.gbfields = gbfields;
+        this.gbfieldTypes = gbfieldTypes;
+        this.afields = afields;
+        this.afieldTypes = afieldTypes;
+        this.whats = whats;
+        this.depth = depth;
+        this.intKeys = gbfields.length == 1 && gbfieldTypes[0] == Type.INT_TYPE;
+
+        Type[] types = Arrays.copyOf(gbfieldTypes, gbfields.length + whats.length);
+        Type[] state = Arrays.copyOf(gbfieldTypes, gbfields.length + whats.length * STATE_FIELDS);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        Arrays.fill(state, gbfields.length, state.length, Type.INT_TYPE);
+        td = new TupleDesc(types);
+        stateTd = new TupleDesc(state);
+        this.budget = budget;
+        this.maxGroups = budget.tuples(stateTd);
+        clearGroups();
+    }
+
+    /**
+     * @throws IllegalArgumentException if an operator is SUM_COUNT or
+     *                                  SC_AVG, which need more than one
+     *                                  column per aggregate
+     */
+    static void checkSupported(Op[] whats) {
+        for (Op what : whats) {
+            if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+                throw new IllegalArgumentException(what + " is not supported");
+            }
+        }
+    }
+
+    private void clearGroups() {
+        numGroups = 0;
+        counts = new int[16 * whats.length];
+        sums = new long[counts.length];
+        mins = new int[counts.length];
+        maxs = new int[counts.length];
+        intGroups = new IntGroupMap();
+        groups = new HashMap<>();
+        keys = new Object[16];
+        if (gbfields.length == 0) {
+            newGroup();
+        }
+    }
+
+    private int newGroup() {
+        int base = numGroups * whats.length;
+        if (base == counts.length) {
+            counts = Arrays.copyOf(counts, base * 2);
+            sums = Arrays.copyOf(sums, base * 2);
+            mins = Arrays.copyOf(mins, base * 2);
+            maxs = Arrays.copyOf(maxs, base * 2);
+            keys = Arrays.copyOf(keys, numGroups * 2);
+        }
+        Arrays.fill(mins, base, base + whats.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + whats.length, Integer.MIN_VALUE);
+        return numGroups++;
+    }
+
+    /**
+     * @return the key of a tuple whose group key is in fields of t, for the
+     *         HashMap of groups
+     */
+    private Object keyOf(Tuple t, int[] fields) {
+        if (fields.length == 1) {
+            return t.getString(fields[0]);
+        }
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = gbfieldTypes[i] == Type.INT_TYPE ? (Object) t.getInt(fields[i]) : t.getString(fields[i]);
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Write the key of group g into the first fields of t.
+     */
+    private void writeKey(Tuple t, int g) {
+        if (intKeys) {
+            t.setInt(0, intGroups.key(g));
+        } else if (gbfields.length == 1) {
+            t.setString(0, (String) keys[g]);
+        } else {
+            List<?> values = (List<?>) keys[g];
+            for (int i = 0; i < gbfields.length; i++) {
+                if (gbfieldTypes[i] == Type.INT_TYPE) {
+                    t.setInt(i, (Integer) values.get(i));
+                } else {
+                    t.setString(i, (String) values.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of the group of the tuple whose group key is in
+     *         fields of t, created if it is new
+     */
+    private int group(Tuple t, int[] fields) throws DbException {
+        if (fields.length == 0) {
+            return 0;
+        }
+        if (intKeys) {
+            int key = t.getInt(fields[0]);
+            int g = intGroups.get(key);
+            if (g < 0) {
+                makeRoom();
+                g = intGroups.add(key);
+                newGroup();
+            }
+            return g;
+        }
+        Object key = keyOf(t, fields);
+        Integer g = groups.get(key);
+        if (g == null) {
+            makeRoom();
+            g = newGroup();
+            keys[g] = key;
+            groups.put(key, g);
+        }
+        return g;
+    }
+
+    /**
+     * Spill the groups in memory if there is no room for another.
+     */
+    private void makeRoom() throws DbException {
+        if (numGroups >= maxGroups && depth < MAX_DEPTH) {
+            spill();
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group, creating the group
+     * if it has not been encountered yet.
+     *
+     * @param tup the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        int base = group(tup, gbfields) * whats.length;
+        for (int a = 0; a < whats.length; a++) {
+            int i = base + a;
+            counts[i]++;
+            if (afieldTypes[a] == Type.INT_TYPE) {
+                int value = tup.getInt(afields[a]);
+                sums[i] += value;
+                mins[i] = Math.min(mins[i], value);
+                maxs[i] = Math.max(maxs[i], value);
+            }
+        }
+    }
+
+    /**
+     * Merge a partial aggregate, as written by spill, into its group.
+     */
+    private void mergeState(Tuple state, int[] keyFields) throws DbException {
+        int base = group(state, keyFields) * whats.length;
+        for (int a = 0; a < whats.length; a++) {
+            int i = base + a;
+            int f = keyFields.length + a * STATE_FIELDS;
+            counts[i] += state.getInt(f);
+            sums[i] += ((long) state.getInt(f + 1) << 32) | (state.getInt(f + 2) & 0xFFFFFFFFL);
+            mins[i] = Math.min(mins[i], state.getInt(f + 3));
+            maxs[i] = Math.max(maxs[i], state.getInt(f + 4));
+        }
+    }
+
+    private int partition(int g) {
+        int hash = intKeys ? Integer.hashCode(intGroups.key(g)) : keys[g].hashCode();
+        int h = (hash ^ (depth * 0x61c88647)) * 0x9e3779b9;
+        return Math.floorMod(h ^ (h >>> 16), PARTITIONS);
+    }
+
+    /**
+     * Write the groups in memory to the partition files, and forget them.
+     */
+    private void spill() throws DbException {
+        try {
+            if (partitions == null) {
+                partitions = new SpillFile[PARTITIONS];
+                for (int i = 0; i < PARTITIONS; i++) {
+                    partitions[i] = new SpillFile(stateTd);
+                }
+            }
+            for (int g = 0; g < numGroups; g++) {
+                partitions[partition(g)].add(state(g));
+            }
+        } catch (IOException e) {
+            throw new DbException("HashAggregator: spilling groups: " + e.getMessage());
+        }
+        clearGroups();
+    }
+
+    /**
+     * @return the partial aggregate of group g
+     */
+    private Tuple state(int g) {
+        Tuple t = new Tuple(stateTd);
+        writeKey(t, g);
+        for (int a = 0; a < whats.length; a++) {
+            int i = g * whats.length + a;
+            int f = gbfields.length + a * STATE_FIELDS;
+            t.setInt(f, counts[i]);
+            t.setInt(f + 1, (int) (sums[i] >>> 32));
+            t.setInt(f + 2, (int) sums[i]);
+            t.setInt(f + 3, mins[i]);
+            t.setInt(f + 4, maxs[i]);
+        }
+        return t;
+    }
+
+    /**
+     * Merge the groups of this aggregator, in memory and spilled, into
+     * target, which must compute the same aggregates with the same grouping,
+     * and discard them. This is how partial aggregates computed over parts
+     * of the input, e.g. on different threads, are combined.
+     */
+    void mergeInto(HashAggregator target) throws DbException {
+        int[] keyFields = firstFields(gbfields.length);
+        for (int g = 0; g < numGroups; g++) {
+            target.mergeState(state(g), keyFields);
+        }
+        clearGroups();
+        if (partitions != null) {
+            for (SpillFile f : partitions) {
+                try (SpillFile.Reader r = f.open()) {
+                    while (r.hasNext()) {
+                        target.mergeState(r.next(), keyFields);
+                    }
+                } catch (IOException e) {
+                    throw new DbException("HashAggregator: reading spilled groups: " + e.getMessage());
+                }
+            }
+            discard();
+        }
+    }
+
+    private static int[] firstFields(int n) {
+        int[] fields = new int[n];
+        for (int i = 0; i < n; i++) {
+            fields[i] = i;
+        }
+        return fields;
+    }
+
+    /**
+     * @return the value of aggregate a over group g
+     */
+    private int result(int g, int a) {
+        int i = g * whats.length + a;
+        switch (whats[a]) {
+            case MIN:
+                return mins[i];
+            case MAX:
+                return maxs[i];
+            case SUM:
+                return (int) sums[i];
+            case AVG:
+                return counts[i] == 0 ? 0 : (int) (sums[i] / counts[i]);
+            case COUNT:
+                return counts[i];
+            default:
+                throw new UnsupportedOperationException(whats[a] + " is not supported");
+        }
+    }
+
+    /**
+     * Release the spill files, if any; the aggregator cannot be used
+     * afterwards.
+     */
+    public void discard() {
+        if (partitions != null) {
+            for (SpillFile f : partitions) {
+                f.delete();
+            }
+            partitions = null;
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the values of the group-by
+     *         fields, if any, followed by the value of each aggregate
+     */
+    public OpIterator iterator() {
+        if (partitions == null) {
+            List<Tuple> results = new ArrayList<>(numGroups);
+            for (int g = 0; g < numGroups; g++) {
+                Tuple t = new Tuple(td);
+                writeKey(t, g);
+                for (int a = 0; a < whats.length; a++) {
+                    t.setInt(gbfields.length + a, result(g, a));
+                }
+                results.add(t);
+            }
+            return new ResultIterator(results);
+        }
+        return new SpilledIterator();
+    }
+
+    /**
+     * Aggregates the partial aggregates in a partition file, whose group
+     * key is in its first fields.
+     */
+    private static class Partition extends HashAggregator {
+        private static final long serialVersionUID = 1L;
+        private final int[] keyFields;
+
+        Partition(HashAggregator parent) {
+            super(firstFields(parent.gbfields.length), parent.gbfieldTypes, parent.afields,
+                    parent.afieldTypes, parent.whats, parent.budget, parent.depth + 1);
+            keyFields = firstFields(parent.gbfields.length);
+        }
+
+        public void mergeTupleIntoGroup(Tuple state) throws DbException {
+            super.mergeState(state, keyFields);
+        }
+    }
+
+    /**
+     * Returns results held in memory.
+     */
+    private class ResultIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private final List<Tuple> results;
+        private int pos = -1;
+
+        ResultIterator(List<Tuple> results) {
+            this.results = results;
+        }
+
+        public void open() {
+            pos = 0;
+        }
+
+        public boolean hasNext() {
+            if (pos < 0) {
+                throw new IllegalStateException("iterator is closed");
+            }
+            return pos < results.size();
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return results.get(pos++);
+        }
+
+        public void rewind() {
+            pos = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            pos = -1;
+        }
+    }
+
+    /**
+     * Returns the results of each partition file in turn.
+     */
+    private class SpilledIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private int next = -1;
+        private HashAggregator partition;
+        private OpIterator current;
+
+        public void open() throws DbException {
+            // from now on every group is in exactly one file
+            if (numGroups > 0) {
+                spill();
+            }
+            next = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next < 0) {
+                throw new IllegalStateException("iterator is closed");
+            }
+            while (current == null || !current.hasNext()) {
+                finishPartition();
+                if (next == PARTITIONS) {
+                    return false;
+                }
+                partition = new Partition(HashAggregator.this);
+                try (SpillFile.Reader r = partitions[next++].open()) {
+                    while (r.hasNext()) {
+                        partition.mergeTupleIntoGroup(r.next());
+                    }
+                } catch (IOException e) {
+                    throw new DbException("HashAggregator: reading spilled groups: " + e.getMessage());
+                }
+                current = partition.iterator();
+                current.open();
+            }
+            return true;
+        }
+
+        private void finishPartition() {
+            if (current != null) {
+                current.close();
+                current = null;
+                partition.discard();
+                partition = null;
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void rewind() {
+            finishPartition();
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            finishPartition();
+            next = -1;
+        }
+    }
+}
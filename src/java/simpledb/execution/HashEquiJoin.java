@@ -1,14 +1,27 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table over child1 and
+ * probes it with child2, and while child1 fits in its {@link MemoryBudget}
+ * that is all it does. Once child1 does not fit,
+ * both children are split into PARTITIONS partitions by a hash of their join
+ * field. The first partition stays in the hash table and is joined as child2
+ * streams past; the others are spilled to temporary files and joined pair by
+ * pair afterwards. A spilled partition that still does not fit is split
+ * again with another hash. After MAX_DEPTH splits, when most of its tuples
+ * must share one key, it is joined a budget of tuples at a time, rereading
+ * its child2 partition once per chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -16,9 +29,17 @@ public class HashEquiJoin extends Operator {
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /**
+     * The number of partitions each split makes.
+     */
+    public final static int PARTITIONS = 32;
+
+    private final static int MAX_DEPTH = 3;
+
+    private final MemoryBudget memoryBudget;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -28,10 +49,23 @@ public class HashEquiJoin extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Creates a join that holds at most budget of child1 tuples in its hash
+     * table, and spills the rest.
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, MemoryBudget budget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryBudget = budget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,44 +84,300 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
 
+    /**
+     * The tuples one side of a pass reads: a child, or a spilled partition.
+     */
+    private interface Input {
+        boolean hasNext() throws DbException, TransactionAbortedException;
+
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void rewind() throws DbException, TransactionAbortedException;
+
+        void close();
+    }
+
+    private static Input input(OpIterator child) {
+        return new Input() {
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public void close() {
+                // children are closed with the join
+            }
+        };
+    }
+
+    private static Input input(SpillFile file) throws DbException {
+        return new Input() {
+            private SpillFile.Reader reader = open(file);
+
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            public Tuple next() throws DbException {
+                try {
+                    return reader.next();
+                } catch (IOException e) {
+                    throw new DbException("HashEquiJoin: reading spilled tuples: " + e.getMessage());
+                }
+            }
+
+            public void rewind() throws DbException {
+                closeReader();
+                reader = open(file);
+            }
+
+            private void closeReader() {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing more will be read
+                }
+            }
+
+            public void close() {
+                closeReader();
+                file.delete();
+            }
+        };
+    }
+
+    private static SpillFile.Reader open(SpillFile file) throws DbException {
+        try {
+            return file.open();
+        } catch (IOException e) {
+            throw new DbException("HashEquiJoin: reading spilled tuples: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A pair of spilled partitions still to be joined.
+     */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    // the current pass: a build input hashed into map, a probe input
+    // streamed past it, and how many splits deep their tuples are
+    transient private Input build, probe;
+    transient private int depth;
+    transient private int budget;
+    transient private int held; // build tuples in map
+    // the partitions of this pass, once it has overflowed; partition 0 is
+    // kept in map unless it overflowed too
+    transient private SpillFile[] buildSpills, probeSpills;
+    transient private boolean residentSpilled;
+    // whether map holds one chunk of the build input, not all of it
+    transient private boolean chunked;
+    transient private Deque<Partition> pending;
+
+    /**
+     * @return the partition of a join key at the current depth; each depth
+     *         hashes differently, so a partition that is split again spreads
+     */
+    private int partition(Object key) {
+        int h = (key.hashCode() ^ (depth * 0x61c88647)) * 0x9e3779b9;
+        return Math.floorMod(h ^ (h >>> 16), PARTITIONS);
+    }
+
+    private static void spill(SpillFile[] files, int part, Tuple t) throws DbException {
+        try {
+            if (files[part] == null) {
+                files[part] = new SpillFile(t.getTupleDesc());
+            }
+            files[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("HashEquiJoin: spilling tuples: " + e.getMessage());
+        }
+    }
+
+    private void startPass(Input build, Input probe, int depth) throws DbException, TransactionAbortedException {
+        this.build = build;
+        this.probe = probe;
+        this.depth = depth;
+        this.buildSpills = null;
+        this.probeSpills = null;
+        this.residentSpilled = false;
+        this.chunked = false;
+        this.listIt = null;
+        loadBuild();
+    }
+
+    /**
+     * Hash the build input into map, until it ends or, if the pass is
+     * joining in chunks, the chunk is full. Splits the pass into partitions
+     * when the budget is first exceeded.
+     */
+    private void loadBuild() throws DbException, TransactionAbortedException {
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        held = 0;
+        while (build.hasNext()) {
+            Tuple t1 = build.next();
+            Object key = t1.getField(pred.getField1());
+            if (buildSpills != null) {
+                int part = partition(key);
+                if (part != 0 || residentSpilled) {
+                    spill(buildSpills, part, t1);
+                    continue;
+                }
+            }
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(t1);
+            if (++held <= budget) {
+                continue;
+            }
+            if (chunked || depth >= MAX_DEPTH) {
+                chunked = true;
+                return;
+            }
+            if (buildSpills == null) {
+                split();
+            } else {
+                spillResident();
+            }
+        }
+    }
+
+    /**
+     * Start partitioning: keep partition 0 in map and spill the rest.
+     */
+    private void split() throws DbException {
+        buildSpills = new SpillFile[PARTITIONS];
+        probeSpills = new SpillFile[PARTITIONS];
+        held = 0;
+        Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, List<Tuple>> e = it.next();
+            int part = partition(e.getKey());
+            if (part == 0) {
+                held += e.getValue().size();
+                continue;
+            }
+            for (Tuple t : e.getValue()) {
+                spill(buildSpills, part, t);
+            }
+            it.remove();
         }
-        return cnt > 0;
+    }
+
+    /**
+     * Partition 0 does not fit either: spill it like the others.
+     */
+    private void spillResident() throws DbException {
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l) {
+                spill(buildSpills, 0, t);
+            }
+        }
+        map.clear();
+        held = 0;
+        residentSpilled = true;
+    }
 
+    /**
+     * Close the inputs of the current pass, and queue its spilled
+     * partitions that can have matches.
+     */
+    private void finishPass() {
+        build.close();
+        probe.close();
+        if (buildSpills != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildSpills[i] != null && probeSpills[i] != null) {
+                    pending.addFirst(new Partition(buildSpills[i], probeSpills[i], depth + 1));
+                } else if (buildSpills[i] != null) {
+                    buildSpills[i].delete();
+                }
+            }
+        }
+        build = null;
+        probe = null;
+        buildSpills = null;
+        probeSpills = null;
+        map.clear();
+    }
+
+    private void nextPass() throws DbException, TransactionAbortedException {
+        Partition p = pending.pollFirst();
+        if (p != null) {
+            startPass(input(p.build), input(p.probe), p.depth);
+        }
+    }
+
+    /**
+     * Drop all state of the join, deleting any spilled tuples.
+     */
+    private void reset() {
+        if (build != null) {
+            build.close();
+            probe.close();
+        }
+        for (SpillFile[] files : new SpillFile[][]{buildSpills, probeSpills}) {
+            if (files != null) {
+                for (SpillFile f : files) {
+                    if (f != null) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.build.delete();
+                p.probe.delete();
+            }
+            pending.clear();
+        }
+        build = null;
+        probe = null;
+        buildSpills = null;
+        probeSpills = null;
+        this.t2 = null;
+        this.listIt = null;
+        this.map.clear();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        budget = memoryBudget.tuples(child1.getTupleDesc());
+        pending = new ArrayDeque<>();
+        startPass(input(child1), input(child2), 0);
         super.open();
     }
 
     public void close() {
         super.close();
+        reset();
         child2.close();
         child1.close();
-        this.t1 = null;
-        this.t2 = null;
-        this.listIt = null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        startPass(input(child1), input(child2), 0);
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -111,47 +401,57 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        Tuple t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+        t.copyFields(t1, 0, 0, td1n);
+        t.copyFields(t2, 0, td1n, td2n);
         return t;
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while (probe != null) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            // loop around the probe input
+            if (probe.hasNext()) {
+                t2 = probe.next();
+                Object key = t2.getField(pred.getField2());
+                if (buildSpills != null) {
+                    int part = partition(key);
+                    if (part != 0 || residentSpilled) {
+                        // no build tuples, no matches
+                        if (buildSpills[part] != null) {
+                            spill(probeSpills, part, t2);
+                        }
+                        continue;
+                    }
+                }
+                List<Tuple> l = map.get(key);
+                if (l != null) {
+                    listIt = l.iterator();
+                }
                 continue;
-            listIt = l.iterator();
-
-            return processList();
+            }
 
+            // the probe input is done: load the next chunk, or move on to
+            // the next pair of spilled partitions
+            if (chunked && build.hasNext()) {
+                loadBuild();
+                probe.rewind();
+                continue;
+            }
+            finishPass();
+            nextPass();
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
         return null;
     }
 
@@ -0,0 +1,172 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of its child to the tuples of a
+ * B+ tree table that satisfy the join predicate, found by a lookup in the
+ * table's index instead of a scan. The inner table must be keyed on the
+ * second field of the predicate.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child;
+    private final SeqScan inner;
+    private final BTreeFile file;
+    private final TupleDesc comboTD;
+    // the predicate as the index sees it: inner.field2 op outer.field1
+    private final Predicate.Op indexOp;
+
+    private transient Tuple outer;
+    private transient DbFileIterator matches;
+
+    /**
+     * @param p     the join predicate; its second field is a field of inner
+     * @param child the outer relation
+     * @param inner a scan of the inner relation, which names the table, its
+     *              alias and the transaction; it is never opened, the
+     *              table's index is probed instead
+     * @throws IllegalArgumentException if the inner table is not a B+ tree
+     *                                  keyed on the join field, or the
+     *                                  predicate cannot use the index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child, SeqScan inner) {
+        if (!canProbe(inner.getTableId(), p.getField2(), p.getOperator())) {
+            throw new IllegalArgumentException("table " + inner.getTableName()
+                    + " has no index usable for " + p.getOperator() + " on field " + p.getField2());
+        }
+        this.pred = p;
+        this.child = child;
+        this.inner = inner;
+        this.file = (BTreeFile) Database.getCatalog().getDatabaseFile(inner.getTableId());
+        this.comboTD = TupleDesc.merge(child.getTupleDesc(), inner.getTupleDesc());
+        this.indexOp = flip(p.getOperator());
+    }
+
+    /**
+     * @return true if the given field of the table can be probed with op
+     *         through an index
+     */
+    public static boolean canProbe(int tableId, int field, Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return false;
+        }
+        return Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile
+                && ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyField() == field;
+    }
+
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the scan naming the inner table; it is not executed
+     */
+    public SeqScan getInnerScan() {
+        return inner;
+    }
+
+    public String getJoinField1Name() {
+        return child.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child.close();
+        outer = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        outer = null;
+        child.rewind();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple and an inner tuple
+     * found by probing the index with the outer tuple's join field.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple t2 = matches.next();
+                if (pred.filter(outer, t2)) {
+                    int n1 = outer.getTupleDesc().numFields();
+                    Tuple t = new Tuple(comboTD);
+                    t.copyFields(outer, 0, 0, n1);
+                    t.copyFields(t2, 0, n1, t2.getTupleDesc().numFields());
+                    return t;
+                }
+            }
+            closeMatches();
+            if (!child.hasNext()) {
+                return null;
+            }
+            outer = child.next();
+            matches = file.indexIterator(inner.getTransactionId(),
+                    new IndexPredicate(indexOp, outer.getField(pred.getField1())));
+            matches.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * IntGroupMap numbers distinct int keys 0, 1, 2, ... in the order they are
+ * added, so that aggregators can keep the state of each group in arrays
+ * indexed by its number. Keys are found in an open addressing table of
+ * group numbers, without boxing.
+ */
+final class IntGroupMap {
+
+    private int[] keys = new int[16];
+    // group numbers, or -1 for an empty slot; at most half full
+    private int[] table = new int[32];
+    private int size;
+
+    IntGroupMap() {
+        Arrays.fill(table, -1);
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return the number of key, or -1 if it has not been added
+     */
+    int get(int key) {
+        int mask = table.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            int g = table[i];
+            if (g < 0 || keys[g] == key) {
+                return g;
+            }
+        }
+    }
+
+    /**
+     * Number a key that has not been added yet.
+     *
+     * @return its number, which is the number of keys added before it
+     */
+    int add(int key) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(size);
+        }
+        return size++;
+    }
+
+    private void insert(int g) {
+        int mask = table.length - 1;
+        int i = slot(keys[g], mask);
+        while (table[i] >= 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = g;
+    }
+
+    private void rehash(int length) {
+        table = new int[length];
+        Arrays.fill(table, -1);
+        for (int g = 0; g <= size; g++) {
+            insert(g);
+        }
+    }
+
+    /**
+     * @return the key numbered g
+     */
+    int key(int g) {
+        return keys[g];
+    }
+
+    int size() {
+        return size;
+    }
+}
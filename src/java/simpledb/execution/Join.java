@@ -7,11 +7,20 @@ import simpledb.transaction.TransactionAbortedException;
 
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import simpledb.common.Type;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested loops join: it reads up to a block of child1
+ * tuples into memory, as many as fit in its {@link MemoryBudget}, then
+ * scans child2 once, comparing each child2 tuple with every tuple of the
+ * block. child2 is
+ * rewound once per block rather than once per child1 tuple, so it is read
+ * a block size fewer times. Within a block the results come out in child2
+ * order; a block size of 1 gives a tuple-at-a-time nested loops join.
  */
 public class Join extends Operator {
 
@@ -28,16 +37,34 @@ public class Join extends Operator {
     private JoinPredicate p_;
     private OpIterator child1_;
     private OpIterator child2_;
-    Tuple left;
-    Tuple right;
+    private TupleDesc td_;
+    private final MemoryBudget budget;
+    // the current block of child1 tuples, and the child2 tuple being
+    // compared with it from block.get(blockPos) on
+    private transient List<Tuple> block;
+    private transient int capacity;
+    private transient int blockPos;
+    private transient Tuple right;
+    // whether child2 has been read from since it was opened or rewound
+    private transient boolean child2Read;
 
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
-        // TODO: some code goes here
+        this(p, child1, child2, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Creates a join that holds at most budget of child1 tuples in a block.
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, MemoryBudget budget) {
         this.p_ = p;
         this.child1_ = child1;
         this.child2_ = child2;
-        this.left = null;
-        this.right = null;
+        this.td_ = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.budget = budget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return budget;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -68,44 +95,58 @@ public class Join extends Operator {
      *         implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        // TODO: some code goes here
-        return TupleDesc.merge(child1_.getTupleDesc(), child2_.getTupleDesc());
+        return td_;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // TODO: some code goes here
-        super.open();
         child1_.open();
         child2_.open();
-        if (child1_.hasNext()) {
-            left = child1_.next();
-        }
-        if (child2_.hasNext()) {
-            right = child2_.next();
-        }
+        capacity = budget.tuples(child1_.getTupleDesc());
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        block = new ArrayList<>();
+        blockPos = 0;
+        right = null;
+        child2Read = false;
     }
 
     public void close() {
-        // TODO: some code goes here
-        child1_.close();
+        super.close();
         child2_.close();
-        left = null;
+        child1_.close();
+        block = null;
         right = null;
-        super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
-        this.close();
-        this.open();
+        child1_.rewind();
+        child2_.rewind();
+        reset();
+    }
+
+    /**
+     * Read the next block of child1 tuples.
+     *
+     * @return false if child1 has no more tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < capacity && child1_.hasNext()) {
+            block.add(child1_.next());
+        }
+        return !block.isEmpty();
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
      * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * the simplest is a nested loops join; this one compares each child2
+     * tuple with a block of child1 tuples at a time.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -120,39 +161,33 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // TODO: some code goes here
-        while (left != null || right != null) {
-            Tuple next = null;
-            if (p_.filter(left, right)) {
-                next = new Tuple(this.getTupleDesc());
-                for (int i = 0; i < this.getTupleDesc().numFields() ; i++) {
-                    if (i < left.getTupleDesc().numFields()) {
-                        next.setField(i, left.getField(i));
-                    } else {
-                        next.setField(i, right.getField(i - left.getTupleDesc().numFields()));
+        while (true) {
+            if (right != null) {
+                while (blockPos < block.size()) {
+                    Tuple left = block.get(blockPos++);
+                    if (p_.filter(left, right)) {
+                        int n1 = left.getTupleDesc().numFields();
+                        Tuple next = new Tuple(td_);
+                        next.copyFields(left, 0, 0, n1);
+                        next.copyFields(right, 0, n1, right.getTupleDesc().numFields());
+                        return next;
                     }
                 }
             }
-            if (child2_.hasNext()) {
+            if (!block.isEmpty() && child2_.hasNext()) {
                 right = child2_.next();
+                blockPos = 0;
+                continue;
             }
-            else {
-                if (child1_.hasNext()) {
-                    left = child1_.next();
-                    child2_.rewind();
-                    if (child2_.hasNext()) {
-                        right = child2_.next();
-                    }
-                } else {
-                    left = null;
-                    right = null;
-                }
+            right = null;
+            if (!readBlock()) {
+                return null;
             }
-            if (next != null) {
-                return next;
+            if (child2Read) {
+                child2_.rewind();
             }
+            child2Read = true;
         }
-        return null;
     }
 
     @Override
@@ -163,9 +198,9 @@ public class Join extends Operator {
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // TODO: some code goes here
         child1_ = children[0];
         child2_ = children[1];
+        td_ = TupleDesc.merge(child1_.getTupleDesc(), child2_.getTupleDesc());
     }
 
 }
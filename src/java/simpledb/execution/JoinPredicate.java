@@ -43,7 +43,7 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // TODO: some code goes here
-        return t1.getField(field1_).compare(op_, t2.getField(field2_));
+        return t1.compareField(field1_, op_, t2, field2_);
     }
 
     public int getField1() {
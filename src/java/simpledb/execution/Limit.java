@@ -0,0 +1,87 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit implements LIMIT ... OFFSET without ORDER BY: it skips the first
+ * offset tuples of its child and returns at most limit of the rest, reading
+ * no further than it needs to.
+ *
+ * @see TopN
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    private transient int returned;
+
+    /**
+     * @param limit  the most tuples to return.
+     * @param offset the number of child tuples to skip first.
+     * @param child  the tuples to limit.
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        }
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = -offset;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = -offset;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (returned < limit && child.hasNext()) {
+            Tuple t = child.next();
+            if (returned++ >= 0) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * LoserTree merges k sorted sources of tuples into one sorted stream, with
+ * about log2(k) comparisons per tuple. Each internal node of the tree holds
+ * the source that lost the comparison made there, and node 0 holds the
+ * overall winner. Taking the winner's tuple replaces it with the next tuple
+ * of the same source, and replays only the comparisons on that source's path
+ * to the root.
+ * <p>
+ * Equal tuples are taken from the source with the lower index first, so
+ * merging runs in the order they were cut from the input is stable.
+ */
+class LoserTree {
+
+    /**
+     * A sorted source of tuples.
+     */
+    interface Source {
+        /**
+         * @return the next tuple, or null if there are no more
+         */
+        Tuple next() throws DbException;
+    }
+
+    private final Source[] sources;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    // the current tuple of each source, or null once it is exhausted
+    private final Tuple[] heads;
+    private final int[] tree;
+
+    LoserTree(List<? extends Source> sources, Comparator<Tuple> comparator) throws DbException {
+        this.sources = sources.toArray(new Source[0]);
+        this.comparator = comparator;
+        this.k = this.sources.length;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            heads[i] = this.sources[i].next();
+        }
+        // every node starts out holding a virtual source k that beats all
+        // others, which each real source then plays its way past
+        Arrays.fill(tree, k);
+        for (int i = k - 1; i >= 0; i--) {
+            adjust(i);
+        }
+    }
+
+    /**
+     * @return true if source a's tuple comes before source b's
+     */
+    private boolean beats(int a, int b) {
+        if (a == k) {
+            return true;
+        }
+        if (b == k) {
+            return false;
+        }
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * Replay the comparisons from source s's leaf up to the root.
+     */
+    private void adjust(int s) {
+        int winner = s;
+        for (int t = (s + k) >> 1; t > 0; t >>= 1) {
+            if (beats(tree[t], winner)) {
+                int loser = winner;
+                winner = tree[t];
+                tree[t] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    public boolean hasNext() {
+        return k > 0 && heads[tree[0]] != null;
+    }
+
+    public Tuple next() throws DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int w = tree[0];
+        Tuple t = heads[w];
+        heads[w] = sources[w].next();
+        adjust(w);
+        return t;
+    }
+}
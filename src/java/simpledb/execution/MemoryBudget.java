@@ -0,0 +1,79 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+
+/**
+ * MemoryBudget is the estimated heap size, in bytes, of the tuples an
+ * operator may hold before it spills to disk or works a block at a time:
+ * the hash table of a HashEquiJoin, the runs of an OrderBy, the groups of an
+ * Aggregate and the outer block of a Join. A budget is given to an operator
+ * when it is built, usually by the LogicalPlan of its query, and never
+ * changes.
+ */
+public final class MemoryBudget implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The budget of operators built without one: 64MB.
+     */
+    public static final MemoryBudget DEFAULT = new MemoryBudget(64L * 1024 * 1024);
+
+    private final long bytes;
+
+    /**
+     * @throws IllegalArgumentException if bytes is not positive
+     */
+    public MemoryBudget(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return a budget that holds exactly the given number of tuples of td
+     */
+    public static MemoryBudget ofTuples(int tuples, TupleDesc td) {
+        return new MemoryBudget(tuples * tupleSize(td));
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of tuples of td that fit in this budget, at least
+     *         one
+     */
+    public int tuples(TupleDesc td) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / tupleSize(td)));
+    }
+
+    /**
+     * @return this budget split evenly among n holders of tuples that fill
+     *         up at the same time
+     */
+    public MemoryBudget share(int n) {
+        return n == 1 ? this : new MemoryBudget(Math.max(1, bytes / n));
+    }
+
+    /**
+     * @return the estimated heap size of a tuple held in memory: the Tuple,
+     *         its value arrays, its strings and its slot in a list
+     */
+    static long tupleSize(TupleDesc td) {
+        long size = 64;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? 4 : 48 + Type.STRING_LEN;
+        }
+        return size;
+    }
+
+    public String toString() {
+        return bytes + " bytes";
+    }
+}
@@ -1,26 +1,51 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort. Child tuples are collected until their
+ * estimated size reaches its {@link MemoryBudget}, sorted, and written
+ * out to a SpillFile as a sorted run. If the whole child
+ * fits in the budget, no run is written and the tuples are returned straight
+ * from memory. Otherwise the runs, and the last batch of tuples still in
+ * memory, are merged with a LoserTree as the sorted tuples are read. When
+ * there are more than MAX_FAN_IN runs, groups of them are first merged into
+ * longer runs, so that only MAX_FAN_IN files are read at a time.
+ * <p>
+ * The sort is stable: tuples that compare equal on every sort key are
+ * returned in the order the child returned them.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * The most runs merged at once.
+     */
+    public static final int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
-    private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final TupleComparator comparator;
+    private final MemoryBudget budget;
+
+    // the sorted tuples if there are no runs, else the last, unwritten run
+    private transient List<Tuple> childTups;
+    private transient List<SpillFile> runs;
+    private transient Iterator<Tuple> it;
+    private transient LoserTree merge;
+    private transient List<SpillFile.Reader> readers;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -30,23 +55,72 @@ public class OrderBy extends Operator {
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: by the first,
+     * then by the second among tuples equal in the first, and so on.
+     *
+     * @param orderbyFields the fields to which the sort is applied, in order.
+     * @param asc           for each field, true if its sort order is
+     *                      ascending.
+     * @param child         the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields, holding at
+     * most budget of tuples in memory at once.
+     *
+     * @param orderbyFields the fields to which the sort is applied, in order.
+     * @param asc           for each field, true if its sort order is
+     *                      ascending.
+     * @param child         the tuples to sort.
+     * @param budget        the memory for tuples not yet written to a run.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, MemoryBudget budget) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.comparator = new TupleComparator(orderByFields, ascending);
+        this.budget = budget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return budget;
     }
 
     public boolean isASC() {
-        return this.asc;
+        return this.ascending[0];
     }
 
     public int getOrderByField() {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
 
     public String getOrderFieldName() {
-        return this.orderByFieldName;
+        return td.getFieldName(orderByFields[0]);
+    }
+
+    /**
+     * @return the fields sorted on, in order
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each field sorted on, true if its order is ascending
+     */
+    public boolean[] getAscending() {
+        return this.ascending.clone();
     }
 
     public TupleDesc getTupleDesc() {
@@ -56,21 +130,147 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        int limit = budget.tuples(td);
+        childTups = new ArrayList<>();
+        runs = new ArrayList<>();
+        // load the tuples in a collection, and sort it, a budget at a time
+        while (child.hasNext()) {
             childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            if (childTups.size() >= limit) {
+                runs.add(writeRun(childTups));
+                childTups = new ArrayList<>();
+            }
+        }
+        childTups.sort(comparator);
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+        } else {
+            while (runs.size() >= MAX_FAN_IN) {
+                mergeRuns();
+            }
+            startMerge();
+        }
         super.open();
     }
 
+    private SpillFile writeRun(List<Tuple> tuples) throws DbException {
+        tuples.sort(comparator);
+        try {
+            SpillFile run = new SpillFile(td);
+            for (Tuple t : tuples) {
+                run.add(t);
+            }
+            return run;
+        } catch (IOException e) {
+            throw new DbException("OrderBy: writing sorted run: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merge each group of MAX_FAN_IN consecutive runs into one run.
+     */
+    private void mergeRuns() throws DbException {
+        List<SpillFile> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            List<SpillFile.Reader> groupReaders = new ArrayList<>();
+            try {
+                List<LoserTree.Source> sources = new ArrayList<>();
+                for (SpillFile run : group) {
+                    sources.add(source(open(run, groupReaders)));
+                }
+                LoserTree tree = new LoserTree(sources, comparator);
+                SpillFile out = new SpillFile(td);
+                while (tree.hasNext()) {
+                    out.add(tree.next());
+                }
+                merged.add(out);
+            } catch (IOException e) {
+                throw new DbException("OrderBy: merging sorted runs: " + e.getMessage());
+            } finally {
+                closeReaders(groupReaders);
+            }
+            for (SpillFile run : group) {
+                run.delete();
+            }
+        }
+        runs = merged;
+    }
+
+    private static SpillFile.Reader open(SpillFile run, List<SpillFile.Reader> opened) throws DbException {
+        try {
+            SpillFile.Reader r = run.open();
+            opened.add(r);
+            return r;
+        } catch (IOException e) {
+            throw new DbException("OrderBy: reading sorted run: " + e.getMessage());
+        }
+    }
+
+    private static LoserTree.Source source(SpillFile.Reader r) {
+        return () -> {
+            try {
+                return r.hasNext() ? r.next() : null;
+            } catch (IOException e) {
+                throw new DbException("OrderBy: reading sorted run: " + e.getMessage());
+            }
+        };
+    }
+
+    private static void closeReaders(List<SpillFile.Reader> readers) {
+        for (SpillFile.Reader r : readers) {
+            try {
+                r.close();
+            } catch (IOException e) {
+                // nothing more will be read
+            }
+        }
+        readers.clear();
+    }
+
+    /**
+     * Start merging the runs and the tuples still in memory, which come
+     * last in input order.
+     */
+    private void startMerge() throws DbException {
+        readers = new ArrayList<>();
+        List<LoserTree.Source> sources = new ArrayList<>();
+        for (SpillFile run : runs) {
+            sources.add(source(open(run, readers)));
+        }
+        Iterator<Tuple> last = childTups.iterator();
+        sources.add(() -> last.hasNext() ? last.next() : null);
+        merge = new LoserTree(sources, comparator);
+    }
+
     public void close() {
         super.close();
+        if (readers != null) {
+            closeReaders(readers);
+        }
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+        }
+        runs = null;
+        childTups = null;
+        merge = null;
         it = null;
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (merge != null) {
+            closeReaders(readers);
+            startMerge();
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -80,7 +280,10 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merge != null) {
+            return merge.hasNext() ? merge.next() : null;
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -100,23 +303,26 @@ public class OrderBy extends Operator {
 }
 
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[]{field}, new boolean[]{asc});
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            int c = o1.compareFieldTo(fields[i], o2, fields[i]);
+            if (c != 0) {
+                return asc[i] ? c : -c;
+            }
+        }
+        return 0;
     }
 
 }
@@ -0,0 +1,410 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelPlan splits a plan into copies that each scan a range of the
+ * pages of its table, so that the copies can run on different threads, and
+ * runs tasks on a shared pool of worker threads.
+ * <p>
+ * A plan can be split if it is a SeqScan of a whole HeapFile, under any
+ * number of Filters and Projects, possibly already under a {@link Gather}.
+ * The copies share the plan's transaction; the tuples they return together
+ * are those of the plan.
+ * <p>
+ * The pool has a thread per core, shared by all queries, and its threads
+ * steal work from each other. Scans are handed to it as morsels of a few
+ * pages (see {@link #forEachMorsel}), one task per morsel, so that
+ * concurrent queries take turns on its threads rather than each holding
+ * threads of its own.
+ */
+public class ParallelPlan {
+
+    /**
+     * The default number of worker threads a query uses.
+     */
+    public static final int DEFAULT_WORKERS = 1;
+
+    /**
+     * The number of pages in a morsel.
+     */
+    public static final int MORSEL_PAGES = 16;
+
+    private static int parallelism = DEFAULT_WORKERS;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    // FIFO, so that morsels are run in the order they are queued
+    private static final ForkJoinPool workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("simpledb worker " + threadCount.incrementAndGet());
+                return t;
+            }, null, true);
+
+    private ParallelPlan() {
+    }
+
+    /**
+     * Set the number of workers a query uses: the most morsels each of its
+     * Aggregates over a splittable child, and each of the Gathers that
+     * {@link #parallelize} adds, has on the pool at once; 1 runs queries on
+     * the calling thread.
+     */
+    public static void setWorkers(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        parallelism = threads;
+    }
+
+    public static int getWorkers() {
+        return parallelism;
+    }
+
+    /**
+     * @return true if plan can be split
+     */
+    public static boolean canSplit(OpIterator plan) {
+        return scanOf(plan) != null;
+    }
+
+    /**
+     * @return the number of pages of the table plan scans
+     * @throws IllegalArgumentException if plan cannot be split
+     */
+    public static int numPages(OpIterator plan) {
+        SeqScan scan = scanOf(plan);
+        if (scan == null) {
+            throw new IllegalArgumentException("plan cannot be split");
+        }
+        return ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages();
+    }
+
+    /**
+     * @return a copy of plan that scans pages [firstPage, endPage) of its
+     *         table
+     * @throws IllegalArgumentException if plan cannot be split
+     */
+    public static OpIterator overPages(OpIterator plan, int firstPage, int endPage) {
+        SeqScan scan = scanOf(plan);
+        if (scan == null) {
+            throw new IllegalArgumentException("plan cannot be split");
+        }
+        return copy(plan, new SeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                firstPage, endPage));
+    }
+
+    /**
+     * Put a {@link Gather} with {@link #getWorkers} workers over each
+     * largest part of plan that can be split, so that its scans, and the
+     * Filters and Projects over them, run on worker threads.
+     *
+     * @return the new plan; plan itself, with its children replaced, unless
+     *         all of it can be split, or unchanged if there is only one
+     *         worker
+     */
+    public static OpIterator parallelize(OpIterator plan) {
+        if (parallelism == 1 || plan instanceof Gather) {
+            return plan;
+        }
+        if (canSplit(plan)) {
+            return new Gather(plan, parallelism);
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            OpIterator[] parallel = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                parallel[i] = parallelize(children[i]);
+            }
+            op.setChildren(parallel);
+        }
+        return plan;
+    }
+
+    /**
+     * Split plan into pipelines that end at its blocking operators, to be
+     * run by a {@link PipelineExecutor}. The blocking operators are
+     * Aggregate, OrderBy, TopN and HashEquiJoin, which consume their
+     * inputs, or build a hash table from one, when opened.
+     *
+     * @return a PipelineExecutor over plan, with a {@link Pipeline} over
+     *         each of its blocking operators, or plan itself if it has none
+     */
+    public static OpIterator schedule(OpIterator plan) {
+        OpIterator staged = addPipelines(plan);
+        return PipelineExecutor.pipelines(staged).isEmpty() ? staged : new PipelineExecutor(staged);
+    }
+
+    private static OpIterator addPipelines(OpIterator plan) {
+        if (!(plan instanceof Operator) || plan instanceof Gather || plan instanceof Pipeline
+                || plan instanceof PipelineExecutor) {
+            return plan;
+        }
+        Operator op = (Operator) plan;
+        OpIterator[] children = op.getChildren();
+        OpIterator[] staged = new OpIterator[children.length];
+        for (int i = 0; i < children.length; i++) {
+            staged[i] = addPipelines(children[i]);
+        }
+        op.setChildren(staged);
+        if (op instanceof Aggregate || op instanceof OrderBy || op instanceof TopN
+                || op instanceof HashEquiJoin) {
+            return new Pipeline(op);
+        }
+        return op;
+    }
+
+    /**
+     * Consumes morsels on worker threads; see {@link #forEachMorsel}.
+     */
+    public interface MorselConsumer {
+        /**
+         * Consume the tuples of morsel, an open copy of the plan over a few
+         * pages of its table, which is closed afterwards.
+         */
+        void consume(OpIterator morsel) throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Start running plan a morsel at a time on the pool, each morsel given
+     * to one of consumers. A consumer is given one morsel at a time, so
+     * needs no synchronization of its own; once done with it, it is queued
+     * behind the tasks already on the pool for its next morsel.
+     *
+     * @param plan        a plan that can be split
+     * @param morselPages the number of pages in a morsel
+     * @param consumers   the consumers, at least one
+     * @return the run, to wait for or cancel
+     * @throws IllegalArgumentException if plan cannot be split
+     */
+    public static Morsels forEachMorsel(OpIterator plan, int morselPages, List<MorselConsumer> consumers) {
+        return forEachMorsel(plan, morselPages, consumers, null);
+    }
+
+    /**
+     * Like {@link #forEachMorsel(OpIterator, int, List)}, but once the last
+     * consumer is done, and before the run is done, onDone is run on that
+     * consumer's worker thread.
+     *
+     * @param onDone run once at the end of the run, or null
+     */
+    public static Morsels forEachMorsel(OpIterator plan, int morselPages, List<MorselConsumer> consumers,
+                                        Runnable onDone) {
+        if (morselPages < 1 || consumers.isEmpty()) {
+            throw new IllegalArgumentException("need positive morsel pages and a consumer");
+        }
+        Morsels run = new Morsels(plan, numPages(plan), morselPages, consumers.size(), onDone);
+        for (MorselConsumer consumer : consumers) {
+            run.schedule(consumer);
+        }
+        return run;
+    }
+
+    /**
+     * A run of {@link #forEachMorsel}.
+     */
+    public static final class Morsels {
+
+        private final OpIterator plan;
+        private final int pages;
+        private final int morselPages;
+        private final AtomicInteger nextPage = new AtomicInteger();
+        private final CountDownLatch running;
+        private final AtomicInteger left;
+        private final Runnable onDone;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        private Morsels(OpIterator plan, int pages, int morselPages, int consumers, Runnable onDone) {
+            this.plan = plan;
+            this.pages = pages;
+            this.morselPages = morselPages;
+            this.running = new CountDownLatch(consumers);
+            this.left = new AtomicInteger(consumers);
+            this.onDone = onDone;
+        }
+
+        private void schedule(MorselConsumer consumer) {
+            workers.execute(() -> step(consumer));
+        }
+
+        private void step(MorselConsumer consumer) {
+            int first = cancelled || failure.get() != null ? pages : nextPage.getAndAdd(morselPages);
+            if (first >= pages) {
+                if (left.decrementAndGet() == 0 && onDone != null) {
+                    try {
+                        onDone.run();
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+                running.countDown();
+                return;
+            }
+            try {
+                OpIterator morsel = overPages(plan, first, Math.min(first + morselPages, pages));
+                morsel.open();
+                try {
+                    consumer.consume(morsel);
+                } finally {
+                    morsel.close();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            schedule(consumer);
+        }
+
+        /**
+         * @return true if all consumers are done
+         */
+        public boolean isDone() {
+            return running.getCount() == 0;
+        }
+
+        /**
+         * @return the first exception a consumer threw, or null
+         */
+        public Throwable getFailure() {
+            return failure.get();
+        }
+
+        /**
+         * Wait until all consumers are done.
+         *
+         * @throws DbException                 if a consumer throws one, or the
+         *                                     calling thread is interrupted
+         * @throws TransactionAbortedException if a consumer throws one
+         */
+        public void await() throws DbException, TransactionAbortedException {
+            block(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    running.await();
+                    return true;
+                }
+
+                public boolean isReleasable() {
+                    return isDone();
+                }
+            });
+            rethrow(failure.get());
+        }
+
+        /**
+         * Stop handing out morsels, and wait until the consumers are done
+         * with theirs.
+         */
+        public void cancel() {
+            cancelled = true;
+            try {
+                await();
+            } catch (DbException | TransactionAbortedException | RuntimeException ignored) {
+                // the consumers' failures are of no interest once cancelled
+            }
+        }
+    }
+
+    /**
+     * Wait in blocker. On one of the pool's threads, the pool may start
+     * another thread meanwhile, so that tasks waiting for other tasks
+     * cannot starve them.
+     *
+     * @throws DbException if the calling thread is interrupted
+     */
+    public static void block(ForkJoinPool.ManagedBlocker blocker) throws DbException {
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("ParallelPlan: interrupted while waiting");
+        }
+    }
+
+    /**
+     * @return the pool, for tasks that wait for other tasks
+     */
+    static Executor pool() {
+        return workers;
+    }
+
+    /**
+     * @return the SeqScan at the bottom of plan, or null if plan cannot be
+     *         split
+     */
+    private static SeqScan scanOf(OpIterator plan) {
+        if (plan instanceof Filter || plan instanceof Project || plan instanceof Gather) {
+            return scanOf(((Operator) plan).getChildren()[0]);
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            return file instanceof HeapFile && !scan.isPageRange() ? scan : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of plan over scan in place of its SeqScan
+     */
+    private static OpIterator copy(OpIterator plan, SeqScan scan) {
+        if (plan instanceof Gather) {
+            return copy(((Gather) plan).getChildren()[0], scan);
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), copy(f.getChildren()[0], scan));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new Project(p.getFieldList(), types, copy(p.getChildren()[0], scan));
+        }
+        return scan;
+    }
+
+    /**
+     * Throw failure, a Throwable caught from a task, from the calling
+     * thread; do nothing if it is null.
+     *
+     * @throws DbException                 if failure is one, or is not an
+     *                                     unchecked exception
+     * @throws TransactionAbortedException if failure is one
+     */
+    public static void rethrow(Throwable failure) throws DbException, TransactionAbortedException {
+        if (failure instanceof DbException) {
+            throw (DbException) failure;
+        }
+        if (failure instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new DbException("ParallelPlan: task failed: " + failure);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Pipeline marks the end of a pipeline of a plan: its child is a blocking
+ * operator, which consumes its input when it is opened. A
+ * {@link PipelineExecutor} opens the child ahead of the rest of the plan,
+ * on the worker pool, and the first open of the Pipeline then returns
+ * at once. Otherwise a Pipeline just returns the tuples of its child.
+ */
+public class Pipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    // set by prepare(), and cleared by the next open() or close()
+    private transient boolean prepared;
+    private transient boolean childOpen;
+
+    /**
+     * @param child the blocking operator the pipeline ends at
+     */
+    public Pipeline(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Open the child, so that the next open() need not; the Pipelines below
+     * it should have been prepared already.
+     */
+    void prepare() throws DbException, TransactionAbortedException {
+        child.open();
+        childOpen = true;
+        prepared = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (!prepared) {
+            child.open();
+            childOpen = true;
+        }
+        prepared = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+        prepared = false;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (child.hasNext()) {
+            return child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
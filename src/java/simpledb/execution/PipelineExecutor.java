@@ -0,0 +1,141 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * PipelineExecutor runs a plan split into pipelines by
+ * {@link ParallelPlan#schedule}. When it is opened, it opens the blocking
+ * operator of each {@link Pipeline} on the worker pool as soon as the
+ * Pipelines below it are open, so that pipelines that do not depend on each
+ * other, such as the two sides of a join of aggregates, run at the same
+ * time; the scans within a pipeline are run a morsel at a time by its
+ * Gathers and Aggregates. The rest of the plan, above its last blocking
+ * operators, runs on the calling thread as tuples are read.
+ */
+public class PipelineExecutor extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private transient boolean childOpen;
+
+    /**
+     * @param child the plan, with a Pipeline over each blocking operator
+     */
+    public PipelineExecutor(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the Pipelines in plan, each after those below it
+     */
+    static List<Pipeline> pipelines(OpIterator plan) {
+        List<Pipeline> found = new ArrayList<>();
+        addPipelines(plan, found);
+        return found;
+    }
+
+    private static void addPipelines(OpIterator plan, List<Pipeline> found) {
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                addPipelines(child, found);
+            }
+        }
+        if (plan instanceof Pipeline) {
+            found.add((Pipeline) plan);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        List<CompletableFuture<Void>> prepared = new ArrayList<>();
+        prepare(child, prepared);
+        try {
+            try {
+                // waits for every pipeline, even if one fails
+                CompletableFuture.allOf(prepared.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                ParallelPlan.rethrow(e.getCause());
+            }
+            child.open();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            for (Pipeline p : pipelines(child)) {
+                p.close();
+            }
+            throw e;
+        }
+        childOpen = true;
+        super.open();
+    }
+
+    /**
+     * Prepare the Pipelines in plan on the pool, each once those below it
+     * are prepared, adding each one's future to prepared.
+     *
+     * @return a future completed when all the Pipelines in plan are
+     *         prepared
+     */
+    private static CompletableFuture<Void> prepare(OpIterator plan, List<CompletableFuture<Void>> prepared) {
+        List<CompletableFuture<Void>> below = new ArrayList<>();
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                below.add(prepare(child, prepared));
+            }
+        }
+        CompletableFuture<Void> ready = CompletableFuture.allOf(below.toArray(new CompletableFuture[0]));
+        if (!(plan instanceof Pipeline)) {
+            return ready;
+        }
+        Pipeline p = (Pipeline) plan;
+        CompletableFuture<Void> done = ready.thenRunAsync(() -> {
+            try {
+                p.prepare();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new CompletionException(e);
+            }
+        }, ParallelPlan.pool());
+        prepared.add(done);
+        return done;
+    }
+
+    public void close() {
+        super.close();
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (child.hasNext()) {
+            return child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
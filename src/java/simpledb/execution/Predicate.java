@@ -101,7 +101,7 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // TODO: some code goes here
-        return t.getField(field_).compare(op_, operand_);
+        return t.compareField(field_, op_, operand_);
     }
 
     /**
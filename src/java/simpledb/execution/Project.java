@@ -45,6 +45,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the ids of the child's fields that this operator projects out
+     */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -77,7 +84,7 @@ public class Project extends Operator {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.copyFields(t, outFieldIds.get(i), i, 1);
         }
         return newTuple;
     }
@@ -3,7 +3,9 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
@@ -36,6 +38,9 @@ public class SeqScan implements OpIterator {
     private TransactionId tid_;
     private int tableid_;
     private String tableAlias_;
+    // the pages scanned, or endPage_ -1 for the whole table
+    private int firstPage_ = 0;
+    private int endPage_ = -1;
     private DbFileIterator itr;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
@@ -53,6 +58,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableid_);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid_;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid_;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -82,9 +101,39 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan of pages firstPage to endPage - 1 of a table, which
+     * must be a HeapFile. Scans of disjoint page ranges of a table can run
+     * on different threads.
+     *
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias);
+        if (firstPage < 0 || firstPage > endPage) {
+            throw new IllegalArgumentException("invalid page range " + firstPage + " to " + endPage);
+        }
+        this.firstPage_ = firstPage;
+        this.endPage_ = endPage;
+    }
+
+    /**
+     * @return true if this scan reads only a range of the table's pages
+     */
+    public boolean isPageRange() {
+        return this.endPage_ >= 0;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // TODO: some code goes here
-        this.itr = Database.getCatalog().getDatabaseFile(this.tableid_).iterator(this.tid_);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableid_);
+        if (!isPageRange()) {
+            this.itr = file.iterator(this.tid_);
+        } else if (file instanceof HeapFile) {
+            this.itr = ((HeapFile) file).iterator(this.tid_, this.firstPage_, this.endPage_);
+        } else {
+            throw new DbException("SeqScan: page ranges can only be scanned in a HeapFile");
+        }
         this.itr.open();
     }
 
@@ -0,0 +1,270 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two relations read in order of their join fields.
+ * A child that is not already in that order (see {@link #isSortedOn}) is
+ * wrapped in an {@link OrderBy}, so a child such as a {@link BTreeScan}
+ * keyed on the join field is not sorted again.
+ * <p>
+ * An equality join reads both children in ascending order, advancing
+ * whichever has the smaller key. The child2 tuples that share a key are
+ * held in memory while child1 tuples with that key are paired with them.
+ * <p>
+ * A range join (&lt;, &lt;=, &gt;, &gt;=) reads child1 in any order and
+ * sorts only child2, in the direction in which the tuples matching a child1
+ * tuple come first: descending for &lt; and &lt;=, ascending for &gt; and
+ * &gt;=. For each child1 tuple child2 is rewound and read up to the first
+ * tuple that does not match, so each child1 tuple costs one comparison
+ * beyond the tuples it joins with.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final boolean equality;
+    private final MemoryBudget budget;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private transient Tuple left;
+    // equality: the child2 tuples with the key of the last group read, and
+    // the first child2 tuple after them
+    private transient List<Tuple> group;
+    private transient int groupPos;
+    private transient Tuple right;
+    // whether child2 has been read from since it was opened or rewound
+    private transient boolean child2Read;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
+     *                                  or range comparison
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Creates a join whose sorts of unsorted children each hold at most
+     * budget of tuples in memory.
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, MemoryBudget budget) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS || p.getOperator() == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.equality = p.getOperator() == Predicate.Op.EQUALS;
+        this.budget = budget;
+        setChildren(new OpIterator[]{child1, child2});
+    }
+
+    /**
+     * @return true if a join on op reads child2 in ascending order of its
+     *         join field, false if in descending order
+     */
+    public static boolean sortsChild2Ascending(Predicate.Op op) {
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * Return true if the tuples of it are known to come out ordered on the
+     * given field. This holds for an OrderBy whose first key is the field,
+     * a BTreeScan keyed on the field (ascending only), the output of an
+     * equality SortMergeJoin on the field, and Filters and the child1 side
+     * of range SortMergeJoins and IndexNestedLoopJoins over such iterators.
+     *
+     * @param asc true for ascending order, false for descending
+     */
+    public static boolean isSortedOn(OpIterator it, int field, boolean asc) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.getOrderByFields()[0] == field && o.getAscending()[0] == asc;
+        } else if (it instanceof BTreeScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((BTreeScan) it).getTableId());
+            return asc && f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field, asc);
+        } else if (it instanceof SortMergeJoin && ((SortMergeJoin) it).equality) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            int n1 = j.child1.getTupleDesc().numFields();
+            return asc && (field == j.pred.getField1() || field == n1 + j.pred.getField2());
+        } else if (it instanceof SortMergeJoin || it instanceof IndexNestedLoopJoin) {
+            // these read child1 once, in order, and emit its tuples' matches
+            // together
+            OpIterator child1 = ((Operator) it).getChildren()[0];
+            return field < child1.getTupleDesc().numFields() && isSortedOn(child1, field, asc);
+        }
+        return false;
+    }
+
+    private OpIterator sorted(OpIterator it, int field, boolean asc) {
+        return isSortedOn(it, field, asc) ? it
+                : new OrderBy(new int[]{field}, new boolean[]{asc}, it, budget);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        left = null;
+        group = new ArrayList<>();
+        groupPos = 0;
+        right = null;
+        child2Read = false;
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = null;
+        group = null;
+        right = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private Tuple join(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        t.copyFields(t1, 0, 0, n1);
+        t.copyFields(t2, 0, n1, t2.getTupleDesc().numFields());
+        return t;
+    }
+
+    private Tuple nextRight() throws DbException, TransactionAbortedException {
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of a child1 tuple and a child2 tuple
+     * that satisfy the join predicate.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return equality ? fetchEqual() : fetchRange();
+    }
+
+    private Tuple fetchEqual() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        while (true) {
+            if (left != null && groupPos < group.size()) {
+                return join(left, group.get(groupPos++));
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            left = child1.next();
+            groupPos = 0;
+            if (!group.isEmpty() && left.compareFieldTo(f1, group.get(0), f2) == 0) {
+                continue;
+            }
+            group.clear();
+            if (!child2Read) {
+                right = nextRight();
+                child2Read = true;
+            }
+            while (right != null && left.compareFieldTo(f1, right, f2) > 0) {
+                right = nextRight();
+            }
+            while (right != null && left.compareFieldTo(f1, right, f2) == 0) {
+                group.add(right);
+                right = nextRight();
+            }
+            if (group.isEmpty() && right == null) {
+                // child2 is used up, so no later child1 tuple can match
+                return null;
+            }
+        }
+    }
+
+    private Tuple fetchRange() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && child2.hasNext()) {
+                Tuple t = child2.next();
+                if (pred.filter(left, t)) {
+                    return join(left, t);
+                }
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            left = child1.next();
+            if (child2Read) {
+                child2.rewind();
+            }
+            child2Read = true;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    /**
+     * Set the children, wrapping each in an OrderBy unless it is already in
+     * the order the join reads it in.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        Predicate.Op op = pred.getOperator();
+        child1 = equality ? sorted(children[0], pred.getField1(), true) : children[0];
+        child2 = sorted(children[1], pred.getField2(), sortsChild2Ascending(op));
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
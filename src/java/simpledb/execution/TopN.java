@@ -0,0 +1,160 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT ... OFFSET: it returns the tuples an
+ * {@link OrderBy} on the same fields would return from position offset on,
+ * at most limit of them, without sorting its whole child.
+ * <p>
+ * Only the first offset + limit tuples of the sort order are kept, in a heap
+ * whose root is the last of them. A child tuple that comes after the root is
+ * dropped; one that comes before it replaces it. That takes
+ * O(n log(offset + limit)) time for n child tuples, and memory for
+ * offset + limit tuples. Like OrderBy, TopN is stable: of tuples equal on
+ * every sort field, the ones the child returned first are kept and returned
+ * first.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final int limit;
+    private final int offset;
+
+    private transient List<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * A kept tuple and its position in the child, which breaks ties.
+     */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @param orderbyFields the fields to which the sort is applied, in order.
+     * @param asc           for each field, true if its sort order is
+     *                      ascending.
+     * @param limit         the most tuples to return.
+     * @param offset        the number of tuples of the sort order to skip
+     *                      before the first one returned.
+     * @param child         the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, int offset, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort order for each of at least one field");
+        }
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the fields sorted on, in order
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each field sorted on, true if its order is ascending
+     */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        int n = (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+        TupleComparator cmp = new TupleComparator(orderByFields, ascending);
+        Comparator<Entry> order = (a, b) -> {
+            int c = cmp.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        // a max-heap: the root is the last tuple kept
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)), order.reversed());
+        long seq = 0;
+        if (n > 0) {
+            while (child.hasNext()) {
+                Entry e = new Entry(child.next(), seq++);
+                if (heap.size() < n) {
+                    heap.add(e);
+                } else if (cmp.compare(e.tuple, heap.peek().tuple) < 0) {
+                    // equal tuples keep the earlier one
+                    heap.poll();
+                    heap.add(e);
+                }
+            }
+        }
+        Entry[] sorted = heap.toArray(new Entry[0]);
+        Arrays.sort(sorted, order);
+        top = new ArrayList<>(Math.max(0, sorted.length - offset));
+        for (int i = offset; i < sorted.length; i++) {
+            top.add(sorted[i].tuple);
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        it = null;
+        child.close();
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * TupleToBatch presents a tuple-at-a-time {@link OpIterator} as a
+ * {@link BatchOpIterator}, copying its tuples into batches.
+ */
+public class TupleToBatch implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    public TupleToBatch(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the tuple operator this adapter reads from
+     */
+    public OpIterator getTupleChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc());
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("TupleToBatch not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public BatchOpIterator[] getChildren() {
+        return new BatchOpIterator[0];
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
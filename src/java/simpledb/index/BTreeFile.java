@@ -13,8 +13,6 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 import java.util.*;
 
-import javafx.print.PageRange;
-import javafx.scene.layout.VBox;
 
 /**
  * BTreeFile is an implementation of a DbFile that stores a B+ tree.
@@ -35,6 +33,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final PagedFile disk;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -49,6 +48,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.disk = new PagedFile(f);
     }
 
     /**
@@ -90,10 +90,10 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                int retval = disk.read(0, pageBuf);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -105,12 +105,7 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = disk.read(pageOffset(id.getPageNumber()), pageBuf);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -130,8 +125,13 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    /**
+     * @return the file offset of a page other than the root pointer page
+     */
+    private static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -144,17 +144,20 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            disk.write(0, data);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            disk.write(pageOffset(page.getId().getPageNumber()), data);
         }
     }
 
+    /**
+     * Force the pages written so far to disk.
+     */
+    public void force() throws IOException {
+        disk.force();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
@@ -1023,13 +1026,10 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                disk.write(0, emptyRootPtrData);
+                disk.write(emptyRootPtrData.length, emptyLeafData);
             }
         }
 
@@ -1083,11 +1083,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                disk.write(f.length(), emptyData);
                 emptyPageNo = numPages();
             }
         }
@@ -1117,10 +1114,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        disk.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().removePage(newPageId);
@@ -15,7 +15,7 @@ import java.util.NoSuchElementException;
  * @see BTreeFile
  * @see BufferPool
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlottedPage {
     private final byte[] header;
     private final Tuple[] tuples;
     private final int numSlots;
@@ -116,6 +116,23 @@ public class BTreeLeafPage extends BTreePage {
         return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
     }
 
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    // the parent and sibling pointers come first
+    public int getHeaderOffset() {
+        return 3 * INDEX_SIZE;
+    }
+
+    public int getSlotOffset() {
+        return getHeaderOffset() + header.length;
+    }
+
+    public int getSlotSize() {
+        return td.getSize();
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
      */
@@ -0,0 +1,22 @@
+package simpledb.optimizer;
+
+/**
+ * The physical algorithms JoinOptimizer chooses between for each
+ * {@link LogicalJoinNode}.
+ */
+public enum JoinAlgorithm {
+    /** {@link simpledb.execution.Join}: rescans the inner side per outer tuple. */
+    NESTED_LOOP,
+    /** {@link simpledb.execution.HashEquiJoin}: equality predicates only. */
+    HASH,
+    /**
+     * {@link simpledb.execution.IndexNestedLoopJoin}: probes an index on the
+     * inner table per outer tuple.
+     */
+    INDEX_NESTED_LOOP,
+    /**
+     * {@link simpledb.execution.SortMergeJoin}: equality and range
+     * predicates; sorts only inputs not already in join field order.
+     */
+    SORT_MERGE
+}
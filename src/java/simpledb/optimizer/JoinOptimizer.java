@@ -2,8 +2,13 @@ package simpledb.optimizer;
 
 import simpledb.ParsingException;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import javax.swing.*;
@@ -45,6 +50,16 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}
+     * does, whose operators hold at most budget of tuples in memory.
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             MemoryBudget budget) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -69,14 +84,50 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.algorithm == JoinAlgorithm.INDEX_NESTED_LOOP && plan2 instanceof SeqScan
+                && IndexNestedLoopJoin.canProbe(((SeqScan) plan2).getTableId(), t2id, lj.p)) {
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        } else if (lj.algorithm == JoinAlgorithm.SORT_MERGE) {
+            if (lj.p == Op.EQUALS) {
+                plan1 = indexOrdered(plan1, t1id);
+            }
+            if (SortMergeJoin.sortsChild2Ascending(lj.p)) {
+                plan2 = indexOrdered(plan2, t2id);
+            }
+            j = new SortMergeJoin(p, plan1, plan2, budget);
+        } else if (lj.algorithm != JoinAlgorithm.NESTED_LOOP && lj.p == Op.EQUALS) {
+            // an index join whose inner side is no longer a bare table
+            // falls back to hashing
+            j = new HashEquiJoin(p, plan1, plan2, budget);
+        } else {
+            j = new Join(p, plan1, plan2, budget);
+        }
 
         return j;
 
     }
 
     /**
-     * Estimate the cost of a join.
+     * Replace a scan of a B+ tree keyed on field, under any filters, with a
+     * BTreeScan, which returns the same tuples in ascending order of field.
+     */
+    private static OpIterator indexOrdered(OpIterator plan, int field) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            f.setChildren(new OpIterator[]{indexOrdered(f.getChildren()[0], field)});
+        } else if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDatabaseFile(s.getTableId());
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+                return new BTreeScan(s.getTransactionId(), s.getTableId(), s.getAlias(), null);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Estimate the cost of a join, run with the cheapest algorithm available
+     * for it when its right-hand side is a base table.
      * <p>
      * The cost of the join should be calculated based on the join algorithm (or
      * algorithms) that you implemented for Lab 2. It should be a function of
@@ -97,17 +148,213 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
+        JoinAlgorithm a = chooseJoinAlgorithm(j, card1, card2, cost1, cost2, true);
+        return estimateJoinCost(j, a, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Choose the cheapest algorithm for a join.
+     *
+     * @param innerIsTable true if the right-hand side of j is a base table,
+     *                     rather than the result of other joins, so that an
+     *                     index on it can be probed
+     * @return the algorithm with the lowest estimateJoinCost
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+                                             double cost1, double cost2, boolean innerIsTable) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, innerIsTable, false, false);
+    }
+
+    /**
+     * Choose the cheapest algorithm for a join, some of whose inputs may
+     * already be sorted.
+     *
+     * @param sorted1 true if the left-hand side can be read in ascending
+     *                order of the join field without sorting it
+     * @param sorted2 true if the right-hand side can be read in ascending
+     *                order of the join field without sorting it
+     * @see #chooseJoinAlgorithm(LogicalJoinNode, int, int, double, double, boolean)
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+                                             double cost1, double cost2, boolean innerIsTable,
+                                             boolean sorted1, boolean sorted2) {
+        JoinAlgorithm best = JoinAlgorithm.NESTED_LOOP;
+        if (j instanceof LogicalSubplanJoinNode) {
+            return best;
+        }
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2);
+        if (j.p != Op.NOT_EQUALS && j.p != Op.LIKE) {
+            // considered before hashing, so that it wins ties: its output is
+            // sorted, which later joins may use
+            double c = estimateJoinCost(j, JoinAlgorithm.SORT_MERGE, card1, card2, cost1, cost2,
+                    sorted1, sorted2);
+            if (c < bestCost) {
+                best = JoinAlgorithm.SORT_MERGE;
+                bestCost = c;
+            }
+        }
+        if (j.p == Op.EQUALS) {
+            double c = estimateJoinCost(j, JoinAlgorithm.HASH, card1, card2, cost1, cost2);
+            if (c < bestCost) {
+                best = JoinAlgorithm.HASH;
+                bestCost = c;
+            }
+        }
+        if (innerIsTable && indexedField(j) >= 0) {
+            double c = estimateJoinCost(j, JoinAlgorithm.INDEX_NESTED_LOOP, card1, card2, cost1, cost2);
+            if (c < bestCost) {
+                best = JoinAlgorithm.INDEX_NESTED_LOOP;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of a join run with the given algorithm; see
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * <ul>
+     * <li>NESTED_LOOP scans the right-hand side once per block of left-hand
+     * tuples, as many as fit in the memory budget, and compares every pair.</li>
+     * <li>HASH hashes the left-hand side and probes with the right-hand
+     * side, scanning each once. A left-hand side over the memory budget is
+     * partitioned: all but one partition of each side is written out and
+     * read back, at the right-hand side's I/O cost per tuple.</li>
+     * <li>INDEX_NESTED_LOOP descends the right-hand table's B+ tree once per
+     * left-hand tuple and reads the leaf pages holding its matches.</li>
+     * <li>SORT_MERGE sorts the sides it needs in order, at about n log n
+     * comparisons each, assuming neither is already sorted. An equality
+     * join then reads each side once; a range join rereads the matching
+     * prefix of the right-hand side for each left-hand tuple.</li>
+     * </ul>
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm a, int card1, int card2,
+                                   double cost1, double cost2) {
+        return estimateJoinCost(j, a, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join run with the given algorithm, some of
+     * whose inputs may already be sorted; see
+     * {@link #chooseJoinAlgorithm(LogicalJoinNode, int, int, double, double, boolean, boolean, boolean)}.
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm a, int card1, int card2,
+                                   double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
         }
+        switch (a) {
+            case HASH: {
+                double cost = cost1 + cost2 + card1 + card2;
+                if (card1 > budgetTuples(j)) {
+                    double spilled = (1 - 1.0 / HashEquiJoin.PARTITIONS) * (card1 + card2);
+                    cost += spilled * (1 + 2 * cost2 / Math.max(card2, 1));
+                }
+                return cost;
+            }
+            case INDEX_NESTED_LOOP: {
+                int pages = Math.max(1, TableStats.numPages(
+                        Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias))));
+                double costPerPage = cost2 / pages;
+                int fanout = Math.max(2, BufferPool.getPageSize() / 8);
+                double height = 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
+                // matches per probe, as estimateTableJoinCardinality counts them
+                double matches = j.p == Op.EQUALS ? Math.max(1.0, (double) card2 / Math.max(card1, 1))
+                        : 0.3 * card2;
+                double leafPages = matches * pages / Math.max(card2, 1);
+                return cost1 + card1 * costPerPage * (height + leafPages) + card1 * matches;
+            }
+            case SORT_MERGE: {
+                // a range join reads the right-hand side descending for < and <=
+                boolean reuse2 = sorted2 && SortMergeJoin.sortsChild2Ascending(j.p);
+                double sort2 = reuse2 ? 0 : sortCost(card2);
+                if (j.p == Op.EQUALS) {
+                    double sort1 = sorted1 ? 0 : sortCost(card1);
+                    return cost1 + cost2 + sort1 + sort2 + card1 + card2;
+                }
+                return cost1 + cost2 + sort2 + card1 + 0.3 * card1 * card2;
+            }
+            default: {
+                double blocks = Math.ceil((double) card1 / budgetTuples(j));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+        }
+    }
+
+    /**
+     * @return the number of outer tuples of j that fit in the plan's memory
+     *         budget, sized as tuples of the outer table alone
+     */
+    private int budgetTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        TupleDesc td = tableId == null ? new TupleDesc(new Type[]{Type.INT_TYPE})
+                : Database.getCatalog().getTupleDesc(tableId);
+        return p.getMemoryBudget().tuples(td);
+    }
+
+    private static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
+    /**
+     * @return true if a base table is a B+ tree keyed on the given field, so
+     *         instantiateJoin can read it in order of that field
+     */
+    private boolean tableSorted(String alias, String pureField) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        try {
+            return file instanceof BTreeFile
+                    && ((BTreeFile) file).keyField() == file.getTupleDesc().indexForFieldName(pureField);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the result of the ordered joins in plan comes out in
+     *         ascending order of the given field, as SortMergeJoin.isSortedOn
+     *         will find once the plan is built
+     */
+    private boolean planSorted(List<LogicalJoinNode> plan, String alias, String pureField) {
+        if (plan.isEmpty()) {
+            return false;
+        }
+        LogicalJoinNode last = plan.get(plan.size() - 1);
+        List<LogicalJoinNode> rest = plan.subList(0, plan.size() - 1);
+        if (last.algorithm == JoinAlgorithm.SORT_MERGE && last.p == Op.EQUALS) {
+            return (alias.equals(last.t1Alias) && pureField.equals(last.f1PureName))
+                    || (alias.equals(last.t2Alias) && pureField.equals(last.f2PureName));
+        }
+        if (last.algorithm == JoinAlgorithm.HASH || last.algorithm == JoinAlgorithm.NESTED_LOOP) {
+            return false;
+        }
+        // the other joins keep the order of their left-hand side, which is
+        // either the rest of the plan or a base table read by a SeqScan
+        return doesJoin(rest, last.t1Alias) && planSorted(rest, alias, pureField);
+    }
+
+    /**
+     * @return the index in its table of the right-hand field of j, if j can
+     *         be run by probing an index on it, or -1
+     */
+    private int indexedField(LogicalJoinNode j) {
+        Integer tableId = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null || p.isFiltered(j.t2Alias)) {
+            return -1;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).indexForFieldName(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        return IndexNestedLoopJoin.canProbe(tableId, field, j.p) ? field : -1;
     }
 
     /**
@@ -233,6 +480,10 @@ public class JoinOptimizer {
 
         // TODO: some code goes here
         int n = joins.size();
+        if (n == 0) {
+            // a single table: nothing to order
+            return new ArrayList<>();
+        }
         PlanCache bestplan = new PlanCache();
         CostCard bestcard = null;
         for (int i = 1; i <= n; i++) {
@@ -310,6 +561,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base table, rather than prevBest
+        boolean t1IsTable = true, t2IsTable = j.t2Alias != null;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -345,6 +598,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1IsTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -361,6 +615,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2IsTable = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -373,14 +628,24 @@ public class JoinOptimizer {
             }
         }
 
+        boolean t1Sorted = t1IsTable ? tableSorted(j.t1Alias, j.f1PureName)
+                : planSorted(prevBest, j.t1Alias, j.f1PureName);
+        boolean t2Sorted = t2IsTable ? tableSorted(j.t2Alias, j.f2PureName)
+                : planSorted(prevBest, j.t2Alias, j.f2PureName);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        JoinAlgorithm alg1 = chooseJoinAlgorithm(j, t1card, t2card, t1cost, t2cost, t2IsTable,
+                t1Sorted, t2Sorted);
+        double cost1 = estimateJoinCost(j, alg1, t1card, t2card, t1cost, t2cost, t1Sorted, t2Sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        JoinAlgorithm alg2 = chooseJoinAlgorithm(j2, t2card, t1card, t2cost, t1cost, t1IsTable,
+                t2Sorted, t1Sorted);
+        double cost2 = estimateJoinCost(j2, alg2, t2card, t1card, t2cost, t1cost, t2Sorted, t1Sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            alg1 = alg2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
@@ -395,7 +660,7 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
+        cc.plan.add(j.withAlgorithm(alg1)); // prevbest is left -- add new join to end
         return cc;
     }
 
@@ -488,7 +753,7 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode("Join " + j + " (" + j.algorithm + ", Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
@@ -37,6 +37,11 @@ public class LogicalJoinNode {
      */
     public Predicate.Op p;
 
+    /**
+     * The physical join algorithm, as chosen by JoinOptimizer.orderJoins
+     */
+    public JoinAlgorithm algorithm = JoinAlgorithm.NESTED_LOOP;
+
     public LogicalJoinNode() {
     }
 
@@ -78,6 +83,15 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias, t1Alias, f2PureName, f1PureName, newp);
     }
 
+    /**
+     * Return a copy of this node that is to be run with the given algorithm.
+     */
+    public LogicalJoinNode withAlgorithm(JoinAlgorithm a) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.algorithm = a;
+        return j;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
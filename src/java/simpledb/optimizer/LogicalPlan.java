@@ -16,9 +16,9 @@ import java.util.*;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields and aggregates.
+ * All the aggregates of a query are computed by one {@link Aggregate},
+ * grouped by all of its group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -33,13 +33,15 @@ public class LogicalPlan {
     private final Map<String, Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1, offset = 0;
     private String query;
+    private MemoryBudget memoryBudget = MemoryBudget.DEFAULT;
     //    private Query owner;
 
     /**
@@ -67,6 +69,18 @@ public class LogicalPlan {
         this.query = query;
     }
 
+    /**
+     * Set the memory each operator of the physical plan may hold tuples in
+     * before it spills or works a block at a time.
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.memoryBudget = budget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     /**
      * Get the query text associated with this plan via {@link #setQuery}.
      */
@@ -85,6 +99,18 @@ public class LogicalPlan {
         return tableMap.get(alias);
     }
 
+    /**
+     * @return true if the WHERE clause filters the table with the given alias
+     */
+    public boolean isFiltered(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Map<String, Integer> getTableAliasToIdMapping() {
         return this.tableMap;
     }
@@ -205,27 +231,67 @@ public class LogicalPlan {
 
     /**
      * Add an aggregate over the field with the specified grouping to
-     * the query.  SimpleDb only supports a single aggregate
-     * expression and GROUP BY field.
+     * the query.
      *
      * @param op     the aggregation operator
      * @param afield the field to aggregate over
-     * @param gfield the field to group by
+     * @param gfield the field to group by, or null for none
      * @throws ParsingException
+     * @see #addAggregate(String, String)
+     * @see #addGroupBy
      */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield = disambiguateName(afield);
         if (gfield != null)
-            gfield = disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /**
+     * Add an aggregate over the field to the query. All the aggregates are
+     * grouped by the fields added with {@link #addGroupBy}; adding the same
+     * aggregate again has no effect.
+     *
+     * @param op     the aggregation operator
+     * @param afield the field to aggregate over
+     * @throws ParsingException if op is not a valid operator name
+     */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield = disambiguateName(afield);
+        if (aggIndex(getAggOp(op), afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         hasAgg = true;
     }
 
     /**
-     * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-     * a single ORDER BY field.
+     * Add a GROUP BY field to the query; adding the same field again has no
+     * effect.
+     *
+     * @param field the field to group by
+     * @throws ParsingException
+     */
+    public void addGroupBy(String field) throws ParsingException {
+        field = disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.add(field);
+    }
+
+    /**
+     * @return the index of the aggregate op over afield, or -1 if it has not
+     *         been added
+     */
+    private int aggIndex(Aggregator.Op op, String afield) throws ParsingException {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (getAggOp(aggOps.get(i)) == op && aggFields.get(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Add an ORDER BY expression in the specified order on the specified field.  Calling this again
+     * adds another field, which orders tuples that are equal in the fields added before it.
      *
      * @param field the field to order by
      * @param asc   true if should be ordered in ascending order, false for descending order
@@ -233,9 +299,23 @@ public class LogicalPlan {
      */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field = disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAscs.add(asc);
+    }
+
+    /**
+     * Add a LIMIT and OFFSET: return at most limit tuples of the result,
+     * after skipping its first offset tuples.
+     *
+     * @param limit  the most tuples to return, or -1 for no limit
+     * @param offset the number of tuples to skip
+     */
+    public void setLimit(int limit, int offset) {
+        if (limit < -1 || offset < 0) {
+            throw new IllegalArgumentException("invalid LIMIT " + limit + " OFFSET " + offset);
+        }
+        this.limit = limit;
+        this.offset = offset;
     }
 
     /**
@@ -406,7 +486,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, memoryBudget);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -438,7 +518,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField != null ? 1 : 0);
+                int agg = aggIndex(getAggOp(si.aggOp), si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added");
+                }
+                // the aggregates follow the group by fields in the output
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
                 //                int  id;
                 try {
@@ -450,16 +535,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                if (groupByField == null) {
+                int group = groupByFields.indexOf(si.fname);
+                if (group < 0) {
                     throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                 }
-                outFields.add(0);
+                outFields.add(group);
                 TupleDesc td = node.getTupleDesc();
                 int id;
                 try {
-                    id = td.indexForFieldName(groupByField);
+                    id = td.indexForFieldName(si.fname);
                 } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " + groupByField + " in GROUP BY statement");
+                    throw new ParsingException("Unknown field " + si.fname + " in GROUP BY statement");
                 }
                 outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -486,18 +572,40 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.indexForFieldName(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.indexForFieldName(groupByField),
-                        getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.indexForFieldName(groupByFields.get(i));
+                }
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.indexForFieldName(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                aggNode = new Aggregate(node, gfields, afields, aops, memoryBudget);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().indexForFieldName(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().indexForFieldName(oByFields.get(i));
+                ascs[i] = oByAscs.get(i);
+            }
+            if (limit >= 0) {
+                node = new TopN(fields, ascs, limit, offset, node);
+            } else {
+                node = new OrderBy(fields, ascs, node, memoryBudget);
+                if (offset > 0) {
+                    node = new Limit(Integer.MAX_VALUE, offset, node);
+                }
+            }
+        } else if (limit >= 0 || offset > 0) {
+            node = new Limit(limit >= 0 ? limit : Integer.MAX_VALUE, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -45,4 +45,10 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         return new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
     }
 
+    public LogicalSubplanJoinNode withAlgorithm(JoinAlgorithm a) {
+        LogicalSubplanJoinNode j = new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
+        j.algorithm = a;
+        return j;
+    }
+
 }
@@ -2,6 +2,8 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.storage.TupleDesc;
 
 import java.util.Map;
 
@@ -28,6 +30,12 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            return updateSortMergeJoinCardinality((SortMergeJoin) o,
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateIndexNestedLoopJoinCardinality((IndexNestedLoopJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -44,13 +52,26 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof BTreeScan) {
+                    childC = tableStats.get(
+                            ((BTreeScan) children[0]).getTableName())
+                            .estimateTableCardinality(1.0);
                 }
             }
+            if (o instanceof TopN) {
+                childC = limit(childC, ((TopN) o).getLimit(), ((TopN) o).getOffset());
+            } else if (o instanceof Limit) {
+                childC = limit(childC, ((Limit) o).getLimit(), ((Limit) o).getOffset());
+            }
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    private static int limit(int card, int limit, int offset) {
+        return Math.max(0, Math.min(card - offset, limit));
+    }
+
     private static boolean updateFilterCardinality(Filter f,
                                                    Map<String, Integer> tableAliasToId,
                                                    Map<String, TableStats> tableStats) {
@@ -81,6 +102,11 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof BTreeScan) {
+                f.setEstimatedCardinality((int) (tableStats.get(
+                        ((BTreeScan) child).getTableName())
+                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
@@ -143,6 +169,48 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateIndexNestedLoopJoinCardinality(IndexNestedLoopJoin j,
+                                                                Map<String, Integer> tableAliasToId,
+                                                                Map<String, TableStats> tableStats) {
+
+        OpIterator child1 = j.getChildren()[0];
+        SeqScan child2 = j.getInnerScan();
+        int child1Card = 1;
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                .equals(pureFieldName2);
+
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (child1 instanceof SeqScan) {
+            child1Card = tableStats.get(((SeqScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+        int child2Card = tableStats.get(child2.getTableName()).estimateTableCardinality(1.0);
+
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
                                                          Map<String, Integer> tableAliasToId,
                                                          Map<String, TableStats> tableStats) {
@@ -198,6 +266,65 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateSortMergeJoinCardinality(SortMergeJoin j,
+                                                          Map<String, Integer> tableAliasToId,
+                                                          Map<String, TableStats> tableStats) {
+
+        OpIterator[] children = j.getChildren();
+        OpIterator child1 = children[0];
+        OpIterator child2 = children[1];
+        int child1Card = 1;
+        int child2Card = 1;
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                .equals(pureFieldName2);
+
+        // a child is a sort, or a scan that returns tuples in order
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (child1 instanceof SeqScan) {
+            child1Card = tableStats.get(((SeqScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (child1 instanceof BTreeScan) {
+            child1Card = tableStats.get(((BTreeScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+
+        if (child2 instanceof Operator) {
+            Operator child2O = (Operator) child2;
+            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
+                    tableStats);
+            child2HasJoinPK = pk || child2HasJoinPK;
+            child2Card = child2O.getEstimatedCardinality();
+            child2Card = child2Card > 0 ? child2Card : 1;
+        } else if (child2 instanceof BTreeScan) {
+            child2Card = tableStats.get(((BTreeScan) child2)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
                                                       Map<String, Integer> tableAliasToId,
                                                       Map<String, TableStats> tableStats) {
@@ -221,24 +348,28 @@ public class OperatorCardinality {
                     .estimateTableCardinality(1.0);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // the groups are at most the product of the distinct values of each
+        // group field, estimated from the statistics of its table
+        double groups = 1.0;
+        TupleDesc childTd = child.getTupleDesc();
+        for (int gfield : a.groupFields()) {
+            String[] tmp = childTd.getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .indexForFieldName(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
         return hasJoinPK;
     }
 }
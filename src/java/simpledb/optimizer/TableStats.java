@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -81,7 +82,7 @@ public class TableStats {
      */
     private int tableid_;
     private int ioCostPerPage_;
-    private HeapFile heapfile_;
+    private DbFile file_;
     private int numTuples_;
     private IntHistogram[] hist_;
 
@@ -96,9 +97,9 @@ public class TableStats {
         // TODO: some code goes here
         this.tableid_ = tableid;
         this.ioCostPerPage_ = ioCostPerPage;
-        this.heapfile_ = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid));
-        int numfields = heapfile_.getTupleDesc().numFields();
-        DbFileIterator itr = heapfile_.iterator(new TransactionId());
+        this.file_ = Database.getCatalog().getDatabaseFile(tableid);
+        int numfields = file_.getTupleDesc().numFields();
+        DbFileIterator itr = file_.iterator(new TransactionId());
         int[] max = new int[numfields];
         Arrays.fill(max, Integer.MIN_VALUE);
         int[] min = new int[numfields];
@@ -173,7 +174,17 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // TODO: some code goes here
-        return (double) this.ioCostPerPage_  *  heapfile_.numPages();
+        return (double) this.ioCostPerPage_  *  numPages(file_);
+    }
+
+    /**
+     * @return the number of pages of a heap file or B+ tree file
+     */
+    static int numPages(DbFile f) {
+        if (f instanceof BTreeFile) {
+            return ((BTreeFile) f).numPages();
+        }
+        return ((HeapFile) f).numPages();
     }
 
     /**
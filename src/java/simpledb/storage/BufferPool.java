@@ -10,12 +10,12 @@ import simpledb.transaction.Lock;
 import simpledb.transaction.LockManager;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import javafx.scene.chart.PieChart.Data;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -25,6 +25,12 @@ import javafx.scene.chart.PieChart.Data;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is striped into segments by page id hash. Each segment
+ * has its own eviction policy and is only locked to add or remove frames,
+ * and every frame carries a read/write latch that protects it while it is
+ * being flushed, evicted or removed. Latches are short-term and independent
+ * of the transaction locks kept by the LockManager.
  *
  * @Threadsafe, all fields are final
  */
@@ -43,22 +49,165 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private ConcurrentHashMap<PageId, Page> bp;
+    /**
+     * Default number of segments the page table is striped into.
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * How long an eviction keeps retrying, while every page is dirty or
+     * being flushed, before it gives up.
+     */
+    public static final long EVICT_WAIT_MILLIS = 100;
+
+    /**
+     * A buffer frame: a resident page plus the latch that guards its
+     * physical state. Flushes hold the latch shared; eviction and removal
+     * hold it exclusively, so a page is never dropped halfway through
+     * being written out.
+     */
+    private static class Frame {
+        volatile Page page;
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+        Frame(Page page) {
+            this.page = page;
+        }
+    }
+
+    /**
+     * One stripe of the page table. Lookups are lock-free; the segment
+     * monitor is only held to add or remove frames.
+     */
+    private static class Segment {
+        final ConcurrentHashMap<PageId, Frame> frames;
+        final EvictionPolicy policy;
+
+        Segment(int numPages, EvictionPolicy policy) {
+            this.frames = new ConcurrentHashMap<PageId, Frame>(numPages);
+            this.policy = policy;
+        }
+
+        /**
+         * Evict one clean page of this segment.
+         *
+         * @return true if a page was evicted
+         */
+        synchronized boolean evictOne() {
+            List<PageId> busy = new ArrayList<PageId>();
+            boolean evicted = false;
+            PageId victim;
+            while (!evicted && (victim = policy.evict()) != null) {
+                Frame frame = frames.get(victim);
+                if (frame == null) {
+                    continue;
+                }
+                if (frame.page.isDirty() != null) {
+                    // dirtied behind our back; keep it resident until it is flushed
+                    policy.insert(victim);
+                    policy.pin(victim);
+                    continue;
+                }
+                if (!frame.latch.writeLock().tryLock()) {
+                    // being flushed right now, try another one
+                    busy.add(victim);
+                    continue;
+                }
+                try {
+                    frames.remove(victim);
+                    evicted = true;
+                } finally {
+                    frame.latch.writeLock().unlock();
+                }
+            }
+            for (PageId pid : busy) {
+                policy.insert(pid);
+            }
+            return evicted;
+        }
+    }
+
+    private final Segment[] segments;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> transPages;
+    private final AtomicInteger numResident;
+    private final AtomicInteger evictHand;
+    private final AtomicInteger writerHand;
+    private Thread pageWriter; // protected by this
+    // held shared while insertTuple and deleteTuple change pages, and
+    // exclusively while the page writer logs and writes a page
+    private final ReentrantReadWriteLock modifyLatch = new ReentrantReadWriteLock();
     private final int maxNumPages;
     private LockManager lockmanager_;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting
+     * with the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // TODO: some code goes here
-        this.bp = new ConcurrentHashMap<PageId, Page>(numPages);
+        this(numPages, DEFAULT_SEGMENTS, ClockEvictionPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * victims with policies made by the given factory.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the eviction policy of each segment.
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policyFactory) {
+        this(numPages, DEFAULT_SEGMENTS, policyFactory);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in numSegments
+     * hash-striped segments.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param numSegments   number of segments to stripe the page table into.
+     * @param policyFactory creates the eviction policy of each segment.
+     */
+    public BufferPool(int numPages, int numSegments, EvictionPolicy.Factory policyFactory) {
+        if (numSegments < 1) {
+            throw new IllegalArgumentException("BufferPool needs at least one segment");
+        }
+        int perSegment = numPages / numSegments + 1;
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(perSegment, policyFactory.create(perSegment));
+        }
+        this.transPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.numResident = new AtomicInteger(0);
+        this.evictHand = new AtomicInteger(0);
+        this.writerHand = new AtomicInteger(0);
         this.maxNumPages = numPages;
         this.lockmanager_ = new LockManager();
     }
 
+    /**
+     * Remember that tid may dirty pid, so that commit and abort only have to
+     * look at the pages this transaction wrote instead of the whole pool.
+     */
+    private void recordWrite(TransactionId tid, PageId pid) {
+        Set<PageId> pages = transPages.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = ConcurrentHashMap.newKeySet();
+            pages = transPages.putIfAbsent(tid, fresh);
+            if (pages == null) {
+                pages = fresh;
+            }
+        }
+        pages.add(pid);
+    }
+
+    private Segment segmentFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return segments[Math.floorMod(h, segments.length)];
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -91,29 +240,58 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // TODO: some code goes here
-        boolean ret = false;
-        long starttime = System.currentTimeMillis();
-        long maxduration = new Random().nextInt(2000);
-        while (!ret) {
-            long curtime = System.currentTimeMillis();
-            if (curtime - starttime > maxduration) {
-                throw new TransactionAbortedException();
-            }
-            ret = lockmanager_.acquireLock(pid, perm, tid);
+        // blocks until granted; throws if tid is picked as a deadlock victim
+        lockmanager_.acquireLock(pid, perm, tid);
+        if (perm.equals(Permissions.READ_WRITE)) {
+            recordWrite(tid, pid);
         }
 
-        if (bp.get(pid) == null) {
+        Segment seg = segmentFor(pid);
+        Frame frame = seg.frames.get(pid);
+        if (frame != null) {
+            seg.policy.access(pid);
+            return frame.page;
+        }
+
+        // reserve a frame first so the disk read happens outside any monitor
+        reserveFrame();
+        Page page;
+        try {
             DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = databaseFile.readPage(pid);
-            if (bp.size() >= this.maxNumPages) {
-                evictPage();
+            page = databaseFile.readPage(pid);
+        } catch (RuntimeException e) {
+            numResident.decrementAndGet();
+            throw e;
+        }
+        synchronized (seg) {
+            frame = seg.frames.get(pid);
+            if (frame == null) {
+                seg.frames.put(pid, new Frame(page));
+                seg.policy.insert(pid);
+                return page;
             }
-            if (!q.contains(pid)) {
-                bp.put(pid, page);
-                q.offer(pid);
+        }
+        // another thread brought the page in first
+        numResident.decrementAndGet();
+        seg.policy.access(pid);
+        return frame.page;
+    }
+
+    /**
+     * Claim one frame of the pool's capacity, evicting pages until one is free.
+     */
+    private void reserveFrame() throws DbException {
+        while (true) {
+            int n = numResident.get();
+            if (n < maxNumPages) {
+                if (numResident.compareAndSet(n, n + 1)) {
+                    return;
+                }
+            }
+            else {
+                evictPage();
             }
         }
-        return bp.get(pid);
     }
 
     /**
@@ -161,36 +339,58 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // TODO: some code goes here
         // not necessary for lab1|lab2
-        if (commit) {
-            try {
-                // flushPages(tid);
-                Iterator<PageId> itrq = q.iterator();
-                while (itrq.hasNext()) {
-                    PageId pid = itrq.next();
-                    TransactionId tidDirty = bp.get(pid).isDirty();
-                    if (tidDirty != null && tidDirty.equals(tid)) {
-                        flushPage(pid);
-                        bp.get(pid).setBeforeImage();
-                    }
+        // only the pages tid wrote can be dirty on its behalf
+        Set<PageId> pages = transPages.remove(tid);
+        if (pages != null) {
+            List<PageId> dirty = new ArrayList<PageId>();
+            for (PageId pid : pages) {
+                Frame frame = segmentFor(pid).frames.get(pid);
+                if (frame == null) {
+                    continue;
+                }
+                TransactionId tidDirty = frame.page.isDirty();
+                if (tidDirty != null && tidDirty.equals(tid)) {
+                    dirty.add(pid);
                 }
             }
-            catch (IOException e) {
-                e.getMessage();
+            if (commit) {
+                try {
+                    // log every page first so the whole commit pays one force
+                    for (PageId pid : dirty) {
+                        Page p = segmentFor(pid).frames.get(pid).page;
+                        Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+                    }
+                    Database.getLogFile().force();
+                    Map<PageId, Frame> frames = new LinkedHashMap<PageId, Frame>();
+                    for (PageId pid : dirty) {
+                        frames.put(pid, segmentFor(pid).frames.get(pid));
+                    }
+                    writePages(frames);
+                    for (PageId pid : dirty) {
+                        Segment seg = segmentFor(pid);
+                        Frame frame = frames.get(pid);
+                        frame.page.setBeforeImage();
+                        frame.page.markDirty(false, null);
+                        seg.policy.unpin(pid);
+                    }
+                }
+                catch (IOException e) {
+                    e.getMessage();
+                }
             }
-        }
-        else {
-            Iterator<PageId> itrq = q.iterator();
-            while (itrq.hasNext()) {
-                PageId pid = itrq.next();
-                TransactionId tid2 = bp.get(pid).isDirty();
-                if (tid2 != null && tid2.equals(tid)) {
+            else {
+                for (PageId pid : dirty) {
+                    // drop the dirty copy; the next access rereads it from disk
                     removePage(pid);
+                }
+            }
+            Set<Integer> tables = new HashSet<Integer>();
+            for (PageId pid : pages) {
+                if (tables.add(pid.getTableId())) {
                     try {
-                        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                        page.markDirty(false,null);
-                    }
-                    catch (TransactionAbortedException | DbException e) {
-                        e.printStackTrace();
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).transactionComplete(tid, commit);
+                    } catch (NoSuchElementException e) {
+                        // the table was dropped meanwhile
                     }
                 }
             }
@@ -217,13 +417,12 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         // not necessary for lab1
-        List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-        for (Page p : pages) {
-            p.markDirty(true, tid);
-            if (!q.contains(p.getId())) {
-                bp.put(p.getId(), p);
-                q.offer(p.getId());
-            }
+        modifyLatch.readLock().lock();
+        try {
+            List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+            cacheDirtyPages(tid, pages);
+        } finally {
+            modifyLatch.readLock().unlock();
         }
     }
 
@@ -244,24 +443,72 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         // not necessary for lab1
-        List<Page> pages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
-        for (Page p : pages) {
-            p.markDirty(true, tid);
+        modifyLatch.readLock().lock();
+        try {
+            List<Page> pages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+            cacheDirtyPages(tid, pages);
+        } finally {
+            modifyLatch.readLock().unlock();
         }
     }
 
-    private ConcurrentLinkedQueue<PageId> q = new ConcurrentLinkedQueue<PageId>();
+    /**
+     * Marks pages dirtied by tid, installs them in the pool (replacing any
+     * cached versions) and pins them so they are not evicted before commit.
+     * A page is only marked, and recorded as written by tid, once it has a
+     * frame.
+     *
+     * @throws DbException if a page is not cached and every frame is pinned
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page p : pages) {
+            PageId pid = p.getId();
+            Segment seg = segmentFor(pid);
+            while (true) {
+                // reserve outside the monitor, as eviction may need it
+                boolean reserved = !seg.frames.containsKey(pid);
+                if (reserved) {
+                    reserveFrame();
+                }
+                synchronized (seg) {
+                    Frame frame = seg.frames.get(pid);
+                    if (frame == null) {
+                        if (!reserved) {
+                            // evicted since we looked
+                            continue;
+                        }
+                        seg.frames.put(pid, new Frame(p));
+                        reserved = false;
+                    }
+                    else {
+                        frame.page = p;
+                    }
+                    p.markDirty(true, tid);
+                    recordWrite(tid, pid);
+                    seg.policy.insert(pid);
+                    seg.policy.pin(pid);
+                }
+                if (reserved) {
+                    // another thread brought the page in first
+                    numResident.decrementAndGet();
+                }
+                break;
+            }
+        }
+    }
 
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        for (Map.Entry<PageId, Page> i : bp.entrySet()) {
-            flushPage(i.getKey());
+        for (Segment seg : segments) {
+            for (PageId pid : seg.frames.keySet()) {
+                flushPage(pid);
+            }
         }
     }
 
@@ -274,15 +521,23 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void removePage(PageId pid) {
+    public void removePage(PageId pid) {
         // TODO: some code goes here
         // not necessary for lab1
-        Iterator<PageId> itr_ = q.iterator();
-        while (itr_.hasNext()) {
-            if (itr_.next().equals(pid)) {
-                itr_.remove();
-                bp.remove(pid);
-                break;
+        Segment seg = segmentFor(pid);
+        synchronized (seg) {
+            Frame frame = seg.frames.get(pid);
+            if (frame == null) {
+                return;
+            }
+            // waits for an in-flight flush of this page to finish
+            frame.latch.writeLock().lock();
+            try {
+                seg.frames.remove(pid);
+                seg.policy.remove(pid);
+                numResident.decrementAndGet();
+            } finally {
+                frame.latch.writeLock().unlock();
             }
         }
     }
@@ -292,28 +547,183 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1
-        Page p = bp.get(pid);
+        Frame frame = segmentFor(pid).frames.get(pid);
+        if (frame == null) {
+            return;
+        }
+        Page p = frame.page;
         TransactionId dirtier = p.isDirty();
         if (dirtier != null){
+            // log before taking the latch: the log monitor may be held by a
+            // rollback that is waiting to remove this very page
             Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
             Database.getLogFile().force();
         }
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+        writePages(Collections.singletonMap(pid, frame));
+        if (dirtier != null) {
+            // the next UPDATE record for this page is a delta from this image
+            p.setBeforeImage();
+        }
+    }
+
+    /**
+     * Writes the pages in the given frames to their files, skipping frames
+     * that have been removed from the pool in the meantime, then forces
+     * each file once and tells the log the pages are on disk. The caller is
+     * responsible for logging the pages first.
+     */
+    private void writePages(Map<PageId, Frame> frames) throws IOException {
+        long mark = Database.getLogFile().getFlushMark();
+        List<PageId> written = new ArrayList<PageId>();
+        Set<DbFile> files = new HashSet<DbFile>();
+        for (Map.Entry<PageId, Frame> e : frames.entrySet()) {
+            PageId pid = e.getKey();
+            Frame frame = e.getValue();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            frame.latch.readLock().lock();
+            try {
+                if (segmentFor(pid).frames.get(pid) != frame) {
+                    continue;
+                }
+                file.writePage(frame.page);
+            } finally {
+                frame.latch.readLock().unlock();
+            }
+            written.add(pid);
+            files.add(file);
+        }
+        for (DbFile file : files) {
+            file.force();
+        }
+        for (PageId pid : written) {
+            Database.getLogFile().pageFlushed(pid, mark);
+        }
+    }
+
+    /**
+     * Write out up to maxPages dirty pages whose changes are not on disk
+     * yet, continuing where the previous call stopped. This is one round
+     * of the background page writer.
+     * <p>
+     * The pages belong to running transactions, so this steals them: each
+     * page is logged before it is written, and only while its transaction
+     * is still running. Aborts must go through the log (as
+     * Transaction.transactionComplete does) to undo a stolen page.
+     *
+     * @return the number of pages written
+     */
+    public int writeDirtyPages(int maxPages) throws IOException {
+        int written = 0;
+        int start = Math.floorMod(writerHand.getAndIncrement(), segments.length);
+        for (int i = 0; i < segments.length && written < maxPages; i++) {
+            Segment seg = segments[(start + i) % segments.length];
+            for (Map.Entry<PageId, Frame> e : seg.frames.entrySet()) {
+                if (written >= maxPages) {
+                    break;
+                }
+                if (e.getValue().page.isDirty() != null && stealPage(e.getKey(), e.getValue())) {
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Log and write one page of a running transaction.
+     *
+     * @return true if the page was written
+     */
+    private boolean stealPage(PageId pid, Frame frame) throws IOException {
+        // logAbort holds this while it rolls back, so a page is either
+        // stolen before the rollback or not at all
+        synchronized (this) {
+            // never wait for a modification: it may be waiting for a page
+            // lock whose holder needs this to abort
+            if (!modifyLatch.writeLock().tryLock()) {
+                return false;
+            }
+            try {
+                Page p = frame.page;
+                TransactionId dirtier = p.isDirty();
+                if (dirtier == null) {
+                    return false;
+                }
+                Page before = p.getBeforeImage();
+                if (Arrays.equals(before.getPageData(), p.getPageData())) {
+                    return false; // written since its last change
+                }
+                if (!Database.getLogFile().logWriteIfActive(dirtier, before, p)) {
+                    return false;
+                }
+                Database.getLogFile().force();
+                writePages(Collections.singletonMap(pid, frame));
+                p.setBeforeImage();
+                return true;
+            } finally {
+                modifyLatch.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Start a daemon thread that calls {@link #writeDirtyPages} every
+     * intervalMillis, so fewer changes are left for recovery to redo and
+     * fewer pages hold back log truncation. Replaces a running writer.
+     *
+     * @param intervalMillis time between rounds
+     * @param pagesPerRound  pages written per round at most
+     */
+    public synchronized void startPageWriter(final long intervalMillis, final int pagesPerRound) {
+        if (intervalMillis <= 0 || pagesPerRound <= 0) {
+            throw new IllegalArgumentException("page writer needs a positive interval and round size");
+        }
+        stopPageWriter();
+        pageWriter = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMillis);
+                    writeDirtyPages(pagesPerRound);
+                }
+            } catch (InterruptedException | InterruptedIOException e) {
+                // stopped
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "BufferPool page writer");
+        pageWriter.setDaemon(true);
+        pageWriter.start();
+    }
+
+    /**
+     * Stop the background page writer, if it is running.
+     */
+    public synchronized void stopPageWriter() {
+        if (pageWriter != null) {
+            pageWriter.interrupt();
+            pageWriter = null;
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1|lab2
-        Iterator<PageId> itrq = q.iterator();
-        while (itrq.hasNext()) {
-            PageId pid = itrq.next();
-            TransactionId tidDirty = bp.get(pid).isDirty();
+        Set<PageId> pages = transPages.get(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            Frame frame = segmentFor(pid).frames.get(pid);
+            if (frame == null) {
+                continue;
+            }
+            TransactionId tidDirty = frame.page.isDirty();
             if (tidDirty != null && tidDirty.equals(tid)) {
                 flushPage(pid);
             }
@@ -322,24 +732,40 @@ public class BufferPool {
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the eviction policy among unpinned pages;
+     * dirty pages are never evicted (NO STEAL). Segments are tried in
+     * round-robin order so concurrent evictions spread over the stripes.
+     * While there is no victim, because every page is dirty or being
+     * flushed, it tries again for up to EVICT_WAIT_MILLIS, and returns
+     * early if another thread frees a frame meanwhile.
+     *
+     * @throws DbException if no page could be evicted in that time
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
-        Iterator<PageId> itr = q.iterator();
-        while (itr.hasNext()) {
-            PageId pid_evi = itr.next();
-            Page hp_evi = bp.get(pid_evi);
-            TransactionId tid_evi = hp_evi.isDirty();
-            if (tid_evi != null) {
-                continue;
+        long deadline = System.currentTimeMillis() + EVICT_WAIT_MILLIS;
+        while (true) {
+            int start = Math.floorMod(evictHand.getAndIncrement(), segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[(start + i) % segments.length].evictOne()) {
+                    numResident.decrementAndGet();
+                    return;
+                }
+            }
+            if (numResident.get() < maxNumPages) {
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new DbException("all pages in the buffer pool are dirty, cannot evict page");
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("BufferPool: interrupted while waiting for a frame");
             }
-            bp.remove(pid_evi);
-            q.remove(pid_evi);
-            return;
         }
-        throw new DbException("buffer pool is empty, cannot evict page");
     }
 
     public LockManager getLockManager() {
@@ -0,0 +1,118 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance) eviction. Resident pages sit in a circular array of
+ * frames, each with a reference bit that is set on every access. The clock
+ * hand sweeps the frames, clearing reference bits, and evicts the first
+ * unpinned frame whose bit is already clear.
+ * <p>
+ * Lookup goes through a hash map from page id to frame, so insert, access,
+ * pin, unpin and remove are O(1); eviction is O(1) amortized because every
+ * frame the hand skips over has its reference bit cleared.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        PageId pid;
+        boolean referenced;
+        boolean pinned;
+    }
+
+    private final List<Frame> frames;
+    private final Map<PageId, Frame> table;
+    private final Deque<Frame> freeFrames;
+    private int hand;
+
+    /**
+     * @param numPages the expected number of resident pages; the clock grows
+     *                 past this if more pages are inserted.
+     */
+    public ClockEvictionPolicy(int numPages) {
+        this.frames = new ArrayList<Frame>(numPages);
+        this.table = new HashMap<PageId, Frame>(numPages * 2);
+        this.freeFrames = new ArrayDeque<Frame>();
+        this.hand = 0;
+    }
+
+    public synchronized void insert(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame == null) {
+            frame = freeFrames.poll();
+            if (frame == null) {
+                frame = new Frame();
+                frames.add(frame);
+            }
+            frame.pid = pid;
+            frame.pinned = false;
+            table.put(pid, frame);
+        }
+        frame.referenced = true;
+    }
+
+    public synchronized void access(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame != null) {
+            frame.referenced = true;
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        Frame frame = table.remove(pid);
+        if (frame != null) {
+            release(frame);
+        }
+    }
+
+    public synchronized void pin(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame != null) {
+            frame.pinned = true;
+        }
+    }
+
+    public synchronized void unpin(PageId pid) {
+        Frame frame = table.get(pid);
+        if (frame != null) {
+            frame.pinned = false;
+        }
+    }
+
+    public synchronized PageId evict() {
+        int n = frames.size();
+        // two full sweeps are enough: the first clears every reference bit
+        for (int i = 0; i < 2 * n; i++) {
+            Frame frame = frames.get(hand);
+            hand = (hand + 1) % n;
+            if (frame.pid == null || frame.pinned) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            PageId victim = frame.pid;
+            table.remove(victim);
+            release(frame);
+            return victim;
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return table.size();
+    }
+
+    private void release(Frame frame) {
+        frame.pid = null;
+        frame.referenced = false;
+        frame.pinned = false;
+        freeFrames.push(frame);
+    }
+}
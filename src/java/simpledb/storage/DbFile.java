@@ -31,6 +31,33 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Make the pages written so far durable. writePage may leave a page in
+     * the operating system's cache; callers that need it on disk, such as a
+     * committing transaction, call this once after all their writes.
+     *
+     * @throws IOException if the sync fails
+     */
+    default void force() throws IOException {
+    }
+
+    /**
+     * Release the file's open resources, such as file channels. Called when
+     * the table is dropped from the catalog; the file cannot be used
+     * afterwards.
+     *
+     * @throws IOException if closing fails
+     */
+    default void close() throws IOException {
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that wrote pages of this
+     * file commits or aborts, before its locks are released.
+     */
+    default void transactionComplete(TransactionId tid, boolean commit) {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
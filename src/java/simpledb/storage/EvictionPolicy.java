@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should discard
+ * when it runs out of frames. BufferPool tells the policy whenever a page
+ * enters or leaves the pool and whenever a resident page is accessed.
+ * <p>
+ * Pages can be pinned to keep them out of victim selection. BufferPool pins
+ * every page that is dirtied by a transaction, which is how the NO STEAL
+ * rule (dirty pages are never evicted) is enforced.
+ * <p>
+ * All methods are expected to run in O(1) amortized time. BufferPool
+ * stripes its page table into segments and creates one policy per segment
+ * through a {@link Factory}, so a policy only ever sees a slice of the pool.
+ *
+ * @see BufferPool
+ * @see ClockEvictionPolicy
+ * @see LRUKEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Creates the eviction policy for one buffer pool segment.
+     */
+    interface Factory {
+        /**
+         * @param numPages the number of pages the new policy is expected to track
+         */
+        EvictionPolicy create(int numPages);
+    }
+
+    /**
+     * Start tracking a page that has just been brought into the pool.
+     * Inserting a page that is already tracked counts as an access.
+     *
+     * @param pid the id of the page that became resident
+     */
+    void insert(PageId pid);
+
+    /**
+     * Record a hit on a resident page. Does nothing if the page is not tracked.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void access(PageId pid);
+
+    /**
+     * Stop tracking a page that is no longer resident.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    void remove(PageId pid);
+
+    /**
+     * Prevent a page from being chosen as a victim until it is unpinned.
+     *
+     * @param pid the id of the page to pin
+     */
+    void pin(PageId pid);
+
+    /**
+     * Make a previously pinned page eligible for eviction again.
+     *
+     * @param pid the id of the page to unpin
+     */
+    void unpin(PageId pid);
+
+    /**
+     * Choose a victim among the unpinned pages and stop tracking it.
+     *
+     * @return the id of the page to evict, or null if every page is pinned
+     */
+    PageId evict();
+
+    /**
+     * @return the number of pages currently tracked by this policy
+     */
+    int size();
+}
@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntSupplier;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile are full, so an insert can
+ * go straight to a page with a free slot instead of locking and reading every
+ * page from the start of the file.
+ * <p>
+ * The map is a bitmap, one bit per page, set if the page is full. It lives
+ * in a sidecar file next to the table (see {@link #fileFor}), where bit i of
+ * byte n describes page 8n + i. Pages past the end of the bitmap, including
+ * all pages of a table that has no sidecar yet, count as not full. A changed
+ * bit is written through at once as a single byte, but never forced.
+ * <p>
+ * The map is only a hint and is not logged. A page marked free that is
+ * actually full costs one wasted page lock; the inserter marks it full and
+ * moves on. Pages an aborted transaction marked full are marked free again
+ * (see {@link HeapFile#transactionComplete}); a page marked full that has
+ * room anyway (say the sidecar lost a write in a crash) is corrected the next
+ * time a tuple is deleted from it. Reads never update the map, so scans do
+ * not write to the sidecar.
+ * <p>
+ * The sidecar is deleted when its table file is created. A sidecar with
+ * bits past the table's last page belongs to an older table of the same
+ * name, and is cleared when it is loaded.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private final PagedFile disk; // the sidecar is created on the first write
+    private final IntSupplier numPages;
+    private BitSet full; // protected by this, loaded on first use
+
+    /**
+     * @param table    the table file
+     * @param numPages the number of pages in the table, to check the
+     *                 sidecar against
+     */
+    public FreeSpaceMap(File table, IntSupplier numPages) {
+        this.file = fileFor(table);
+        this.disk = new PagedFile(file);
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the sidecar file holding the free space map of a table file
+     */
+    public static File fileFor(File table) {
+        return new File(table.getPath() + ".fsm");
+    }
+
+    private BitSet bits() throws IOException {
+        if (full == null) {
+            byte[] data = new byte[0];
+            if (file.length() > (numPages.getAsInt() + 7) / 8) {
+                disk.truncate(0);
+            }
+            else if (file.length() > 0) {
+                data = new byte[(int) file.length()];
+                int n = disk.read(0, data);
+                if (n < data.length) {
+                    data = Arrays.copyOf(data, Math.max(n, 0));
+                }
+            }
+            full = BitSet.valueOf(data);
+        }
+        return full;
+    }
+
+    /**
+     * @return the first page at or after from and before numPages that is not
+     *         marked full, or -1 if there is none
+     */
+    public synchronized int nextFreePage(int from, int numPages) throws IOException {
+        int pgNo = bits().nextClearBit(from);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    public synchronized boolean isFull(int pgNo) throws IOException {
+        return bits().get(pgNo);
+    }
+
+    /**
+     * Mark a page full or not, writing the change to the sidecar if the bit
+     * changed.
+     */
+    public synchronized void setFull(int pgNo, boolean isFull) throws IOException {
+        BitSet bits = bits();
+        if (bits.get(pgNo) == isFull) {
+            return;
+        }
+        bits.set(pgNo, isFull);
+        int n = pgNo / 8;
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (bits.get(n * 8 + i)) {
+                b |= 1 << i;
+            }
+        }
+        disk.write(n, new byte[] { b });
+    }
+
+    /**
+     * Close the sidecar file. The map cannot be used afterwards.
+     */
+    public void close() throws IOException {
+        disk.close();
+    }
+}
@@ -13,6 +13,9 @@ import java.util.ArrayList;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -34,10 +37,16 @@ public class HeapFile implements DbFile {
      */
     private File file;
     private TupleDesc tupledesc;
+    private final PagedFile disk;
+    private final FreeSpaceMap fsm;
+    // pages each running transaction marked full, unmarked if it aborts
+    private final Map<TransactionId, Set<Integer>> markedFull = new ConcurrentHashMap<>();
     public HeapFile(File f, TupleDesc td) {
         // TODO: some code goes here
         this.file = f;
         this.tupledesc = td;
+        this.disk = new PagedFile(f);
+        this.fsm = new FreeSpaceMap(f, this::numPages);
     }
 
     /**
@@ -50,6 +59,20 @@ public class HeapFile implements DbFile {
         return this.file;
     }
 
+    /**
+     * Serve page reads from a memory mapping of the file instead of read
+     * calls. Meant for large tables that are mostly scanned.
+     *
+     * @see PagedFile#setMapped
+     */
+    public void setMemoryMapped(boolean mapped) {
+        disk.setMapped(mapped);
+    }
+
+    public boolean isMemoryMapped() {
+        return disk.isMapped();
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -78,21 +101,15 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // TODO: some code goes here
         // some code goes here
-        FileInputStream fileInputStream = null;
         HeapPage heapPage = null;
         int size = BufferPool.getPageSize();
         byte[] buf = new byte[size];
         try {
-
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            randomAccessFile.seek((long) pid.getPageNumber() * size);
-            if (randomAccessFile.read(buf) == -1) {
+            if (disk.read((long) pid.getPageNumber() * size, buf) == -1) {
                 return null;
             }
 
-            heapPage = new HeapPage((HeapPageId) pid, buf);
-
-            randomAccessFile.close();
+            heapPage = new HeapPage((HeapPageId) pid, buf, false);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -106,11 +123,23 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         PageId pid = page.getId();
         int pgNo = pid.getPageNumber();
-        int pageSize = Database.getBufferPool().getPageSize();
+        int pageSize = BufferPool.getPageSize();
         byte[] rawPgData = page.getPageData();
-        RandomAccessFile dba = new RandomAccessFile(file, "rws");
-        dba.skipBytes(pgNo * pageSize);
-        dba.write(rawPgData);
+        disk.write((long) pgNo * pageSize, rawPgData);
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        disk.force();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        try {
+            disk.close();
+        } finally {
+            fsm.close();
+        }
     }
 
     /**
@@ -118,7 +147,15 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: some code goes here
-        return (int) this.file.length() / Database.getBufferPool().getPageSize();
+        // divide before narrowing, so files over 2 GB count right
+        return (int) (this.file.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the map of full pages that insertTuple uses to find room.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return fsm;
     }
 
     // see DbFile.java for javadocs
@@ -126,29 +163,69 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // TODO: some code goes here
         // not necessary for lab1
+        BufferPool bp = Database.getBufferPool();
         List<Page> ret = new ArrayList<Page>();
-        for (int i = 0; i < numPages(); i++) {
-            HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if (p == null) {
-                Database.getBufferPool().getLockManager().releaseLock(pid, tid);
-                continue;
+        // only pages the free space map does not know to be full are locked
+        int pgNo = fsm.nextFreePage(0, numPages());
+        while (true) {
+            if (pgNo < 0) {
+                pgNo = appendEmptyPage();
             }
-            if (p.getNumUnusedSlots() == 0) {
-                Database.getBufferPool().getLockManager().releaseLock(pid, tid);
-                continue;
-            }
-            if (p.getNumUnusedSlots() > 0) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (p != null && p.getNumUnusedSlots() > 0) {
                 p.insertTuple(t);
+                if (p.getNumUnusedSlots() == 0) {
+                    markFull(tid, pgNo);
+                }
                 ret.add(p);
                 return ret;
             }
+            if (p != null) {
+                markFull(tid, pgNo);
+            }
+            if (!held) {
+                bp.getLockManager().releaseLock(pid, tid);
+            }
+            pgNo = fsm.nextFreePage(pgNo + 1, numPages());
+        }
+    }
+
+    private void markFull(TransactionId tid, int pgNo) throws IOException {
+        fsm.setFull(pgNo, true);
+        markedFull.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pgNo);
+    }
+
+    // see DbFile.java for javadocs
+    public void transactionComplete(TransactionId tid, boolean commit) {
+        Set<Integer> pages = markedFull.remove(tid);
+        if (pages == null || commit) {
+            return;
+        }
+        // the aborted inserts that filled these pages are undone; a page
+        // that is full after all is marked again by the next insert
+        try {
+            for (int pgNo : pages) {
+                fsm.setFull(pgNo, false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        HeapPage p = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
-        p.insertTuple(t);
-        writePage(p);
-        ret.add(p);
-        return ret;
+    }
+
+    /**
+     * Extend the file by one empty page. The page is filled through the
+     * buffer pool like any other, so the insert is logged and undone with
+     * its transaction; only the empty page stays behind on an abort.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        writePage(new HeapPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData()));
+        fsm.setFull(pgNo, false);
+        return pgNo;
     }
 
     // see DbFile.java for javadocs
@@ -161,6 +238,11 @@ public class HeapFile implements DbFile {
         if (pid.getTableId() == getId()) {
             HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             p.deleteTuple(t);
+            try {
+                fsm.setFull(pid.getPageNumber(), false);
+            } catch (IOException e) {
+                throw new DbException("HeapFile: deleteTuple: " + e.getMessage());
+            }
             ret.add(p);
             return ret;
         }
@@ -169,11 +251,13 @@ public class HeapFile implements DbFile {
     private class HeapFileIterator implements DbFileIterator {
         private Integer curPageId;
         private Iterator<Tuple> itr;
-        private int numPage = 0;
+        private final int firstPage;
+        private final int numPage;
         private TransactionId tid_;
         private int tableId;
-        private HeapFileIterator(TransactionId tid) {
-            this.numPage = numPages();
+        private HeapFileIterator(TransactionId tid, int firstPage, int endPage) {
+            this.firstPage = firstPage;
+            this.numPage = endPage;
             this.tid_ = tid;
             this.tableId = getId();
             this.curPageId = null;
@@ -182,7 +266,11 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.curPageId = 0;
+            this.curPageId = this.firstPage;
+            if (this.curPageId >= this.numPage) {
+                this.itr = null;
+                return;
+            }
             PageId pid = new HeapPageId(this.tableId, this.curPageId);
             this.itr = ((HeapPage) Database.getBufferPool().getPage(this.tid_, pid, Permissions.READ_ONLY)).iterator();
         }
@@ -229,7 +317,21 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // TODO: some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, 0, numPages());
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages firstPage to endPage - 1
+     * of this file, in the same order as {@link #iterator}. Iterators over
+     * disjoint page ranges can run on different threads.
+     *
+     * @throws IllegalArgumentException if the range is not within the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        if (firstPage < 0 || firstPage > endPage || endPage > numPages()) {
+            throw new IllegalArgumentException("invalid page range " + firstPage + " to " + endPage);
+        }
+        return new HeapFileIterator(tid, firstPage, endPage);
     }
 
 }
@@ -110,6 +110,8 @@ public class HeapFileEncoder {
 
         BufferedReader br = new BufferedReader(new FileReader(inFile));
         FileOutputStream os = new FileOutputStream(outFile);
+        // a free space map left by an older table of this name is stale
+        FreeSpaceMap.fileFor(outFile).delete();
 
         // our numbers probably won't be much larger than 1024 digits
         char[] buf = new char[1024];
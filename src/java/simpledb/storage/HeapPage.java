@@ -4,6 +4,7 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
@@ -20,16 +21,21 @@ import java.util.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlottedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+    // the page as it is serialized: header bitmap, then the slots. Tuples
+    // are decoded from it lazily, and inserts and deletes write through.
+    final byte[] data;
+    // tuples handed out so far, by slot; protected by this
+    final Tuple[] tuples;
 
+    // the before image, or null while it is the same as data; copied from
+    // data just before the first change. Protected by this.
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -49,26 +55,21 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, true);
+    }
+
+    /**
+     * Create a HeapPage from data, copying it unless copy is false. A page
+     * that does not copy takes ownership of data, which must then be a whole
+     * page that nobody else changes.
+     */
+    HeapPage(HeapPageId id, byte[] data, boolean copy) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-
+        this.headerSize = getHeaderSize();
+        this.data = copy ? Arrays.copyOf(data, BufferPool.getPageSize()) : data;
+        this.tuples = new Tuple[numSlots];
         setBeforeImage();
     }
 
@@ -96,24 +97,21 @@ public class HeapPage implements Page {
      * Return a view of this page before it was modified
      * -- used by recovery
      */
-    public HeapPage getBeforeImage() {
-        try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid, oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
-        }
-        return null;
+    public synchronized HeapPage getBeforeImage() {
+        return new HeapPage(pid, oldData != null ? oldData : data, true);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null;
     }
 
-    public void setBeforeImage() {
-        synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+    /**
+     * Keep the before image before data is changed. The caller must hold
+     * this.
+     */
+    private void preserveBeforeImage() {
+        if (oldData == null) {
+            oldData = data.clone();
         }
     }
 
@@ -126,37 +124,50 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in a used slot, created on first access with its
+     *         fields still undecoded
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple tuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotStart(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    private int slotStart(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Decode the tuples in used slots from slot onwards straight into the
+     * columns of batch, without making Tuple objects, until the batch is
+     * full.
+     *
+     * @return the slot to continue from, or getNumSlots() if every slot has
+     *         been decoded
+     */
+    public synchronized int decodeInto(int slot, TupleBatch batch) {
+        int numFields = td.numFields();
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            int pos = batch.addRow();
+            int start = slotStart(slot);
+            for (int j = 0; j < numFields; j++) {
+                int off = start + td.getFieldOffset(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    batch.setInt(j, pos, Type.readInt(data, off));
+                }
+                else {
+                    batch.setString(j, pos, Type.readString(data, off));
+                }
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        return slot;
     }
 
     /**
@@ -170,65 +181,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        return data.clone();
     }
 
     /**
@@ -253,16 +207,21 @@ public class HeapPage implements Page {
      * @throws DbException if this tuple is not on this page, or tuple slot is
      *                     already empty.
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
         if (t != null && t.getRecordId().getPageId().equals(pid)) {
-            for (int i = 0; i < numSlots; i++) {
-                if (isSlotUsed(i) && t.getRecordId().equals(tuples[i].getRecordId())) {
-                    markSlotUsed(i, false);
+            int i = t.getRecordId().getTupleNumber();
+            if (i >= 0 && i < numSlots && isSlotUsed(i)) {
+                // tuples handed out earlier must not see the slot cleared
+                if (tuples[i] != null) {
+                    tuples[i].materialize();
                     tuples[i] = null;
-                    return;
                 }
+                preserveBeforeImage();
+                markSlotUsed(i, false);
+                Arrays.fill(data, slotStart(i), slotStart(i) + td.getSize(), (byte) 0);
+                return;
             }
             throw new DbException("deleteTuple: Error: tuple slot is empty");
         }
@@ -277,13 +236,26 @@ public class HeapPage implements Page {
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *                     is mismatch.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
         if (td.equals(t.getTupleDesc())) {
             for (int i = 0; i < numSlots; i++) {
                 if (!isSlotUsed(i)) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+                    DataOutputStream dos = new DataOutputStream(baos);
+                    try {
+                        for (int j = 0; j < td.numFields(); j++) {
+                            t.getField(j).serialize(dos);
+                        }
+                        dos.flush();
+                    } catch (IOException e) {
+                        throw new DbException("insertTuple: Error: " + e.getMessage());
+                    }
+                    preserveBeforeImage();
+                    System.arraycopy(baos.toByteArray(), 0, data, slotStart(i), td.getSize());
                     markSlotUsed(i, true);
+                    t.materialize();
                     t.setRecordId(new RecordId(pid, i));
                     tuples[i] = t;
                     return;
@@ -325,13 +297,32 @@ public class HeapPage implements Page {
      */
     public int getNumUnusedSlots() {
         // TODO: some code goes here
-        int ret = 0;
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                ret++;
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(data[i] & 0xff);
+        }
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used++;
             }
         }
-        return ret;
+        return numSlots - used;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public int getHeaderOffset() {
+        return 0;
+    }
+
+    public int getSlotOffset() {
+        return headerSize;
+    }
+
+    public int getSlotSize() {
+        return td.getSize();
     }
 
     /**
@@ -343,7 +334,7 @@ public class HeapPage implements Page {
             int numbyte = i / 8;
             int offset = i % 8;
             // header[numbyte] the offset(th) bit
-            return (this.header[numbyte] & (0x1 << offset)) != 0;
+            return (this.data[numbyte] & (0x1 << offset)) != 0;
         }
         return false;
     }
@@ -357,10 +348,10 @@ public class HeapPage implements Page {
         int numbyte = i / 8;
         int offset = i % 8;
         if (value) {
-            this.header[numbyte] |= (0x1 << offset);
+            this.data[numbyte] |= (0x1 << offset);
         }
         else {
-            this.header[numbyte] &= (~(0x1 << offset));
+            this.data[numbyte] &= (~(0x1 << offset));
         }
     }
 
@@ -368,26 +359,29 @@ public class HeapPage implements Page {
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
-    public class TupleIterator implements Iterator {
-        private final Iterator<Tuple> itr;
-        public TupleIterator () {
-            ArrayList<Tuple> arr = new ArrayList<Tuple>(tuples.length);
-            for (int i = 0; i < tuples.length; i++) {
-                if (isSlotUsed(i)) {
-                    arr.add(i, tuples[i]);
-                }
+    public class TupleIterator implements Iterator<Tuple> {
+        private int next = nextUsed(0);
+
+        private int nextUsed(int from) {
+            while (from < numSlots && !isSlotUsed(from)) {
+                from++;
             }
-            itr = arr.iterator();
+            return from;
         }
 
         @Override
         public boolean hasNext() {
-            return itr.hasNext();
+            return next < numSlots;
         }
 
         @Override
         public Tuple next() {
-            return itr.next();
+            if (next >= numSlots) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = tuple(next);
+            next = nextUsed(next + 1);
+            return t;
         }
 
         @Override
@@ -397,8 +391,7 @@ public class HeapPage implements Page {
     }
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
-        return new TupleIterator().itr;
+        return new TupleIterator();
     }
 
 }
-
@@ -53,25 +53,29 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compare two int values the way IntField.compare does, for callers that
+     * have not made IntFields of them.
+     */
+    public static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
         }
-
         return false;
     }
 
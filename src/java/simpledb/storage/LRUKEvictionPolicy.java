@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K eviction in the two-queue form. Pages referenced fewer than K times
+ * have an infinite backward K-distance and live in a FIFO history queue;
+ * they are always evicted before any page that has been referenced K times.
+ * Pages that reach K references move to an LRU queue ordered by their most
+ * recent reference.
+ * <p>
+ * Ordering the second queue by the last reference instead of the K-th most
+ * recent one is what keeps every operation O(1): both queues are linked hash
+ * maps, and pinned pages are taken out of the queues entirely so that the
+ * victim is always at the head of one of them. The effect that matters for
+ * the buffer pool is kept -- a sequential scan that touches each page once
+ * cannot flush the pages that are used repeatedly.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * Default number of references before a page is considered hot.
+     */
+    public static final int DEFAULT_K = 2;
+
+    private static class Entry {
+        int refs;
+        boolean pinned;
+    }
+
+    private final int k;
+    private final Map<PageId, Entry> entries;
+    private final LinkedHashMap<PageId, Entry> history;
+    private final LinkedHashMap<PageId, Entry> cache;
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references after which a page leaves the
+     *          history queue
+     */
+    public LRUKEvictionPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("LRU-K requires k >= 1");
+        }
+        this.k = k;
+        this.entries = new HashMap<PageId, Entry>();
+        this.history = new LinkedHashMap<PageId, Entry>();
+        this.cache = new LinkedHashMap<PageId, Entry>();
+    }
+
+    public synchronized void insert(PageId pid) {
+        if (entries.containsKey(pid)) {
+            access(pid);
+            return;
+        }
+        Entry e = new Entry();
+        entries.put(pid, e);
+        reference(pid, e);
+    }
+
+    public synchronized void access(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null) {
+            reference(pid, e);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        if (entries.remove(pid) != null) {
+            history.remove(pid);
+            cache.remove(pid);
+        }
+    }
+
+    public synchronized void pin(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null && !e.pinned) {
+            e.pinned = true;
+            history.remove(pid);
+            cache.remove(pid);
+        }
+    }
+
+    public synchronized void unpin(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e != null && e.pinned) {
+            e.pinned = false;
+            enqueue(pid, e);
+        }
+    }
+
+    public synchronized PageId evict() {
+        PageId victim = poll(history);
+        if (victim == null) {
+            victim = poll(cache);
+        }
+        if (victim != null) {
+            entries.remove(victim);
+        }
+        return victim;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void reference(PageId pid, Entry e) {
+        if (e.refs < k) {
+            e.refs++;
+        }
+        if (e.pinned) {
+            return;
+        }
+        if (e.refs < k) {
+            // history queue keeps first-reference order
+            if (!history.containsKey(pid)) {
+                history.put(pid, e);
+            }
+        } else {
+            history.remove(pid);
+            cache.remove(pid);
+            cache.put(pid, e);
+        }
+    }
+
+    private void enqueue(PageId pid, Entry e) {
+        if (e.refs < k) {
+            history.put(pid, e);
+        } else {
+            cache.put(pid, e);
+        }
+    }
+
+    private static PageId poll(LinkedHashMap<PageId, Entry> queue) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        PageId pid = it.next();
+        it.remove();
+        return pid;
+    }
+}
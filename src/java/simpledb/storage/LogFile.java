@@ -4,13 +4,23 @@ import simpledb.common.Database;
 import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -50,7 +60,8 @@ must not be declared synchronized and must begin with a block like:
  * last written checkpoint, or -1 if there are no checkpoints
  *
  * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * records are variable length.  The offset at which a record starts is
+ * its log sequence number (LSN).
  *
  * <li> Each log record begins with an integer type and a long integer
  * transaction id.
@@ -58,23 +69,66 @@ must not be declared synchronized and must begin with a block like:
  * <li> Each log record ends with a long integer file offset representing
  * the position in the log file where the record began.
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * BEGIN_CHECKPOINT, CHECKPOINT and CLR
  *
- * <li> ABORT, COMMIT, and BEGIN records contain no additional data
+ * <li> ABORT, COMMIT, BEGIN and BEGIN_CHECKPOINT records contain no
+ * additional data
  *
- * <li>UPDATE RECORDS consist of two entries, a before image and an
- * after image.  These images are serialized Page objects, and can be
- * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * <li>UPDATE RECORDS consist of the LSN of the previous record of the
+ * same transaction, the id of the updated page (see LogFile.writePageId()
+ * and LogFile.readPageId()) and a {@link PageDelta}: the slot inserts,
+ * slot deletes and byte ranges that turn the page as it was last logged
+ * into the new page.  See LogFile.print() for an example.
  *
- * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * <li>CLR (compensation log) RECORDS are written while an UPDATE is
+ * undone.  They consist of the LSN of the previous record of the same
+ * transaction, the LSN of the next record of the transaction left to
+ * undo, and the page id and delta of the undone UPDATE.  A CLR is redone
+ * by undoing its delta, and is never undone itself.
+ *
+ * <li> CHECKPOINT records end a checkpoint started by a BEGIN_CHECKPOINT
+ * record and consist of the active transaction table and the dirty page
+ * table.  The format of the record is the LSN of the BEGIN_CHECKPOINT
+ * record, an integer count of the number of transactions, then a long
+ * integer transaction id, first record offset and last record offset for
+ * each active transaction, followed by an integer count of dirty pages and
+ * a page id and recovery LSN (the first record that dirtied the page since
+ * it was last written) for each dirty page.  The first long integer of the
+ * file points to the CHECKPOINT record.
  *
  * </ul>
+ *
+ * <p> Checkpoints are fuzzy: the tables are copied after the
+ * BEGIN_CHECKPOINT record is written, while transactions keep appending,
+ * and no pages are flushed.  Recovery loads the tables from the CHECKPOINT
+ * record and replays every record from the BEGIN_CHECKPOINT record on, so
+ * changes made while the tables were copied are never lost.  Dirty pages
+ * reach the disk at commit, or earlier through the buffer pool's background
+ * page writer.
+ *
+ * <p> Recovery follows ARIES: an analysis pass from the last checkpoint
+ * rebuilds the active transaction and dirty page tables, a redo pass
+ * repeats history starting at the oldest recovery LSN, skipping pages
+ * that were written after their last logged update, and an undo pass
+ * rolls back the transactions that never finished along their chains of
+ * records, writing CLRs.  Pages are stored without an LSN, so redo relies
+ * on every delta setting bytes to fixed values: redoing an update that is
+ * already on disk is harmless.  Recovery keeps only the two tables and a
+ * bounded number of page images in memory.
+ *
+ * <p> New records are appended to an in-memory log tail and only written
+ * to the file when the log is forced (or when the log itself needs to be
+ * read, e.g. for rollback.)
+ *
+ * <p> In group commit mode (the default) {@link #force()} does not sync the
+ * file itself.  The caller enqueues a request and blocks until a background
+ * flusher thread has written the tail and synced the file.  Requests that
+ * arrive while a sync is in progress form the next batch, so concurrent
+ * committers share one write and one fsync.  The flusher can also hold a
+ * batch open for up to maxLatency after its oldest request, unless maxBatch
+ * requests are already queued.  See {@link #enableGroupCommit} and
+ * {@link #disableGroupCommit}.
  */
 public class LogFile {
 
@@ -87,16 +141,86 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int BEGIN_CHECKPOINT_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_LSN = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    public static final long DEFAULT_GROUP_COMMIT_LATENCY_MICROS = 0;
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 32;
+    // an idle flusher thread exits after this long; it is restarted on demand
+    static final long FLUSHER_IDLE_MILLIS = 1000;
+    // page images rollback and recovery keep in memory at once
+    static final int RECOVERY_CACHE_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /**
+     * Records appended since the last write to the file.
+     */
+    private static class LogTail extends ByteArrayOutputStream {
+        void writeTo(RandomAccessFile f) throws IOException {
+            f.write(buf, 0, count);
+        }
+    }
+
+    private final LogTail tail = new LogTail(); // protected by this
+    private final DataOutputStream out = new DataOutputStream(tail);
+    // held while syncing or replacing raf outside of this
+    private final Object forceLock = new Object();
+    // serializes checkpoints and log truncation
+    private final Object checkpointLock = new Object();
+
+    private volatile boolean groupCommit = true;
+    private volatile long maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_GROUP_COMMIT_LATENCY_MICROS);
+    private volatile int maxBatch = DEFAULT_GROUP_COMMIT_BATCH;
+    private final ArrayDeque<ForceRequest> forceRequests = new ArrayDeque<>();
+    private Thread flusher; // protected by forceRequests
+
+    /**
+     * A thread waiting in force() for the flusher.
+     */
+    private static class ForceRequest {
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    /**
+     * A log record, as read from the log or about to be appended to it.
+     * Only the fields used by the record's type are set.
+     */
+    private static class LogRecord {
+        final int type;
+        final long tid;
+        long lsn = NO_LSN;
+        long prevLSN = NO_LSN;       // UPDATE, CLR
+        long undoNextLSN = NO_LSN;   // CLR
+        PageId pid;                  // UPDATE, CLR
+        PageDelta delta;             // UPDATE, CLR
+        long beginLSN = NO_LSN;      // CHECKPOINT
+        Map<Long, long[]> transactions; // CHECKPOINT: tid -> {first LSN, last LSN}
+        Map<PageId, Long> dirtyPages;   // CHECKPOINT: page -> recovery LSN
+
+        LogRecord(int type, long tid) {
+            this.type = type;
+            this.tid = tid;
+        }
+    }
+
     long currentOffset = -1;//protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
-    final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
+    // the tables are only changed while holding this, but a checkpoint
+    // copies them without it
+    final Map<Long, Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+    final Map<Long, Long> tidToLastLogRecord = new ConcurrentHashMap<>();
+    // pages with logged updates that may not be on disk yet -> recovery LSN
+    final Map<PageId, Long> dirtyPages = new ConcurrentHashMap<>();
+    // dirty page -> number of the last record appended for it
+    private final Map<PageId, Long> pageLastRecord = new HashMap<>(); // protected by this
+    private long recordsAppended = 0; // protected by this, never reset
 
     /**
      * Constructor.
@@ -145,6 +269,118 @@ public class LogFile {
         return totalRecords;
     }
 
+    /**
+     * Append a record to the log tail. The caller must hold this and have
+     * called preAppend().
+     *
+     * @return the LSN of the record
+     */
+    private long append(LogRecord r) throws IOException {
+        r.lsn = currentOffset;
+        int start = tail.size();
+        writeRecord(out, r);
+        currentOffset += tail.size() - start;
+        recordsAppended++;
+        return r.lsn;
+    }
+
+    /**
+     * Append an UPDATE or CLR record and enter it in the transaction and
+     * dirty page tables. The caller must hold this.
+     */
+    private long appendPageRecord(LogRecord r) throws IOException {
+        Long prev = tidToLastLogRecord.get(r.tid);
+        r.prevLSN = prev == null ? NO_LSN : prev;
+        long lsn = append(r);
+        tidToLastLogRecord.put(r.tid, lsn);
+        dirtyPages.putIfAbsent(r.pid, lsn);
+        pageLastRecord.put(r.pid, recordsAppended);
+        return lsn;
+    }
+
+    private void writeRecord(DataOutput o, LogRecord r) throws IOException {
+        o.writeInt(r.type);
+        o.writeLong(r.tid);
+        switch (r.type) {
+            case UPDATE_RECORD:
+                o.writeLong(r.prevLSN);
+                writePageId(o, r.pid);
+                r.delta.write(o);
+                break;
+            case CLR_RECORD:
+                o.writeLong(r.prevLSN);
+                o.writeLong(r.undoNextLSN);
+                writePageId(o, r.pid);
+                r.delta.write(o);
+                break;
+            case CHECKPOINT_RECORD:
+                o.writeLong(r.beginLSN);
+                o.writeInt(r.transactions.size());
+                for (Map.Entry<Long, long[]> e : r.transactions.entrySet()) {
+                    o.writeLong(e.getKey());
+                    o.writeLong(e.getValue()[0]);
+                    o.writeLong(e.getValue()[1]);
+                }
+                o.writeInt(r.dirtyPages.size());
+                for (Map.Entry<PageId, Long> e : r.dirtyPages.entrySet()) {
+                    writePageId(o, e.getKey());
+                    o.writeLong(e.getValue());
+                }
+                break;
+        }
+        o.writeLong(r.lsn);
+    }
+
+    /**
+     * Read the record at the current position of f.
+     *
+     * @throws EOFException at the end of the log, including in a record
+     *                      that was only partially written
+     */
+    private LogRecord readRecord(RandomAccessFile f) throws IOException {
+        long lsn = f.getFilePointer();
+        LogRecord r = new LogRecord(f.readInt(), f.readLong());
+        r.lsn = lsn;
+        switch (r.type) {
+            case UPDATE_RECORD:
+                r.prevLSN = f.readLong();
+                r.pid = readPageId(f);
+                r.delta = PageDelta.read(f);
+                break;
+            case CLR_RECORD:
+                r.prevLSN = f.readLong();
+                r.undoNextLSN = f.readLong();
+                r.pid = readPageId(f);
+                r.delta = PageDelta.read(f);
+                break;
+            case CHECKPOINT_RECORD:
+                r.beginLSN = f.readLong();
+                r.transactions = new HashMap<>();
+                int numXactions = f.readInt();
+                for (int i = 0; i < numXactions; i++) {
+                    long tid = f.readLong();
+                    r.transactions.put(tid, new long[]{f.readLong(), f.readLong()});
+                }
+                r.dirtyPages = new HashMap<>();
+                int numPages = f.readInt();
+                for (int i = 0; i < numPages; i++) {
+                    PageId pid = readPageId(f);
+                    r.dirtyPages.put(pid, f.readLong());
+                }
+                break;
+            case ABORT_RECORD:
+            case COMMIT_RECORD:
+            case BEGIN_RECORD:
+            case BEGIN_CHECKPOINT_RECORD:
+                break;
+            default:
+                // garbage after a torn write
+                throw new EOFException("bad log record type " + r.type);
+        }
+        f.readLong();
+        return r;
+    }
+
     /**
      * Write an abort record to the log for the specified tid, force
      * the log to disk, and perform a rollback
@@ -166,14 +402,12 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                append(new LogRecord(ABORT_RECORD, tid.getId()));
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
+        force();
     }
 
     /**
@@ -182,118 +416,279 @@ public class LogFile {
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    public void logCommit(TransactionId tid) throws IOException {
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            append(new LogRecord(COMMIT_RECORD, tid.getId()));
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastLogRecord.remove(tid.getId());
+        }
+        // outside the monitor, so other transactions can append to the
+        // batch while this one waits for the flusher
         force();
-        tidToFirstLogRecord.remove(tid.getId());
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
      * (with provided         before and after images.)
+     * The page stays in the dirty page table until
+     * {@link #pageFlushed} reports that it has been written.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
-                                      Page after)
+    public void logWrite(TransactionId tid, Page before,
+                         Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
-        /* update record conists of
+        PageDelta delta = PageDelta.diff(before, after);
+        synchronized (this) {
+            Debug.log("WRITE, offset = " + currentOffset);
+            preAppend();
+            /* update record conists of
+
+               record type
+               transaction id
+               previous LSN of the transaction
+               page id (see writePageId)
+               page delta
+               start offset
+            */
+            LogRecord r = new LogRecord(UPDATE_RECORD, tid.getId());
+            r.pid = after.getId();
+            r.delta = delta;
+            appendPageRecord(r);
+
+            Debug.log("WRITE OFFSET = " + currentOffset);
+        }
+    }
 
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+    /**
+     * Write an UPDATE record for a page of a transaction that is still
+     * running, on behalf of someone writing the page before the
+     * transaction finishes.  Nothing is logged if the transaction already
+     * committed or aborted, since an UPDATE after its COMMIT or ABORT
+     * would make recovery undo it again.
+     *
+     * @return true if the record was written
+     * @see #logWrite
+     */
+    public boolean logWriteIfActive(TransactionId tid, Page before, Page after)
+            throws IOException {
+        PageDelta delta = PageDelta.diff(before, after);
+        synchronized (this) {
+            if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                return false;
+            }
+            preAppend();
+            LogRecord r = new LogRecord(UPDATE_RECORD, tid.getId());
+            r.pid = after.getId();
+            r.delta = delta;
+            appendPageRecord(r);
+            return true;
+        }
+    }
 
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    /**
+     * @return a mark to pass to {@link #pageFlushed} for a page write that
+     *         is about to start
+     */
+    public synchronized long getFlushMark() {
+        return recordsAppended;
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    /**
+     * Tell the log that a page has been written to disk, so it leaves the
+     * dirty page table, unless records for the page were appended after
+     * the write started: the image on disk may not include them.
+     *
+     * @param mark the value of {@link #getFlushMark} before the write
+     */
+    public synchronized void pageFlushed(PageId pid, long mark) {
+        Long last = pageLastRecord.get(pid);
+        if (last != null && last <= mark) {
+            pageLastRecord.remove(pid);
+            dirtyPages.remove(pid);
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
         int[] pageInfo = pid.serialize();
 
-        //page data is:
-        // page class name
+        //page id is:
         // id class name
         // id class bytes
         // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
 
+        raf.writeUTF(pid.getClass().getName());
         raf.writeInt(pageInfo.length);
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
+    PageId readPageId(RandomAccessFile raf) throws IOException {
         String idClassName = raf.readUTF();
-
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i < numIdArgs; i++) {
                 idArgs[i] = raf.readInt();
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                | InstantiationException | IllegalArgumentException e) {
+            // an id class that does not match its arguments is a torn record
+            throw new EOFException("bad page id in log record");
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /**
+     * The serialized image of a page that recovery writes back to its
+     * file; DbFile.writePage only needs the id and the bytes.
+     */
+    private static class RawPage implements Page {
+        private final PageId pid;
+        private final byte[] data;
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        RawPage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        public PageId getId() {
+            return pid;
+        }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+        public TransactionId isDirty() {
+            return null;
+        }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * Page images modified by rollback or recovery.  At most capacity
+     * images are kept; the least recently used one is written back to its
+     * file when another page is needed.
+     */
+    private class PageCache {
+        private final int capacity;
+        private final LinkedHashMap<PageId, byte[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+        PageCache(int capacity) {
+            this.capacity = capacity;
+        }
+
+        byte[] get(PageId pid) throws IOException {
+            byte[] data = pages.get(pid);
+            if (data == null) {
+                if (pages.size() >= capacity) {
+                    Map.Entry<PageId, byte[]> eldest = pages.entrySet().iterator().next();
+                    writeDiskPages(Collections.singletonMap(eldest.getKey(), eldest.getValue()));
+                    pages.remove(eldest.getKey());
+                }
+                data = readDiskPage(pid);
+                pages.put(pid, data);
+            }
+            return data;
+        }
+
+        void flush() throws IOException {
+            writeDiskPages(pages);
+            pages.clear();
+        }
+    }
+
+    /**
+     * @return the bytes of a page as they are on disk, or zeros if the page
+     *         is not in its file yet
+     */
+    private byte[] readDiskPage(PageId pid) {
+        try {
+            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (p != null) {
+                return p.getPageData();
+            }
+        } catch (IllegalArgumentException e) {
+            // past the end of the file
+        }
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Write recovered page images back to their files, force the files and
+     * drop any cached copies from the buffer pool.
+     */
+    private void writeDiskPages(Map<PageId, byte[]> pages) throws IOException {
+        Set<DbFile> files = new HashSet<>();
+        for (Map.Entry<PageId, byte[]> e : pages.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey().getTableId());
+            file.writePage(new RawPage(e.getKey(), e.getValue()));
+            files.add(file);
+        }
+        for (DbFile file : files) {
+            file.force();
+        }
+        for (PageId pid : pages.keySet()) {
+            Database.getBufferPool().removePage(pid);
+            dirtyPages.remove(pid);
+            pageLastRecord.remove(pid);
         }
-        return newPage;
+    }
 
+    /**
+     * Undo one record of a transaction that is being rolled back, writing
+     * a CLR for an UPDATE. The caller must hold this.
+     *
+     * @return the LSN of the next record of the transaction to undo, or
+     *         NO_LSN if it has been undone completely
+     */
+    private long undoRecord(long lsn, PageCache pages) throws IOException {
+        raf.seek(lsn);
+        LogRecord r = readRecord(raf);
+        switch (r.type) {
+            case UPDATE_RECORD:
+                r.delta.undo(pages.get(r.pid));
+                LogRecord clr = new LogRecord(CLR_RECORD, r.tid);
+                clr.undoNextLSN = r.prevLSN;
+                clr.pid = r.pid;
+                clr.delta = r.delta;
+                preAppend();
+                appendPageRecord(clr);
+                return r.prevLSN;
+            case CLR_RECORD:
+                return r.undoNextLSN;
+            default:
+                // the BEGIN record
+                return NO_LSN;
+        }
+    }
+
+    /**
+     * @return the size of the log in bytes, including records that have
+     *         not been written to the file yet
+     */
+    public synchronized long getLogSize() throws IOException {
+        return recoveryUndecided ? raf.length() : currentOffset;
     }
 
     /**
@@ -309,154 +704,180 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(new LogRecord(BEGIN_RECORD, tid.getId()));
+        tidToFirstLogRecord.put(tid.getId(), lsn);
+        tidToLastLogRecord.put(tid.getId(), lsn);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Take a fuzzy checkpoint: write a BEGIN_CHECKPOINT record, copy the
+     * active transaction and dirty page tables while transactions keep
+     * running, write them in a CHECKPOINT record and point the log header
+     * at it.  No pages are flushed.  Then truncate the log.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            LogRecord cp = new LogRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                cp.beginLSN = append(new LogRecord(BEGIN_CHECKPOINT_RECORD, -1));
+            }
+
+            // anything that changes while we copy is logged after the
+            // BEGIN_CHECKPOINT record, which is where analysis starts
+            cp.transactions = new HashMap<>();
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Long last = tidToLastLogRecord.get(e.getKey());
+                if (last != null) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    cp.transactions.put(e.getKey(), new long[]{e.getValue(), last});
                 }
+            }
+            cp.dirtyPages = new HashMap<>(dirtyPages);
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+            long startCpOffset;
+            synchronized (this) {
+                startCpOffset = append(cp);
+            }
+            force();
+
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            synchronized (this) {
+                writeTail();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                raf.seek(currentOffset);
+                forceNow();
             }
-        }
+            //Debug.log("CP OFFSET = " + currentOffset);
 
-        logTruncate();
+            logTruncate();
+        }
     }
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption.
+     * <p>
+     * Records before the last checkpoint are copied to a new file without
+     * holding this, so transactions keep appending meanwhile.  Only the
+     * records appended during the copy are copied while holding this,
+     * right before the new file replaces the log.
      */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+    public void logTruncate() throws IOException {
+        synchronized (checkpointLock) {
+            long cpLoc;
+            long copyEnd;
+            synchronized (this) {
+                preAppend();
+                writeTail();
+                raf.seek(0);
+                cpLoc = raf.readLong();
+                raf.seek(currentOffset);
+                copyEnd = currentOffset;
             }
+            if (cpLoc == NO_CHECKPOINT_ID) {
+                return;
+            }
+
+            // the records before copyEnd are in the file and do not change
+            try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+                // keep every record recovery or rollback may still read:
+                // the checkpoint, the active transactions and the updates
+                // of pages not yet on disk
+                in.seek(cpLoc);
+                LogRecord cp = readRecord(in);
+                if (cp.type != CHECKPOINT_RECORD) {
+                    throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                }
+                long minLogRecord = cp.beginLSN;
+                for (long[] lsns : cp.transactions.values()) {
+                    minLogRecord = Math.min(minLogRecord, lsns[0]);
+                }
+                for (long recLSN : cp.dirtyPages.values()) {
+                    minLogRecord = Math.min(minLogRecord, recLSN);
+                }
+                if (minLogRecord <= LONG_SIZE) {
+                    return; // nothing to reclaim
+                }
 
-            int numOutstanding = raf.readInt();
+                // we can truncate everything before minLogRecord
+                File newFile = new File("logtmp" + System.currentTimeMillis());
+                FileOutputStream newStream = new FileOutputStream(newFile);
+                DataOutputStream logNew = new DataOutputStream(new BufferedOutputStream(newStream));
+                logNew.writeLong(shift(cpLoc, minLogRecord));
+                in.seek(minLogRecord);
+                copyRecords(in, logNew, copyEnd, minLogRecord);
+
+                synchronized (this) {
+                    writeTail();
+                    copyRecords(in, logNew, currentOffset, minLogRecord);
+                    shiftAll(tidToFirstLogRecord, minLogRecord);
+                    shiftAll(tidToLastLogRecord, minLogRecord);
+                    shiftAll(dirtyPages, minLogRecord);
+
+                    Debug.log("TRUNCATING LOG;  WAS " + currentOffset + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (currentOffset - minLogRecord));
+
+                    logNew.flush();
+                    newStream.getChannel().force(true);
+                    logNew.close();
+                    synchronized (forceLock) {
+                        raf.close();
+                        logFile.delete();
+                        newFile.renameTo(logFile);
+                        raf = new RandomAccessFile(logFile, "rw");
+                        raf.seek(raf.length());
+                    }
+                    newFile.delete();
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+                    currentOffset = raf.getFilePointer();
                 }
             }
+            //print();
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
-
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
+    /**
+     * Copy the records from the position of in up to end, rewriting their
+     * LSNs since offsets are different after truncation.
+     */
+    private void copyRecords(RandomAccessFile in, DataOutput logNew, long end, long minLogRecord)
+            throws IOException {
+        while (in.getFilePointer() < end) {
+            LogRecord r = readRecord(in);
+            r.lsn = shift(r.lsn, minLogRecord);
+            r.prevLSN = shift(r.prevLSN, minLogRecord);
+            r.undoNextLSN = shift(r.undoNextLSN, minLogRecord);
+            if (r.type == CHECKPOINT_RECORD) {
+                r.beginLSN = shift(r.beginLSN, minLogRecord);
+                for (long[] lsns : r.transactions.values()) {
+                    lsns[0] = shift(lsns[0], minLogRecord);
+                    lsns[1] = shift(lsns[1], minLogRecord);
+                }
+                for (Map.Entry<PageId, Long> e : r.dirtyPages.entrySet()) {
+                    e.setValue(shift(e.getValue(), minLogRecord));
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
+            Debug.log("NEW START = " + r.lsn);
+            writeRecord(logNew, r);
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    /**
+     * @return where a record at lsn moves when the log is truncated at
+     *         minLogRecord; records before it are gone
+     */
+    private static long shift(long lsn, long minLogRecord) {
+        return lsn < minLogRecord ? NO_LSN : (lsn - minLogRecord) + LONG_SIZE;
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    private static <K> void shiftAll(Map<K, Long> lsns, long minLogRecord) {
+        for (Map.Entry<K, Long> e : lsns.entrySet()) {
+            e.setValue(shift(e.getValue(), minLogRecord));
+        }
     }
 
     /**
@@ -465,6 +886,9 @@ public class LogFile {
      * transaction semantics, this should not be called on
      * transactions that have already committed (though this may not
      * be enforced by this method.)
+     * <p>
+     * The transaction's records are undone newest first by following
+     * their previous-LSN chain, and a CLR is logged for every undone update.
      *
      * @param tid The transaction to rollback
      */
@@ -474,28 +898,19 @@ public class LogFile {
             synchronized (this) {
                 preAppend();
                 // TODO: some code goes here
+                if (tidToFirstLogRecord.get(tid.getId()) == null) {
+                    throw new NoSuchElementException("no BEGIN record for transaction " + tid.getId());
+                }
+                writeTail();
                 long curOffset = raf.getFilePointer();
-                long start = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(start);
-                while (true) {
-                    try {
-                        int cpType = raf.readInt();
-                        long cpTid = raf.readLong();
-                        if (cpType == UPDATE_RECORD) {
-                            Page before = readPageData(raf);
-                            if (cpTid == tid.getId()) {
-                                HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                                file.writePage(before);
-                                Database.getBufferPool().removePage(before.getId());
-                            }
-                            Page after = readPageData(raf);
-                        }
-                        cpTid = raf.readLong();
-                    }
-                    catch (IOException e) {
-                        break;
-                    }
+                PageCache pages = new PageCache(RECOVERY_CACHE_PAGES);
+                long lsn = tidToLastLogRecord.get(tid.getId());
+                while (lsn != NO_LSN) {
+                    lsn = undoRecord(lsn, pages);
                 }
+                // the CLRs go to disk before the pages they describe
+                forceNow();
+                pages.flush();
                 raf.seek(curOffset);
             }
         }
@@ -506,10 +921,12 @@ public class LogFile {
      * is necessary so that start up can happen quickly (without
      * extensive recovery.)
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -526,64 +943,108 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // TODO: some code goes here
-                Map<Long, List<Page[]>> map = new HashMap<>();
                 raf.seek(0);
                 // print();
                 long checkpointOffset = raf.readLong();
-                if (checkpointOffset != -1) {
-                    Map<Long, Long> pos = new HashMap<>();
+
+                // analysis: rebuild the active transaction and dirty page
+                // tables as of the end of the log
+                Map<Long, Long> active = new HashMap<>();
+                Map<PageId, Long> dirty = new HashMap<>();
+                long start = raf.getFilePointer();
+                if (checkpointOffset != NO_CHECKPOINT_ID) {
                     raf.seek(checkpointOffset);
-                    raf.readInt();
-                    raf.readLong();
-                    int cnt = raf.readInt();
-                    for (int i = 0; i < cnt; i++) {
-                        long transId = raf.readLong();
-                        long posBegin = raf.readLong();
-                        raf.seek(posBegin);
-                        pos.put(transId, posBegin);
-                        recover_helper(raf, map);
+                    LogRecord cp = readRecord(raf);
+                    for (Map.Entry<Long, long[]> e : cp.transactions.entrySet()) {
+                        active.put(e.getKey(), e.getValue()[1]);
                     }
+                    dirty.putAll(cp.dirtyPages);
+                    // the tables were copied after the checkpoint began, so
+                    // replay from there; a later last LSN or a transaction
+                    // that already finished is corrected by the records
+                    start = cp.beginLSN;
                 }
-                else {
-                    recover_helper(raf, map);
+                long end = start;
+                raf.seek(start);
+                while (true) {
+                    LogRecord r;
+                    try {
+                        r = readRecord(raf);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    end = raf.getFilePointer();
+                    switch (r.type) {
+                        case BEGIN_RECORD:
+                            active.put(r.tid, r.lsn);
+                            break;
+                        case UPDATE_RECORD:
+                        case CLR_RECORD:
+                            active.put(r.tid, r.lsn);
+                            if (!dirty.containsKey(r.pid)) {
+                                dirty.put(r.pid, r.lsn);
+                            }
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            active.remove(r.tid);
+                            break;
+                    }
                 }
-                for (Map.Entry<Long, List<Page[]>> entry : map.entrySet()) {
-                    Page[] pages = entry.getValue().get(0);
-                    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pages[0].getId().getTableId());
-                    file.writePage(pages[0]);
+                // drop a torn record at the end
+                raf.setLength(end);
+
+                // redo: repeat history from the oldest recovery LSN,
+                // skipping updates older than their page's recovery LSN
+                PageCache pages = new PageCache(RECOVERY_CACHE_PAGES);
+                if (!dirty.isEmpty()) {
+                    raf.seek(Collections.min(dirty.values()));
+                    while (raf.getFilePointer() < end) {
+                        LogRecord r = readRecord(raf);
+                        if (r.type != UPDATE_RECORD && r.type != CLR_RECORD) {
+                            continue;
+                        }
+                        Long recLSN = dirty.get(r.pid);
+                        if (recLSN == null || r.lsn < recLSN) {
+                            continue;
+                        }
+                        if (r.type == UPDATE_RECORD) {
+                            r.delta.redo(pages.get(r.pid));
+                        }
+                        else {
+                            r.delta.undo(pages.get(r.pid));
+                        }
+                    }
                 }
-                map.clear();
-            }
-        }
-    }
 
-    private void recover_helper(RandomAccessFile raf, Map<Long, List<Page[]>> map) {
-        while (true) {
-            try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-                if (cpType == UPDATE_RECORD) {
-                    map.put(cpTid, map.getOrDefault(cpTid, new ArrayList<Page[]>()));
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-                    map.get(cpTid).add(new Page[]{before, after});
+                // undo: roll the losers back together, newest record first
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                tidToLastLogRecord.clear();
+                dirtyPages.clear();
+                pageLastRecord.clear();
+                tidToLastLogRecord.putAll(active);
+                TreeMap<Long, Long> toUndo = new TreeMap<>();
+                for (Map.Entry<Long, Long> e : active.entrySet()) {
+                    toUndo.put(e.getValue(), e.getKey());
                 }
-                else if (cpType == COMMIT_RECORD && map.containsKey(cpTid)) {
-                    Page[] pages = map.get(cpTid).get(map.get(cpTid).size() - 1);
-                    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pages[0].getId().getTableId());
-                    file.writePage(pages[1]);
-                    map.remove(cpTid);
-                }
-                else if (cpType == ABORT_RECORD && map.containsKey(cpTid)) {
-                    Page[] pages = map.get(cpTid).get(0);
-                    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pages[0].getId().getTableId());
-                    file.writePage(pages[0]);
-                    map.remove(cpTid);
+                while (!toUndo.isEmpty()) {
+                    Map.Entry<Long, Long> next = toUndo.pollLastEntry();
+                    long lsn = undoRecord(next.getKey(), pages);
+                    if (lsn != NO_LSN) {
+                        toUndo.put(lsn, next.getValue());
+                    }
+                    else {
+                        preAppend();
+                        append(new LogRecord(ABORT_RECORD, next.getValue()));
+                        tidToLastLogRecord.remove(next.getValue());
+                    }
                 }
-                cpTid = raf.readLong();
-            }
-            catch (IOException e) {
-                break;
+                forceNow();
+                pages.flush();
+
+                // new records are appended after the recovered log
+                raf.seek(currentOffset);
             }
         }
     }
@@ -592,6 +1053,9 @@ public class LogFile {
      * Print out a human readable represenation of the log
      */
     public void print() throws IOException {
+        synchronized (this) {
+            writeTail();
+        }
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -599,75 +1063,194 @@ public class LogFile {
         System.out.println("0: checkpoint record at offset " + raf.readLong());
 
         while (true) {
+            LogRecord r;
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
-
-                switch (cpType) {
-                    case BEGIN_RECORD:
-                        System.out.println(" (BEGIN)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                        break;
-                    case ABORT_RECORD:
-                        System.out.println(" (ABORT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                        break;
-                    case COMMIT_RECORD:
-                        System.out.println(" (COMMIT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                        break;
-
-                    case CHECKPOINT_RECORD:
-                        System.out.println(" (CHECKPOINT)");
-                        int numTransactions = raf.readInt();
-                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                r = readRecord(raf);
+            } catch (EOFException e) {
+                //e.printStackTrace();
+                break;
+            }
 
-                        while (numTransactions-- > 0) {
-                            long tid = raf.readLong();
-                            long firstRecord = raf.readLong();
-                            System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
-                        }
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+            System.out.println(r.lsn + ": RECORD TYPE " + r.type);
+            System.out.println((r.lsn + INT_SIZE) + ": TID " + r.tid);
+
+            switch (r.type) {
+                case BEGIN_RECORD:
+                    System.out.println(" (BEGIN)");
+                    break;
+                case ABORT_RECORD:
+                    System.out.println(" (ABORT)");
+                    break;
+                case COMMIT_RECORD:
+                    System.out.println(" (COMMIT)");
+                    break;
+                case BEGIN_CHECKPOINT_RECORD:
+                    System.out.println(" (BEGIN CHECKPOINT)");
+                    break;
+                case CHECKPOINT_RECORD:
+                    System.out.println(" (CHECKPOINT)");
+                    System.out.println("BEGIN CHECKPOINT LSN: " + r.beginLSN);
+                    System.out.println("NUMBER OF OUTSTANDING RECORDS: " + r.transactions.size());
+                    for (Map.Entry<Long, long[]> e : r.transactions.entrySet()) {
+                        System.out.println("TID: " + e.getKey() + " FIRST LOG RECORD: " + e.getValue()[0]
+                                + " LAST LOG RECORD: " + e.getValue()[1]);
+                    }
+                    System.out.println("NUMBER OF DIRTY PAGES: " + r.dirtyPages.size());
+                    for (Map.Entry<PageId, Long> e : r.dirtyPages.entrySet()) {
+                        System.out.println("PAGE: " + e.getKey() + " RECOVERY LSN: " + e.getValue());
+                    }
+                    break;
+                case UPDATE_RECORD:
+                case CLR_RECORD:
+                    System.out.println(r.type == UPDATE_RECORD ? " (UPDATE)" : " (CLR)");
+                    System.out.println("PREVIOUS LSN: " + r.prevLSN);
+                    if (r.type == CLR_RECORD) {
+                        System.out.println("UNDO NEXT LSN: " + r.undoNextLSN);
+                    }
+                    System.out.println("page table id " + r.pid.getTableId() + ", page number "
+                            + r.pid.getPageNumber() + ": page delta, " + r.delta);
+                    break;
+            }
+            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": RECORD START OFFSET: " + r.lsn);
+        }
 
-                        break;
-                    case UPDATE_RECORD:
-                        System.out.println(" (UPDATE)");
+        // Return the file pointer to its original position
+        raf.seek(curOffset);
+    }
 
-                        long start = raf.getFilePointer();
-                        Page before = readPageData(raf);
+    /**
+     * Make every record appended so far durable.  In group commit mode the
+     * calling thread waits for the flusher thread, unless it holds this
+     * log's monitor (which the flusher needs), in which case the log is
+     * forced directly.
+     */
+    public void force() throws IOException {
+        if (!groupCommit || Thread.holdsLock(this)) {
+            forceNow();
+            return;
+        }
+        ForceRequest req = new ForceRequest();
+        synchronized (forceRequests) {
+            forceRequests.addLast(req);
+            if (flusher == null) {
+                flusher = new Thread(this::runFlusher, "LogFile flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            forceRequests.notifyAll();
+        }
+        try {
+            req.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while forcing the log");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
 
-                        long middle = raf.getFilePointer();
-                        Page after = readPageData(raf);
+    /**
+     * Write the log tail and sync the file on the calling thread.
+     */
+    private synchronized void forceNow() throws IOException {
+        writeTail();
+        synchronized (forceLock) {
+            raf.getChannel().force(true);
+        }
+    }
 
-                        System.out.println(start + ": before image table id " + before.getId().getTableId());
-                        System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                        System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+    /**
+     * Append the log tail to the file. The caller must hold this.
+     */
+    private void writeTail() throws IOException {
+        if (tail.size() == 0) {
+            return;
+        }
+        raf.seek(currentOffset - tail.size());
+        tail.writeTo(raf);
+        tail.reset();
+    }
 
-                        System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                        System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                        System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+    /**
+     * Switch to group commit: force() waits for a background flusher that
+     * syncs the log once for every batch of waiting threads.
+     *
+     * @param maxLatencyMicros how long the flusher may hold back the oldest
+     *                         request to let more requests join its batch
+     * @param maxBatch         the flusher stops waiting as soon as this many
+     *                         requests are queued
+     */
+    public void enableGroupCommit(long maxLatencyMicros, int maxBatch) {
+        if (maxLatencyMicros < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("invalid group commit settings");
+        }
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(maxLatencyMicros);
+        this.maxBatch = maxBatch;
+        this.groupCommit = true;
+    }
 
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+    /**
+     * Switch back to forcing the log synchronously on every force().
+     * Requests already queued are still served by the flusher.
+     */
+    public void disableGroupCommit() {
+        this.groupCommit = false;
+    }
 
-                        break;
+    private void runFlusher() {
+        while (true) {
+            List<ForceRequest> batch;
+            synchronized (forceRequests) {
+                try {
+                    long idleSince = System.nanoTime();
+                    while (forceRequests.isEmpty()) {
+                        if (System.nanoTime() - idleSince >= TimeUnit.MILLISECONDS.toNanos(FLUSHER_IDLE_MILLIS)) {
+                            flusher = null;
+                            return;
+                        }
+                        forceRequests.wait(FLUSHER_IDLE_MILLIS);
+                    }
+                    long deadline = forceRequests.getFirst().enqueued + maxLatencyNanos;
+                    long remaining;
+                    while (forceRequests.size() < maxBatch
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(forceRequests, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    // keep serving: threads may be blocked in force()
                 }
+                batch = new ArrayList<>(forceRequests);
+                forceRequests.clear();
+            }
 
-            } catch (EOFException e) {
-                //e.printStackTrace();
-                break;
+            // every queued record was appended before its request, so one
+            // write of the tail and one sync cover the whole batch
+            try {
+                RandomAccessFile f;
+                synchronized (this) {
+                    writeTail();
+                    f = raf;
+                }
+                synchronized (forceLock) {
+                    // a closed file was replaced by logTruncate(), which
+                    // synced its replacement
+                    if (f.getChannel().isOpen()) {
+                        f.getChannel().force(true);
+                    }
+                }
+                for (ForceRequest req : batch) {
+                    req.done.complete(null);
+                }
+            } catch (IOException e) {
+                for (ForceRequest req : batch) {
+                    req.done.completeExceptionally(e);
+                }
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
-    }
 
 }
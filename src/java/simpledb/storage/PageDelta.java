@@ -0,0 +1,275 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PageDelta is the body of an UPDATE log record: the difference between two
+ * serialized images of the same page, as a list of operations that can be
+ * replayed forward (redo) or backward (undo) on the page's bytes.
+ * <p>
+ * For a {@link SlottedPage} a slot that became used is logged as an INSERT
+ * of the new tuple bytes and a slot that became free as a DELETE of the old
+ * tuple bytes. Every other change (pointers, tuples rewritten in place,
+ * pages without a slot layout) is logged as a RANGE holding the before and
+ * after bytes of a changed byte range.
+ * <p>
+ * Each operation sets bytes (or single bitmap bits) to fixed values, so
+ * replaying a sequence of deltas in log order leaves every byte at the
+ * value of its last write, whatever intermediate state the page was in.
+ */
+public class PageDelta {
+
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+    static final byte RANGE = 3;
+
+    // unchanged bytes a RANGE may span before it is split in two
+    static final int MAX_GAP = 8;
+
+    private static class Op {
+        final byte type;
+        final int pos; // slot number, or byte offset for RANGE
+        final byte[] before;
+        final byte[] after;
+
+        Op(byte type, int pos, byte[] before, byte[] after) {
+            this.type = type;
+            this.pos = pos;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private final int headerOffset;
+    private final int slotOffset;
+    private final int slotSize; // 0 if the page has no slot layout
+    private final List<Op> ops;
+
+    private PageDelta(int headerOffset, int slotOffset, int slotSize, List<Op> ops) {
+        this.headerOffset = headerOffset;
+        this.slotOffset = slotOffset;
+        this.slotSize = slotSize;
+        this.ops = ops;
+    }
+
+    /**
+     * Compute the delta that turns the before image of a page into the after
+     * image.
+     */
+    public static PageDelta diff(Page before, Page after) {
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        if (b.length != a.length) {
+            throw new IllegalArgumentException("page images differ in size");
+        }
+
+        List<Op> ops = new ArrayList<Op>();
+        PageDelta delta;
+        byte[] patched = b.clone();
+        if (after instanceof SlottedPage) {
+            SlottedPage sp = (SlottedPage) after;
+            delta = new PageDelta(sp.getHeaderOffset(), sp.getSlotOffset(), sp.getSlotSize(), ops);
+            for (int i = 0; i < sp.getNumSlots(); i++) {
+                boolean usedBefore = delta.isUsed(b, i);
+                boolean usedAfter = delta.isUsed(a, i);
+                int start = delta.slotStart(i);
+                if (!usedBefore && usedAfter) {
+                    ops.add(new Op(INSERT, i, null, Arrays.copyOfRange(a, start, start + sp.getSlotSize())));
+                }
+                else if (usedBefore && !usedAfter) {
+                    ops.add(new Op(DELETE, i, Arrays.copyOfRange(b, start, start + sp.getSlotSize()), null));
+                }
+            }
+            for (Op op : ops) {
+                delta.redo(op, patched);
+            }
+        }
+        else {
+            delta = new PageDelta(0, 0, 0, ops);
+        }
+
+        // whatever the slot operations do not explain becomes byte ranges
+        int i = 0;
+        while (i < a.length) {
+            if (a[i] == patched[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int last = i; // last changed byte of this range
+            for (int j = i + 1; j < a.length && j - last <= MAX_GAP; j++) {
+                if (a[j] != patched[j]) {
+                    last = j;
+                }
+            }
+            int end = last + 1;
+            ops.add(new Op(RANGE, start, Arrays.copyOfRange(patched, start, end), Arrays.copyOfRange(a, start, end)));
+            i = end;
+        }
+        return delta;
+    }
+
+    /**
+     * @return true if this delta changes nothing
+     */
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * Apply this delta to the serialized before image of a page.
+     */
+    public void redo(byte[] data) {
+        for (Op op : ops) {
+            redo(op, data);
+        }
+    }
+
+    /**
+     * Revert this delta on the serialized after image of a page.
+     */
+    public void undo(byte[] data) {
+        for (int i = ops.size() - 1; i >= 0; i--) {
+            undo(ops.get(i), data);
+        }
+    }
+
+    private void redo(Op op, byte[] data) {
+        switch (op.type) {
+            case INSERT:
+                setUsed(data, op.pos, true);
+                System.arraycopy(op.after, 0, data, slotStart(op.pos), slotSize);
+                break;
+            case DELETE:
+                setUsed(data, op.pos, false);
+                Arrays.fill(data, slotStart(op.pos), slotStart(op.pos) + slotSize, (byte) 0);
+                break;
+            case RANGE:
+                System.arraycopy(op.after, 0, data, op.pos, op.after.length);
+                break;
+        }
+    }
+
+    private void undo(Op op, byte[] data) {
+        switch (op.type) {
+            case INSERT:
+                setUsed(data, op.pos, false);
+                Arrays.fill(data, slotStart(op.pos), slotStart(op.pos) + slotSize, (byte) 0);
+                break;
+            case DELETE:
+                setUsed(data, op.pos, true);
+                System.arraycopy(op.before, 0, data, slotStart(op.pos), slotSize);
+                break;
+            case RANGE:
+                System.arraycopy(op.before, 0, data, op.pos, op.before.length);
+                break;
+        }
+    }
+
+    private int slotStart(int slot) {
+        return slotOffset + slot * slotSize;
+    }
+
+    private boolean isUsed(byte[] data, int slot) {
+        return (data[headerOffset + slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    private void setUsed(byte[] data, int slot, boolean used) {
+        if (used) {
+            data[headerOffset + slot / 8] |= (1 << (slot % 8));
+        }
+        else {
+            data[headerOffset + slot / 8] &= ~(1 << (slot % 8));
+        }
+    }
+
+    /**
+     * Serialize this delta; see {@link #read}.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(headerOffset);
+        out.writeInt(slotOffset);
+        out.writeInt(slotSize);
+        out.writeInt(ops.size());
+        for (Op op : ops) {
+            out.writeByte(op.type);
+            out.writeInt(op.pos);
+            switch (op.type) {
+                case INSERT:
+                    out.write(op.after);
+                    break;
+                case DELETE:
+                    out.write(op.before);
+                    break;
+                case RANGE:
+                    out.writeInt(op.before.length);
+                    out.write(op.before);
+                    out.write(op.after);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Read a delta written by {@link #write}.
+     */
+    public static PageDelta read(DataInput in) throws IOException {
+        int headerOffset = in.readInt();
+        int slotOffset = in.readInt();
+        int slotSize = in.readInt();
+        int n = in.readInt();
+        List<Op> ops = new ArrayList<Op>(n);
+        for (int i = 0; i < n; i++) {
+            byte type = in.readByte();
+            int pos = in.readInt();
+            byte[] before = null;
+            byte[] after = null;
+            switch (type) {
+                case INSERT:
+                    after = new byte[slotSize];
+                    in.readFully(after);
+                    break;
+                case DELETE:
+                    before = new byte[slotSize];
+                    in.readFully(before);
+                    break;
+                case RANGE:
+                    int len = in.readInt();
+                    before = new byte[len];
+                    after = new byte[len];
+                    in.readFully(before);
+                    in.readFully(after);
+                    break;
+                default:
+                    throw new IOException("bad page delta operation " + type);
+            }
+            ops.add(new Op(type, pos, before, after));
+        }
+        return new PageDelta(headerOffset, slotOffset, slotSize, ops);
+    }
+
+    @Override
+    public String toString() {
+        int inserts = 0, deletes = 0, ranges = 0, bytes = 0;
+        for (Op op : ops) {
+            switch (op.type) {
+                case INSERT:
+                    inserts++;
+                    break;
+                case DELETE:
+                    deletes++;
+                    break;
+                case RANGE:
+                    ranges++;
+                    bytes += op.after.length;
+                    break;
+            }
+        }
+        return inserts + " inserts, " + deletes + " deletes, " + ranges + " ranges (" + bytes + " bytes)";
+    }
+}
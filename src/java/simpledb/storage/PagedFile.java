@@ -0,0 +1,248 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PagedFile is the disk side of a DbFile: one long-lived FileChannel over the
+ * table's file, read and written with positional I/O so that any number of
+ * threads can use it at once without seeking.
+ * <p>
+ * Writes are not synchronous. A caller that needs them on disk, such as a
+ * committing transaction, calls {@link #force()} once after its writes.
+ * <p>
+ * FileChannel closes itself when a thread blocked in it is interrupted. Such
+ * a close only fails the interrupted thread's own operation; the channel is
+ * reopened for everyone else.
+ * <p>
+ * In mapped mode (see {@link #setMapped}) reads are served from read-only
+ * MappedByteBuffers over the file instead of read calls, so scans copy
+ * straight out of the operating system's page cache. The file is mapped in
+ * chunks of {@link #MAP_CHUNK} bytes, since one mapping cannot exceed 2 GB;
+ * the last chunk is remapped when a read goes past its end after the file
+ * grew. Writes still go through the channel, and the shared mapping sees
+ * them. A mapped file must not shrink.
+ *
+ * @see HeapFile
+ */
+public class PagedFile {
+
+    /**
+     * One I/O operation on the channel.
+     */
+    private interface ChannelOp {
+        int run(FileChannel channel) throws IOException;
+    }
+
+    // bytes per mapping; a multiple of every page size in use
+    public static final int MAP_CHUNK = 1 << 30;
+
+    private final File file;
+    private FileChannel channel; // protected by this, opened on first use
+    private boolean closed; // protected by this
+    // writes completed so far; a force covers those completed before it began
+    private final AtomicLong written = new AtomicLong();
+    private final Object forceLock = new Object();
+    private volatile long forced; // writes covered by completed forces
+    private volatile boolean mapped;
+    // chunk i maps the file from i * MAP_CHUNK; only the last may be short
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    public PagedFile(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    /**
+     * Forget a channel that was closed underneath us, so the next operation
+     * opens a new one.
+     */
+    private synchronized void reopen(FileChannel dead) {
+        if (channel == dead) {
+            channel = null;
+        }
+    }
+
+    private int withChannel(ChannelOp op) throws IOException {
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                return op.run(ch);
+            } catch (ClosedByInterruptException e) {
+                reopen(ch);
+                throw e;
+            } catch (ClosedChannelException e) {
+                // another thread was interrupted while using the channel
+                reopen(ch);
+            }
+        }
+    }
+
+    /**
+     * Serve reads from memory mappings of the file, or stop doing so.
+     */
+    public synchronized void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped) {
+            // unmapped when collected; Java has no explicit unmap
+            chunks = new MappedByteBuffer[0];
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return the chunk holding all of [position, position + length), mapped
+     *         or remapped as needed, or null if the range crosses a chunk
+     *         boundary or the end of the file
+     */
+    private ByteBuffer chunkFor(long position, int length) throws IOException {
+        int index = (int) (position / MAP_CHUNK);
+        long offset = position % MAP_CHUNK;
+        if (offset + length > MAP_CHUNK) {
+            return null;
+        }
+        MappedByteBuffer[] cs = chunks;
+        if (index < cs.length && offset + length <= cs[index].capacity()) {
+            return cs[index];
+        }
+        return remap(index, offset + length);
+    }
+
+    private synchronized ByteBuffer remap(int index, long needed) throws IOException {
+        if (!mapped) {
+            return null;
+        }
+        MappedByteBuffer[] cs = chunks;
+        if (index < cs.length && needed <= cs[index].capacity()) {
+            return cs[index]; // someone else remapped it
+        }
+        FileChannel ch = channel();
+        long size = ch.size();
+        if ((long) index * MAP_CHUNK + needed > size) {
+            return null;
+        }
+        int count = (int) ((size + MAP_CHUNK - 1) / MAP_CHUNK);
+        MappedByteBuffer[] grown = Arrays.copyOf(cs, count);
+        // full chunks never need remapping, only a short last one
+        int from = cs.length;
+        if (from > 0 && cs[from - 1].capacity() < MAP_CHUNK) {
+            from--;
+        }
+        for (int i = from; i < count; i++) {
+            long start = (long) i * MAP_CHUNK;
+            grown[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, size - start));
+        }
+        chunks = grown;
+        return grown[index];
+    }
+
+    /**
+     * Read from the file into buf, starting at position.
+     *
+     * @return the number of bytes read, less than buf.length only at the end
+     *         of the file, or -1 if position is at or past the end
+     */
+    public int read(final long position, final byte[] buf) throws IOException {
+        if (mapped) {
+            ByteBuffer chunk = chunkFor(position, buf.length);
+            if (chunk != null) {
+                ByteBuffer view = chunk.duplicate();
+                view.position((int) (position % MAP_CHUNK));
+                view.get(buf);
+                return buf.length;
+            }
+            // crosses a chunk or the end of the file: take the slow path
+        }
+        return withChannel(ch -> {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, position + bb.position()) < 0) {
+                    break;
+                }
+            }
+            return bb.position() == 0 && buf.length > 0 ? -1 : bb.position();
+        });
+    }
+
+    /**
+     * Write all of data to the file, starting at position.
+     */
+    public void write(final long position, final byte[] data) throws IOException {
+        withChannel(ch -> {
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            while (bb.hasRemaining()) {
+                ch.write(bb, position + bb.position());
+            }
+            return data.length;
+        });
+        // only after the write, so a force that sees it covers the write
+        written.incrementAndGet();
+    }
+
+    /**
+     * Cut the file down to size bytes, if it is longer.
+     */
+    public void truncate(final long size) throws IOException {
+        withChannel(ch -> {
+            ch.truncate(size);
+            return 0;
+        });
+    }
+
+    /**
+     * Force the writes made so far to disk. Returns without forcing again
+     * once a force that began after them has completed, so committers
+     * waiting on the same writes share one force.
+     */
+    public void force() throws IOException {
+        long target = written.get();
+        if (forced >= target) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forced >= target) {
+                return;
+            }
+            long start = written.get();
+            withChannel(ch -> {
+                ch.force(true);
+                return 0;
+            });
+            forced = start;
+        }
+    }
+
+    /**
+     * Close the channel. The file cannot be used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        mapped = false;
+        chunks = new MappedByteBuffer[0];
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
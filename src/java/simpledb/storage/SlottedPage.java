@@ -0,0 +1,35 @@
+package simpledb.storage;
+
+/**
+ * A page whose serialized form (see {@link Page#getPageData()}) contains a
+ * bitmap of used slots followed by an array of fixed-size tuple slots. Slot
+ * i is in use when bit (i % 8) of bitmap byte (i / 8) is set, and unused
+ * slots are serialized as zeros.
+ * <p>
+ * LogFile uses this layout to log slot-level inserts and deletes rather
+ * than whole page images.
+ *
+ * @see PageDelta
+ */
+public interface SlottedPage extends Page {
+
+    /**
+     * @return the number of tuple slots on this page
+     */
+    int getNumSlots();
+
+    /**
+     * @return the offset of the slot bitmap in the page data
+     */
+    int getHeaderOffset();
+
+    /**
+     * @return the offset of the first slot in the page data
+     */
+    int getSlotOffset();
+
+    /**
+     * @return the size of one slot in bytes
+     */
+    int getSlotSize();
+}
@@ -0,0 +1,168 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SpillFile is a temporary file of tuples for operators whose state does
+ * not fit in memory. Tuples are appended with {@link #add}, then read back,
+ * in the same order and as many times as needed, with {@link #open}.
+ * <p>
+ * The file holds only field values, in the order of the TupleDesc, so the
+ * tuples read back have no RecordId. It does not go through the buffer pool
+ * and is not logged; it is deleted by {@link #delete}, and any spill file not
+ * yet deleted is removed by a shutdown hook when the JVM exits.
+ * Spill files are created in the directory set with {@link #setDirectory},
+ * by default the system's temporary directory.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static volatile File directory = null;
+
+    /** spill files not yet deleted; only these are left for the shutdown hook */
+    private static final Set<File> live = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (File f : live) {
+                f.delete();
+            }
+        }));
+    }
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out; // null once writing has finished
+    private int size;
+
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat", directory);
+        live.add(this.file);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Create spill files in dir from now on, or in the system's temporary
+     * directory if dir is null.
+     */
+    public static void setDirectory(File dir) {
+        directory = dir;
+    }
+
+    public static File getDirectory() {
+        return directory;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a tuple, which must have this file's TupleDesc.
+     *
+     * @throws IllegalStateException if the file has been opened for reading
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("spill file already read");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                out.writeInt(t.getInt(i));
+            }
+            else {
+                String s = t.getString(i);
+                out.writeUTF(s == null ? "" : s);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Finish writing, if not done yet, and start reading from the first
+     * tuple. No tuples can be added afterwards.
+     */
+    public Reader open() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Close the file and delete it.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+        live.remove(file);
+    }
+
+    /**
+     * Reads the tuples of a SpillFile back in the order they were added.
+     */
+    public class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private int read;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        public Tuple next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    t.setInt(i, in.readInt());
+                }
+                else {
+                    t.setString(i, in.readUTF());
+                }
+            }
+            read++;
+            return t;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
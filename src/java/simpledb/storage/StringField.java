@@ -75,9 +75,15 @@ public class StringField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((StringField) val).value);
+    }
 
-        StringField iVal = (StringField) val;
-        int cmpVal = value.compareTo(iVal.value);
+    /**
+     * Compare two strings the way StringField.compare does, for callers that
+     * have not made StringFields of them.
+     */
+    public static boolean compare(String value, Predicate.Op op, String operand) {
+        int cmpVal = value.compareTo(operand);
 
         switch (op) {
             case EQUALS:
@@ -99,7 +105,7 @@ public class StringField implements Field {
                 return cmpVal <= 0;
 
             case LIKE:
-                return value.contains(iVal.value);
+                return value.contains(operand);
         }
 
         return false;
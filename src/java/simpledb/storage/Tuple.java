@@ -1,9 +1,13 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.storage.TupleDesc.TDItem;
 
 import java.util.*;
@@ -12,13 +16,28 @@ import java.util.*;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are not kept as Field objects: INT_TYPE fields are stored in
+ * one int[] and STRING_TYPE fields in one String[], each in field order (see
+ * TupleDesc#getFieldSlot). getField makes a new Field on every call, so
+ * operators that only move or compare values should use
+ * {@link #copyFields} and the compareField methods instead.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private ArrayList<Field> tupItems;
+    private static final String[] NO_STRINGS = new String[0];
+
     private TupleDesc td_;
     private RecordId rid_;
+    // null until a lazy tuple is materialized
+    private int[] ints_;
+    private String[] strings_;
+    // a tuple read from a page reads its fields out of the page bytes until
+    // it is materialized; null for tuples built field by field
+    private byte[] data_;
+    private int offset_;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -30,6 +49,43 @@ public class Tuple implements Serializable {
         resetTupleDesc(td);
     }
 
+    /**
+     * Create a tuple whose fields are serialized in data, starting at
+     * offset, and are decoded only when they are accessed. The bytes must
+     * not change until {@link #materialize} has been called.
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+        td_ = td;
+        data_ = data;
+        offset_ = offset;
+    }
+
+    private void allocate() {
+        ints_ = new int[td_.numIntFields()];
+        strings_ = td_.numStringFields() == 0 ? NO_STRINGS : new String[td_.numStringFields()];
+    }
+
+    /**
+     * Decode every field, so that this tuple no longer depends on the bytes
+     * it was read from.
+     */
+    void materialize() {
+        byte[] data = data_;
+        if (data != null) {
+            allocate();
+            for (int i = 0; i < td_.numFields(); i++) {
+                int off = offset_ + td_.getFieldOffset(i);
+                if (td_.getFieldType(i) == Type.INT_TYPE) {
+                    ints_[td_.getFieldSlot(i)] = Type.readInt(data, off);
+                }
+                else {
+                    strings_[td_.getFieldSlot(i)] = Type.readString(data, off);
+                }
+            }
+            data_ = null;
+        }
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -61,23 +117,138 @@ public class Tuple implements Serializable {
      * Change the value of the ith field of this tuple.
      *
      * @param i index of the field to change. It must be a valid index.
-     * @param f new value for the field.
+     * @param f new value for the field, of the field's type.
      */
     public void setField(int i, Field f) {
         // TODO: some code goes here
-        tupItems.add(i, f);
+        if (td_.getFieldType(i) == Type.INT_TYPE) {
+            setInt(i, ((IntField) f).getValue());
+        }
+        else {
+            setString(i, ((StringField) f).getValue());
+        }
     }
 
     /**
      * @param i field index to return. Must be a valid index.
-     * @return the value of the ith field, or null if it has not been set.
+     * @return the value of the ith field, or null if it is a string field
+     *         that has not been set. An int field that has not been set is 0.
      */
     public Field getField(int i) {
         // TODO: some code goes here
-        if (tupItems.size() > i) {
-            return tupItems.get(i);
+        if (i >= td_.numFields()) {
+            return null;
+        }
+        if (td_.getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(getInt(i));
+        }
+        String s = getString(i);
+        return s == null ? null : new StringField(s, Type.STRING_LEN);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     */
+    public int getInt(int i) {
+        byte[] data = data_;
+        if (data != null) {
+            return Type.readInt(data, offset_ + td_.getFieldOffset(i));
+        }
+        return ints_[td_.getFieldSlot(i)];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     */
+    public String getString(int i) {
+        byte[] data = data_;
+        if (data != null) {
+            return Type.readString(data, offset_ + td_.getFieldOffset(i));
+        }
+        return strings_[td_.getFieldSlot(i)];
+    }
+
+    /**
+     * Set the ith field, which must be an INT_TYPE field, without making a
+     * Field object.
+     */
+    public void setInt(int i, int value) {
+        materialize();
+        ints_[td_.getFieldSlot(i)] = value;
+    }
+
+    /**
+     * Set the ith field, which must be a STRING_TYPE field, without making
+     * a Field object.
+     */
+    public void setString(int i, String value) {
+        materialize();
+        strings_[td_.getFieldSlot(i)] = value;
+    }
+
+    /**
+     * Copy count fields of from, starting at field fromIndex, into this
+     * tuple starting at field toIndex, without making Field objects. The
+     * fields copied must have the same types in both tuples.
+     */
+    public void copyFields(Tuple from, int fromIndex, int toIndex, int count) {
+        materialize();
+        for (int k = 0; k < count; k++) {
+            int i = fromIndex + k;
+            int j = toIndex + k;
+            Type type = td_.getFieldType(j);
+            if (from.td_.getFieldType(i) != type) {
+                throw new IllegalArgumentException("cannot copy " + from.td_.getFieldType(i) + " field into " + type);
+            }
+            if (type == Type.INT_TYPE) {
+                ints_[td_.getFieldSlot(j)] = from.getInt(i);
+            }
+            else {
+                strings_[td_.getFieldSlot(j)] = from.getString(i);
+            }
+        }
+    }
+
+    /**
+     * Compare the ith field of this tuple to operand, as
+     * getField(i).compare(op, operand) would, without decoding an int field
+     * into a Field.
+     */
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+        if (operand instanceof IntField && td_.getFieldType(i) == Type.INT_TYPE) {
+            return IntField.compare(getInt(i), op, ((IntField) operand).getValue());
         }
-        return null;
+        return getField(i).compare(op, operand);
+    }
+
+    /**
+     * Compare the ith field of this tuple to the jth field of other, as
+     * getField(i).compare(op, other.getField(j)) would, without making
+     * Field objects.
+     */
+    public boolean compareField(int i, Predicate.Op op, Tuple other, int j) {
+        Type type = td_.getFieldType(i);
+        if (type != other.td_.getFieldType(j)) {
+            return getField(i).compare(op, other.getField(j));
+        }
+        if (type == Type.INT_TYPE) {
+            return IntField.compare(getInt(i), op, other.getInt(j));
+        }
+        return StringField.compare(getString(i), op, other.getString(j));
+    }
+
+    /**
+     * Compare the ith field of this tuple to the jth field of other, which
+     * must have the same type, without making Field objects.
+     *
+     * @return a negative number, zero or a positive number as this tuple's
+     *         field is less than, equal to or greater than other's
+     */
+    public int compareFieldTo(int i, Tuple other, int j) {
+        if (td_.getFieldType(i) == Type.INT_TYPE) {
+            return Integer.compare(getInt(i), other.getInt(j));
+        }
+        return getString(i).compareTo(other.getString(j));
     }
 
     /**
@@ -91,11 +262,13 @@ public class Tuple implements Serializable {
     public String toString() {
         // TODO: some code goes here
         StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < tupItems.size(); i++) {
-            sb.append((tupItems.get(i).toString() + " "));
+        for (int i = 0; i < td_.numFields(); i++) {
+            if (i > 0) {
+                sb.append(" ");
+            }
+            sb.append(getField(i));
         }
-        return sb.toString().substring(0, sb.toString().length()-1);
-        // throw new UnsupportedOperationException("Implement this");
+        return sb.toString();
     }
 
     /**
@@ -103,18 +276,33 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // TODO: some code goes here
-        return tupItems.iterator();
+        Field[] fields = new Field[td_.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(i);
+        }
+        return Arrays.asList(fields).iterator();
     }
 
     /**
-     * reset the TupleDesc of this tuple (only affecting the TupleDesc)
+     * reset the TupleDesc of this tuple. If td has the same field types as
+     * the current TupleDesc, as when only field names change, the values
+     * are kept; otherwise every field is cleared.
      */
     public void resetTupleDesc(TupleDesc td) {
         // TODO: some code goes here
+        boolean sameTypes = td_ != null && td_.numFields() == td.numFields();
+        for (int i = 0; sameTypes && i < td.numFields(); i++) {
+            sameTypes = td_.getFieldType(i) == td.getFieldType(i);
+        }
         td_ = td;
-        tupItems = new ArrayList<Field>();
-        // for (int i = 0; i < td.numFields(); i++) {
-        //     tupItems.add(null);
-        // }
+        if (!sameTypes) {
+            data_ = null;
+            allocate();
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
     }
 }
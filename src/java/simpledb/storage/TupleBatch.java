@@ -0,0 +1,225 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of one schema column by
+ * column: an int[] for each INT_TYPE column and a String[] for each
+ * STRING_TYPE column. It is the unit of work of the batch operators (see
+ * simpledb.execution.BatchOpIterator).
+ * <p>
+ * Rows are stored at positions 0 to size() - 1 of the column arrays. A batch
+ * may also carry a selection vector naming the live positions, so that a
+ * filter can drop rows without moving any column data; {@link #numRows()}
+ * and {@link #position(int)} see only the live rows. Without a selection
+ * vector every stored row is live.
+ * <p>
+ * Batches returned by {@link #select} and {@link #project} are views that
+ * share column arrays with the batch they came from.
+ */
+public class TupleBatch {
+
+    // a few thousand rows: large enough to amortize per-batch work, small
+    // enough for the column arrays of a batch to stay in cache
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints; // by column, null for other types
+    private final String[][] strings; // by column, null for other types
+    private int size;
+    private int[] sel; // live positions, or null if all of [0, size) are live
+    private int count;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            }
+            else {
+                strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings,
+                       int size, int[] sel, int count) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.size = size;
+        this.sel = sel;
+        this.count = count;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows stored, live or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of live rows
+     */
+    public int numRows() {
+        return count;
+    }
+
+    /**
+     * @return the position in the column arrays of the given live row
+     */
+    public int position(int row) {
+        return sel == null ? row : sel[row];
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Drop all rows.
+     */
+    public void clear() {
+        size = 0;
+        sel = null;
+        count = 0;
+    }
+
+    /**
+     * Add an empty row, to be filled in with the set methods.
+     *
+     * @return the position of the new row
+     * @throws IllegalStateException if the batch is full or is a filtered
+     *                               view
+     */
+    public int addRow() {
+        if (size == capacity || sel != null) {
+            throw new IllegalStateException("cannot add rows to this batch");
+        }
+        count++;
+        return size++;
+    }
+
+    /**
+     * Append a tuple of this batch's schema.
+     */
+    public void addTuple(Tuple t) {
+        int pos = addRow();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ints[i] != null) {
+                ints[i][pos] = t.getInt(i);
+            }
+            else {
+                strings[i][pos] = t.getString(i);
+            }
+        }
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by position
+     */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE column, indexed by position
+     */
+    public String[] stringColumn(int col) {
+        return strings[col];
+    }
+
+    public void setInt(int col, int pos, int value) {
+        ints[col][pos] = value;
+    }
+
+    public void setString(int col, int pos, String value) {
+        strings[col][pos] = value;
+    }
+
+    public void setField(int col, int pos, Field f) {
+        if (ints[col] != null) {
+            ints[col][pos] = ((IntField) f).getValue();
+        }
+        else {
+            strings[col][pos] = ((StringField) f).getValue();
+        }
+    }
+
+    public Field getField(int col, int pos) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][pos]);
+        }
+        return new StringField(strings[col][pos], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the given live row as a new Tuple, without a RecordId
+     */
+    public Tuple getTuple(int row) {
+        int pos = position(row);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ints[i] != null) {
+                t.setInt(i, ints[i][pos]);
+            }
+            else {
+                t.setString(i, strings[i][pos]);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Copy the value at pos of column col into column toCol of batch to, at
+     * position toPos. The two columns must have the same type.
+     */
+    public void copyValue(int col, int pos, TupleBatch to, int toCol, int toPos) {
+        if (ints[col] != null) {
+            to.ints[toCol][toPos] = ints[col][pos];
+        }
+        else {
+            to.strings[toCol][toPos] = strings[col][pos];
+        }
+    }
+
+    /**
+     * @return a view of this batch whose live rows are the first count
+     *         positions in sel, which must be live rows of this batch
+     */
+    public TupleBatch select(int[] sel, int count) {
+        return new TupleBatch(td, capacity, ints, strings, size, sel, count);
+    }
+
+    /**
+     * @return a view of this batch with only the given columns, in the given
+     *         order, described by td
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] pi = new int[cols.length][];
+        String[][] ps = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pi[i] = ints[cols[i]];
+            ps[i] = strings[cols[i]];
+        }
+        return new TupleBatch(td, capacity, pi, ps, size, sel, count);
+    }
+}
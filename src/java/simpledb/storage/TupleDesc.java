@@ -46,6 +46,14 @@ public class TupleDesc implements Serializable {
      *         that are included in this TupleDesc
      */
     private ArrayList<TDItem> items;
+    // byte offset of each field in a serialized tuple, and its index among
+    // the fields of its type, which is where a Tuple keeps its value
+    private int[] offsets;
+    private int[] slots;
+    private int numIntFields;
+    private int numStringFields;
+    private int size;
+
     public Iterator<TDItem> iterator() {
         // TODO: some code goes here
         return items.iterator();
@@ -69,6 +77,7 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < n; i++) {
             items.add(new TDItem(typeAr[i], fieldAr[i]));
         }
+        layout();
     }
 
     /**
@@ -85,6 +94,21 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < n; i++) {
             items.add(new TDItem(typeAr[i], ""));
         }
+        layout();
+    }
+
+    private void layout() {
+        int n = items.size();
+        offsets = new int[n];
+        slots = new int[n];
+        int offset = 0;
+        for (int i = 0; i < n; i++) {
+            Type t = items.get(i).fieldType;
+            offsets[i] = offset;
+            offset += t.getLen();
+            slots[i] = t == Type.INT_TYPE ? numIntFields++ : numStringFields++;
+        }
+        size = offset;
     }
 
     /**
@@ -127,6 +151,28 @@ public class TupleDesc implements Serializable {
         return items.get(i).fieldType;
     }
 
+    /**
+     * @return the offset in bytes of the ith field within a serialized tuple
+     */
+    int getFieldOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @return the index of the ith field among the fields of its type
+     */
+    int getFieldSlot(int i) {
+        return slots[i];
+    }
+
+    int numIntFields() {
+        return numIntFields;
+    }
+
+    int numStringFields() {
+        return numStringFields;
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -150,11 +196,7 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // TODO: some code goes here
-        int cnt = 0;
-        for (int i = 0; i < items.size(); i++) {
-            cnt += items.get(i).fieldType.getLen();
-        }
-        return cnt;
+        return size;
     }
 
     /**
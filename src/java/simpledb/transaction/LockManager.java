@@ -1,100 +1,442 @@
 package simpledb.transaction;
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
-import simpledb.common.Permissions;
-import simpledb.transaction.TransactionId;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * LockManager keeps the page-level shared/exclusive locks used for strict
+ * two-phase locking.
+ * <p>
+ * A request that cannot be granted right away is parked in the page's FIFO
+ * wait queue and sleeps on its own monitor until a release lets it through,
+ * so a waiting transaction uses no CPU and is woken only when its lock is
+ * actually granted. The wait is a ForkJoinPool managed block, so a query
+ * worker waiting for a lock lets the pool start another thread. Lock upgrades go to the front of the queue, since the
+ * upgrader already holds the page.
+ * <p>
+ * Deadlocks are detected incrementally on the waits-for graph: whenever a
+ * request blocks, or a lock is granted to a transaction that is waiting for
+ * another one, the graph is searched for cycles through that transaction.
+ * The youngest transaction on each cycle is chosen as the victim and only
+ * its pending requests fail with TransactionAbortedException. As a
+ * backstop, a request still waiting after {@link #RECHECK_MILLIS} searches
+ * the graph again.
+ * <p>
+ * The pages each transaction holds locks on are indexed by transaction, so
+ * releasing all of a transaction's locks at commit or abort costs
+ * O(pages locked by that transaction), not O(pages locked overall).
+ */
 public class LockManager {
-    private Map<PageId, List<Lock>> map;
+
+    /**
+     * How long a request waits before it searches for a deadlock again.
+     */
+    public static final long RECHECK_MILLIS = 1000;
+
+    /**
+     * Lock state of one page: the granted locks and the queue of waiters.
+     */
+    private static class PageLock {
+        final List<Lock> holders = new ArrayList<Lock>();
+        final LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
+    }
+
+    /**
+     * A blocked lock request. granted and aborted are only changed while
+     * holding both the LockManager monitor and the request's own monitor.
+     */
+    private static class LockRequest {
+        final PageId pid;
+        final Permissions perm;
+        final TransactionId tid;
+        boolean granted;
+        boolean aborted;
+
+        LockRequest(PageId pid, Permissions perm, TransactionId tid) {
+            this.pid = pid;
+            this.perm = perm;
+            this.tid = tid;
+        }
+    }
+
+    private Map<PageId, PageLock> map;
+    private Map<TransactionId, Set<PageId>> translocks;
+    private Map<TransactionId, List<LockRequest>> waiting;
 
     public LockManager() {
-        map = new ConcurrentHashMap<PageId, List<Lock>>();
-    }
-
-    public synchronized boolean acquireLock (PageId pageid, Permissions permission, TransactionId transactionid) {
-        List<Lock> locklist = map.get(pageid);
-        if (locklist == null) {
-            map.put(pageid, new ArrayList<Lock>());
-            map.get(pageid).add(new Lock(permission, transactionid));
-            return true;
-        }
-        else {
-            if (locklist.size() == 1) {
-                Lock firstlock = locklist.get(0);
-                if (firstlock.getTransactionId().equals(transactionid)) {
-                    if (firstlock.getPermission().equals(Permissions.READ_ONLY) && permission.equals(Permissions.READ_WRITE)) {
-                        firstlock.setPermission(Permissions.READ_WRITE);
-                    }
-                    return true;
-                }
-                else {
-                    if (firstlock.getPermission().equals(Permissions.READ_ONLY) && permission.equals(Permissions.READ_ONLY)) {
-                        locklist.add(new Lock(permission, transactionid));
-                        return true;
-                    }
-                    return false;
-                }
+        map = new HashMap<PageId, PageLock>();
+        translocks = new HashMap<TransactionId, Set<PageId>>();
+        waiting = new HashMap<TransactionId, List<LockRequest>>();
+    }
+
+    /**
+     * Acquire a lock on a page, blocking until it is granted.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen as a
+     *         deadlock victim (or interrupted) while waiting
+     */
+    public void acquireLock (PageId pageid, Permissions permission, TransactionId transactionid)
+            throws TransactionAbortedException {
+        LockRequest req;
+        synchronized (this) {
+            PageLock pagelock = map.get(pageid);
+            if (pagelock == null) {
+                pagelock = new PageLock();
+                map.put(pageid, pagelock);
+            }
+            Lock held = getLock(pagelock, transactionid);
+            if (held != null && (held.getPermission().equals(Permissions.READ_WRITE)
+                    || permission.equals(Permissions.READ_ONLY))) {
+                return;
+            }
+            // upgrades may pass the queue, everyone else waits their turn
+            if ((held != null || pagelock.waiters.isEmpty())
+                    && isGrantable(pagelock, transactionid, permission)) {
+                grant(pageid, pagelock, transactionid, permission);
+                granted(transactionid);
+                return;
+            }
+
+            req = new LockRequest(pageid, permission, transactionid);
+            if (held != null) {
+                pagelock.waiters.addFirst(req);
             }
             else {
-                if (permission.equals(Permissions.READ_WRITE)) {
-                    return false;
+                pagelock.waiters.addLast(req);
+            }
+            List<LockRequest> reqs = waiting.get(transactionid);
+            if (reqs == null) {
+                reqs = new ArrayList<LockRequest>();
+                waiting.put(transactionid, reqs);
+            }
+            reqs.add(req);
+            detectDeadlock(transactionid);
+        }
+
+        boolean granted = false;
+        try {
+            // on a worker of a ForkJoinPool, such as the query workers, the
+            // pool may start another thread meanwhile, so that the tasks of
+            // the transaction holding the lock are not starved
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    synchronized (req) {
+                        if (!isReleasable()) {
+                            req.wait(RECHECK_MILLIS);
+                        }
+                    }
+                    if (!isReleasable()) {
+                        recheck(req);
+                    }
+                    return isReleasable();
                 }
-                for (Lock lock : locklist) {
-                    if (lock.getTransactionId().equals(transactionid)) {
-                        return true;
+
+                public boolean isReleasable() {
+                    synchronized (req) {
+                        return req.granted || req.aborted;
                     }
                 }
-                locklist.add(new Lock(permission, transactionid));
-                return true;
+            });
+            synchronized (req) {
+                granted = req.granted;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!granted) {
+                cancel(req);
             }
         }
+        if (!granted) {
+            throw new TransactionAbortedException();
+        }
     }
 
     public synchronized void releaseLock (PageId pageid, TransactionId transactionid) {
-        if (isHolding(transactionid, pageid)) {
-            List<Lock> locklist = map.get(pageid);
-            for (Lock lock : locklist) {
-                if (lock.getTransactionId().equals(transactionid)) {
-                    locklist.remove(lock);
-                    if (locklist.size() == 0) {
-                        map.remove(pageid);
-                    }
-                    return;
+        PageLock pagelock = map.get(pageid);
+        if (pagelock == null) {
+            return;
+        }
+        Lock lock = getLock(pagelock, transactionid);
+        if (lock != null) {
+            pagelock.holders.remove(lock);
+            Set<PageId> pages = translocks.get(transactionid);
+            if (pages != null) {
+                pages.remove(pageid);
+                if (pages.isEmpty()) {
+                    translocks.remove(transactionid);
                 }
             }
+            dispatch(pagelock);
+        }
+        if (pagelock.holders.isEmpty() && pagelock.waiters.isEmpty()) {
+            map.remove(pageid);
         }
     }
 
     public synchronized void releaseTransLocks(TransactionId tid){
-        for (Map.Entry<PageId, List<Lock>> entry : map.entrySet()) {
-            List<Lock> locklist = entry.getValue();
-            int len = locklist.size();
-            for (int i = len - 1; i >= 0; i--) {
-                Lock lock = locklist.get(i);
-                if (lock.getTransactionId().equals(tid)) {
-                    locklist.remove(i);
-                    if (locklist.size() == 0) {
-                        map.remove(entry.getKey());
+        List<LockRequest> reqs = waiting.get(tid);
+        if (reqs != null) {
+            for (LockRequest req : new ArrayList<LockRequest>(reqs)) {
+                abort(req);
+            }
+        }
+        Set<PageId> pages = translocks.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            PageLock pagelock = map.get(pid);
+            if (pagelock == null) {
+                continue;
+            }
+            Lock lock = getLock(pagelock, tid);
+            if (lock != null) {
+                pagelock.holders.remove(lock);
+                dispatch(pagelock);
+            }
+            if (pagelock.holders.isEmpty() && pagelock.waiters.isEmpty()) {
+                map.remove(pid);
+            }
+        }
+    }
+
+    public synchronized boolean isHolding (TransactionId transactionid, PageId pageid) {
+        PageLock pagelock = map.get(pageid);
+        return pagelock != null && getLock(pagelock, transactionid) != null;
+    }
+
+    private static Lock getLock(PageLock pagelock, TransactionId tid) {
+        for (Lock lock : pagelock.holders) {
+            if (lock.getTransactionId().equals(tid)) {
+                return lock;
+            }
+        }
+        return null;
+    }
+
+    private static boolean conflicts(Permissions a, Permissions b) {
+        return a.equals(Permissions.READ_WRITE) || b.equals(Permissions.READ_WRITE);
+    }
+
+    private static boolean isGrantable(PageLock pagelock, TransactionId tid, Permissions perm) {
+        for (Lock lock : pagelock.holders) {
+            if (!lock.getTransactionId().equals(tid) && conflicts(lock.getPermission(), perm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grant(PageId pid, PageLock pagelock, TransactionId tid, Permissions perm) {
+        Lock held = getLock(pagelock, tid);
+        if (held != null) {
+            held.setPermission(perm);
+            return;
+        }
+        pagelock.holders.add(new Lock(perm, tid));
+        Set<PageId> pages = translocks.get(tid);
+        if (pages == null) {
+            pages = new HashSet<PageId>();
+            translocks.put(tid, pages);
+        }
+        pages.add(pid);
+    }
+
+    /**
+     * Grant queued requests in FIFO order until one has to keep waiting.
+     */
+    private void dispatch(PageLock pagelock) {
+        List<TransactionId> granted = null;
+        while (!pagelock.waiters.isEmpty()) {
+            LockRequest req = pagelock.waiters.getFirst();
+            if (!isGrantable(pagelock, req.tid, req.perm)) {
+                break;
+            }
+            pagelock.waiters.removeFirst();
+            forget(req);
+            grant(req.pid, pagelock, req.tid, req.perm);
+            synchronized (req) {
+                req.granted = true;
+                req.notifyAll();
+            }
+            if (granted == null) {
+                granted = new ArrayList<TransactionId>();
+            }
+            granted.add(req.tid);
+        }
+        if (granted != null) {
+            for (TransactionId tid : granted) {
+                granted(tid);
+            }
+        }
+    }
+
+    /**
+     * Called once tid is granted a lock. The waiters of that page may now
+     * wait for tid, so any cycle this closes goes through tid, and only if
+     * tid is itself waiting, as a transaction run by several threads can be.
+     */
+    private void granted(TransactionId tid) {
+        if (waiting.containsKey(tid)) {
+            detectDeadlock(tid);
+        }
+    }
+
+    /**
+     * Search for a deadlock again on behalf of a request that has waited
+     * for a while.
+     */
+    private synchronized void recheck(LockRequest req) {
+        if (!req.granted && !req.aborted) {
+            detectDeadlock(req.tid);
+        }
+    }
+
+    /**
+     * Withdraw a request whose thread gave up waiting.
+     */
+    private synchronized void cancel(LockRequest req) {
+        forget(req);
+        PageLock pagelock = map.get(req.pid);
+        if (pagelock == null) {
+            return;
+        }
+        if (pagelock.waiters.remove(req)) {
+            dispatch(pagelock);
+        }
+        if (pagelock.holders.isEmpty() && pagelock.waiters.isEmpty()) {
+            map.remove(req.pid);
+        }
+    }
+
+    /**
+     * Fail a pending request and wake up its thread.
+     */
+    private void abort(LockRequest req) {
+        forget(req);
+        synchronized (req) {
+            req.aborted = true;
+            req.notifyAll();
+        }
+        PageLock pagelock = map.get(req.pid);
+        if (pagelock != null && pagelock.waiters.remove(req)) {
+            dispatch(pagelock);
+        }
+    }
+
+    private void forget(LockRequest req) {
+        List<LockRequest> reqs = waiting.get(req.tid);
+        if (reqs != null) {
+            reqs.remove(req);
+            if (reqs.isEmpty()) {
+                waiting.remove(req.tid);
+            }
+        }
+    }
+
+    /**
+     * @return for each pending request on a page, the transactions it waits
+     *         for: conflicting holders, and conflicting requests queued
+     *         ahead of it. A request ahead that wants a write lock already
+     *         waits for the holders and everything queued ahead of it, so
+     *         edges past it are left out; the graph has the same cycles, but
+     *         a page's edges take one pass over its queue.
+     */
+    private Map<LockRequest, Set<TransactionId>> blockers(PageLock pagelock) {
+        Map<LockRequest, Set<TransactionId>> ret = new HashMap<LockRequest, Set<TransactionId>>();
+        LockRequest lastWrite = null;
+        List<TransactionId> readsSince = new ArrayList<TransactionId>();
+        for (LockRequest req : pagelock.waiters) {
+            Set<TransactionId> blockers = new HashSet<TransactionId>();
+            if (lastWrite != null) {
+                blockers.add(lastWrite.tid);
+            }
+            else {
+                for (Lock lock : pagelock.holders) {
+                    if (conflicts(lock.getPermission(), req.perm)) {
+                        blockers.add(lock.getTransactionId());
                     }
                 }
             }
+            if (req.perm.equals(Permissions.READ_WRITE)) {
+                blockers.addAll(readsSince);
+                lastWrite = req;
+                readsSince.clear();
+            }
+            else {
+                readsSince.add(req.tid);
+            }
+            // a transaction's own requests ahead are covered by its own edges
+            blockers.remove(req.tid);
+            ret.put(req, blockers);
         }
+        return ret;
     }
 
-    public synchronized boolean isHolding (TransactionId transactionid, PageId pageid) {
-        List<Lock> locklist = map.get(pageid);
-        if (locklist == null) {
-            return false;
+    /**
+     * Abort the youngest transaction on each waits-for cycle through tid,
+     * until there are none left: one request can close several cycles.
+     */
+    private void detectDeadlock(TransactionId tid) {
+        List<TransactionId> cycle;
+        while (waiting.containsKey(tid) && (cycle = findCycle(tid)) != null) {
+            TransactionId victim = tid;
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId()) {
+                    victim = t;
+                }
+            }
+            for (LockRequest req : new ArrayList<LockRequest>(waiting.get(victim))) {
+                abort(req);
+            }
         }
-        for (Lock lock : locklist) {
-            if (lock.getTransactionId().equals(transactionid)) {
-                return true;
+    }
+
+    /**
+     * Depth-first search of the waits-for graph from start, visiting each
+     * transaction once.
+     *
+     * @return the transactions on a cycle through start, or null if there
+     *         is none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+        Map<PageId, Map<LockRequest, Set<TransactionId>>> edges =
+                new HashMap<PageId, Map<LockRequest, Set<TransactionId>>>();
+        Deque<TransactionId> stack = new ArrayDeque<TransactionId>();
+        parent.put(start, null);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId node = stack.pop();
+            List<LockRequest> reqs = waiting.get(node);
+            if (reqs == null) {
+                continue;
+            }
+            for (LockRequest req : reqs) {
+                Map<LockRequest, Set<TransactionId>> page = edges.get(req.pid);
+                if (page == null) {
+                    page = blockers(map.get(req.pid));
+                    edges.put(req.pid, page);
+                }
+                for (TransactionId next : page.get(req)) {
+                    if (next.equals(start)) {
+                        List<TransactionId> cycle = new ArrayList<TransactionId>();
+                        for (TransactionId t = node; t != null; t = parent.get(t)) {
+                            cycle.add(t);
+                        }
+                        return cycle;
+                    }
+                    if (!parent.containsKey(next)) {
+                        parent.put(next, node);
+                        stack.push(next);
+                    }
+                }
             }
         }
-        return false;
+        return null;
     }
 
     @Override
@@ -140,6 +140,19 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Dirty pages that are not yet cached take frames like any other page, so
+     * a transaction that dirties more pages than the pool holds fails rather
+     * than growing the pool past its size.
+     */
+    @Test(expected = DbException.class)
+    public void dirtyPagesRespectPoolSize() throws Exception {
+    	Database.resetBufferPool(5);
+    	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
+    	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+    	Database.getBufferPool().insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+    }
+
     /**
      * JUnit suite target
      */
@@ -97,6 +97,43 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * A file that counts how often it is closed.
+     */
+    private static class ClosingFile extends SkeletonFile {
+        int closed;
+
+        ClosingFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    /**
+     * Check that a replaced file is closed, but not one added again, and
+     * that clear closes every file
+     */
+    @Test public void closesDroppedFiles() {
+        int id3 = r.nextInt();
+        ClosingFile f = new ClosingFile(id3);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertEquals(0, f.closed);
+
+        ClosingFile g = new ClosingFile(id3);
+        Database.getCatalog().addTable(g, SystemTestUtil.getUUID());
+        assertEquals(1, f.closed);
+        assertEquals(0, g.closed);
+
+        Database.getCatalog().clear();
+        assertEquals(1, f.closed);
+        assertEquals(1, g.closed);
+    }
+
     /**
      * JUnit suite target
      */
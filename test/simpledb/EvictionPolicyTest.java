@@ -0,0 +1,100 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockEvictionPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUKEvictionPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy policy = new ClockEvictionPolicy(3);
+        policy.insert(pid(0));
+        policy.insert(pid(1));
+        policy.insert(pid(2));
+        assertEquals(3, policy.size());
+
+        // first sweep clears every reference bit, so page 0 goes first
+        assertEquals(pid(0), policy.evict());
+
+        // page 1 is touched again and survives the next sweep
+        policy.access(pid(1));
+        assertEquals(pid(2), policy.evict());
+        assertEquals(pid(1), policy.evict());
+        assertNull(policy.evict());
+        assertEquals(0, policy.size());
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: pinned pages are never chosen.
+     */
+    @Test public void clockPinned() {
+        EvictionPolicy policy = new ClockEvictionPolicy(2);
+        policy.insert(pid(0));
+        policy.insert(pid(1));
+        policy.pin(pid(0));
+        assertEquals(pid(1), policy.evict());
+        assertNull(policy.evict());
+        policy.unpin(pid(0));
+        assertEquals(pid(0), policy.evict());
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy: pages seen once are evicted before
+     * pages seen K times, and hot pages are evicted in LRU order.
+     */
+    @Test public void lruKOrder() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2);
+        policy.insert(pid(0));
+        policy.access(pid(0));
+        policy.insert(pid(1));
+        policy.access(pid(1));
+        policy.insert(pid(2));
+        policy.insert(pid(3));
+        policy.access(pid(0));
+
+        assertEquals(pid(2), policy.evict());
+        assertEquals(pid(3), policy.evict());
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(0), policy.evict());
+        assertNull(policy.evict());
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy: pinned and removed pages are never chosen.
+     */
+    @Test public void lruKPinnedAndRemoved() {
+        EvictionPolicy policy = new LRUKEvictionPolicy();
+        policy.insert(pid(0));
+        policy.insert(pid(1));
+        policy.insert(pid(2));
+        policy.pin(pid(0));
+        policy.remove(pid(1));
+        assertEquals(2, policy.size());
+        assertEquals(pid(2), policy.evict());
+        assertNull(policy.evict());
+        policy.unpin(pid(0));
+        assertEquals(pid(0), policy.evict());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+
+    // tuples of two int fields per page
+    private static final int PER_PAGE = 504;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.getBufferPool();
+    }
+
+    /**
+     * Fill page 0 and put one tuple on page 1, in one committed transaction.
+     *
+     * @return a tuple on page 0
+     */
+    private Tuple fillFirstPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple first = null;
+        for (int i = 0; i <= PER_PAGE; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), t);
+            if (first == null) {
+                first = t;
+            }
+        }
+        bp.transactionComplete(tid);
+        assertEquals(2, empty.numPages());
+        return first;
+    }
+
+    /**
+     * Full pages are marked, and a delete makes its page a target again.
+     */
+    @Test public void reusesFreedSlot() throws Exception {
+        Tuple t = fillFirstPage();
+        assertTrue(empty.getFreeSpaceMap().isFull(0));
+        assertFalse(empty.getFreeSpaceMap().isFull(1));
+
+        TransactionId tid = new TransactionId();
+        bp.deleteTuple(tid, t);
+        assertFalse(empty.getFreeSpaceMap().isFull(0));
+        Tuple again = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, empty.getId(), again);
+        bp.transactionComplete(tid);
+        assertEquals(0, again.getRecordId().getPageId().getPageNumber());
+        assertTrue(empty.getFreeSpaceMap().isFull(0));
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * The map survives in its sidecar file.
+     */
+    @Test public void persists() throws Exception {
+        fillFirstPage();
+        FreeSpaceMap reopened = new FreeSpaceMap(empty.getFile(), empty::numPages);
+        try {
+            assertTrue(reopened.isFull(0));
+            assertFalse(reopened.isFull(1));
+            assertEquals(1, reopened.nextFreePage(0, empty.numPages()));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * An insert does not touch a full page, so a lock held on one does not
+     * block it.
+     */
+    @Test(timeout = 10000) public void skipsFullPages() throws Exception {
+        fillFirstPage();
+        TransactionId holder = new TransactionId();
+        bp.getPage(holder, new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        bp.transactionComplete(tid);
+        bp.transactionComplete(holder);
+    }
+
+    /**
+     * Reading pages, full or not, does not write the map.
+     */
+    @Test public void scansDoNotWrite() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3 * PER_PAGE, null, null);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        assertFalse(FreeSpaceMap.fileFor(table.getFile()).exists());
+    }
+
+    /**
+     * Pages filled by a transaction that aborts are free again.
+     */
+    @Test public void abortUnmarks() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PER_PAGE; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertTrue(empty.getFreeSpaceMap().isFull(0));
+        bp.transactionComplete(tid, false);
+        assertFalse(empty.getFreeSpaceMap().isFull(0));
+    }
+
+    /**
+     * A sidecar with bits past the last page of the table is left from an
+     * older table, and is not trusted.
+     */
+    @Test public void staleSidecarCleared() throws Exception {
+        File sidecar = FreeSpaceMap.fileFor(empty.getFile());
+        try (FileOutputStream out = new FileOutputStream(sidecar)) {
+            out.write(new byte[] { (byte) 0xff, (byte) 0xff });
+        }
+        FreeSpaceMap reopened = new FreeSpaceMap(empty.getFile(), empty::numPages);
+        try {
+            assertFalse(reopened.isFull(0));
+            assertEquals(0, reopened.nextFreePage(0, empty.numPages()));
+            assertEquals(0, sidecar.length());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
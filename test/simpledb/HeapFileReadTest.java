@@ -6,6 +6,8 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -125,6 +127,50 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    @Test
+    public void testIteratorPageRange() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1300, null, tuples);
+        assertEquals(3, threePageFile.numPages());
+
+        // disjoint ranges together return the whole file, in order
+        List<List<Integer>> read = new ArrayList<>();
+        int[][] ranges = {{0, 1}, {1, 1}, {1, 3}};
+        for (int[] range : ranges) {
+            DbFileIterator it = threePageFile.iterator(tid, range[0], range[1]);
+            it.open();
+            while (it.hasNext()) {
+                read.add(SystemTestUtil.tupleToList(it.next()));
+            }
+            it.close();
+        }
+        assertEquals(tuples, read);
+
+        try {
+            threePageFile.iterator(tid, 2, 4);
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * numPages() of a file over 2 GB; the file is sparse, so takes no space.
+     */
+    @Test
+    public void numPagesLargeFile() throws Exception {
+        File f = File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        long pages = (long) Integer.MAX_VALUE / BufferPool.getPageSize() + 10;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(pages * BufferPool.getPageSize() + 1);
+        }
+        try {
+            assertEquals(pages, new HeapFile(f, td).numPages());
+        } finally {
+            f.delete();
+        }
+    }
+
     /**
      * JUnit suite target
      */
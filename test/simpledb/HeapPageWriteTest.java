@@ -12,8 +12,10 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +133,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples are decoded from the page lazily, but a tuple handed out before
+     * its slot is deleted and reused keeps its own values.
+     */
+    @Test public void tupleOutlivesSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        int[] expected = HeapPageReadTest.EXAMPLE_VALUES[0];
+        assertTrue(first.compareField(0, Predicate.Op.EQUALS, new IntField(expected[0])));
+
+        page.deleteTuple(first);
+        Tuple replacement = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(replacement);
+        assertEquals(first.getRecordId().getTupleNumber(), replacement.getRecordId().getTupleNumber());
+
+        assertEquals(new IntField(expected[0]), first.getField(0));
+        assertEquals(new IntField(expected[1]), first.getField(1));
+        assertTrue(page.iterator().next().compareField(1, Predicate.Op.EQUALS, new IntField(-1)));
+    }
+
     /**
      * JUnit suite target
      */
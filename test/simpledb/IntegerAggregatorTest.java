@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.util.NoSuchElementException;
 
@@ -130,6 +131,21 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * SUM_COUNT and SC_AVG are rejected when the aggregator is built, not
+   * when its results are read
+   */
+  @Test public void unsupportedOps() {
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM_COUNT, Aggregator.Op.SC_AVG}) {
+      try {
+        new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+        fail("expected IllegalArgumentException for " + op);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
@@ -11,7 +11,17 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinAlgorithm;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 import simpledb.optimizer.TableStats;
@@ -629,4 +639,144 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Equality joins of large inputs should be hashed, range joins merged,
+     * and instantiateJoin should build the operator orderJoins chose.
+     */
+    @Test
+    public void hashJoinChosenTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"), new ArrayList<>());
+        LogicalJoinNode equalsJoinNode = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+        LogicalJoinNode ltJoinNode = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.LESS_THAN);
+        Assert.assertEquals(JoinAlgorithm.HASH, jo.chooseJoinAlgorithm(equalsJoinNode,
+                1000, 10000, stats1.estimateScanCost(), stats2.estimateScanCost(), true));
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE, jo.chooseJoinAlgorithm(ltJoinNode,
+                1000, 10000, stats1.estimateScanCost(), stats2.estimateScanCost(), true));
+
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        filterSelectivities.put("t1", 1.0);
+        filterSelectivities.put("t2", 1.0);
+        jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"), Collections.singletonList(equalsJoinNode));
+        List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(JoinAlgorithm.HASH, result.get(0).algorithm);
+
+        OpIterator join = JoinOptimizer.instantiateJoin(result.get(0),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(join instanceof HashEquiJoin);
+        join = JoinOptimizer.instantiateJoin(equalsJoinNode,
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+        Assert.assertTrue(join instanceof Join);
+    }
+
+    /**
+     * Range joins into a B+ tree keyed on the join field should probe the
+     * index, and return the same rows as a nested loops join.
+     */
+    @Test
+    public void indexJoinTest() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 10000, 1000, null, null, 0);
+        index = BTreeUtility.openBTreeFile(2, "c", index.getFile(), 0);
+        Database.getCatalog().addTable(index, "idx");
+        TableStats indexStats = new TableStats(index.getId(), 19);
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, idx t2 WHERE t1.c1 > t2.c0;"),
+                new ArrayList<>());
+        LogicalJoinNode node = new LogicalJoinNode("t1", "t2", "c1", "c0",
+                Predicate.Op.GREATER_THAN);
+        Assert.assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP, jo.chooseJoinAlgorithm(node,
+                10, 10000, stats1.estimateScanCost(), indexStats.estimateScanCost(), true));
+        // not when the inner side is the result of another join
+        Assert.assertNotEquals(JoinAlgorithm.INDEX_NESTED_LOOP, jo.chooseJoinAlgorithm(node,
+                10, 10000, stats1.estimateScanCost(), indexStats.estimateScanCost(), false));
+
+        OpIterator join = JoinOptimizer.instantiateJoin(node.withAlgorithm(JoinAlgorithm.INDEX_NESTED_LOOP),
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, index.getId(), "t2"));
+        Assert.assertTrue(join instanceof IndexNestedLoopJoin);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        OpIterator nl = JoinOptimizer.instantiateJoin(node,
+                new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, index.getId(), "t2"));
+        nl.open();
+        while (nl.hasNext()) {
+            expected.add(SystemTestUtil.tupleToList(nl.next()));
+        }
+        nl.close();
+        SystemTestUtil.matchTuples(join, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An equality join of two B+ trees keyed on the join fields should be
+     * merged without sorting either side.
+     */
+    @Test
+    public void sortMergeJoinTest() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        BTreeFile index1 = BTreeUtility.createRandomBTreeFile(2, 5000, 1000, null, t1Tuples, 0);
+        index1 = BTreeUtility.openBTreeFile(2, "c", index1.getFile(), 0);
+        Database.getCatalog().addTable(index1, "idx1");
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        BTreeFile index2 = BTreeUtility.createRandomBTreeFile(2, 5000, 1000, null, t2Tuples, 1);
+        index2 = BTreeUtility.openBTreeFile(2, "c", index2.getFile(), 1);
+        Database.getCatalog().addTable(index2, "idx2");
+
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("idx1", new TableStats(index1.getId(), 19));
+        stats.put("idx2", new TableStats(index2.getId(), 19));
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        filterSelectivities.put("t1", 1.0);
+        filterSelectivities.put("t2", 1.0);
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalJoinNode node = new LogicalJoinNode("t1", "t2", "c0", "c1", Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM idx1 t1, idx2 t2 WHERE t1.c0 = t2.c1;"), Collections.singletonList(node));
+        List<LogicalJoinNode> result = jo.orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE, result.get(0).algorithm);
+
+        LogicalJoinNode chosen = result.get(0);
+        int id1 = chosen.t1Alias.equals("t1") ? index1.getId() : index2.getId();
+        int id2 = chosen.t1Alias.equals("t1") ? index2.getId() : index1.getId();
+        OpIterator join = JoinOptimizer.instantiateJoin(chosen,
+                new SeqScan(tid, id1, chosen.t1Alias), new SeqScan(tid, id2, chosen.t2Alias));
+        Assert.assertTrue(join instanceof SortMergeJoin);
+        OpIterator[] children = ((SortMergeJoin) join).getChildren();
+        Assert.assertTrue(children[0] instanceof BTreeScan);
+        Assert.assertTrue(children[1] instanceof BTreeScan);
+
+        int rows = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            rows++;
+        }
+        join.close();
+        Map<Integer, Integer> keys = new HashMap<>();
+        for (List<Integer> t1 : t1Tuples) {
+            keys.merge(t1.get(0), 1, Integer::sum);
+        }
+        int expected = 0;
+        for (List<Integer> t2 : t2Tuples) {
+            expected += keys.getOrDefault(t2.get(1), 0);
+        }
+        Assert.assertEquals(expected, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
 }
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    /**
+     * Acquires a lock on its own thread and records the outcome.
+     */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(pid, perm, tid);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    @Before public void createLockManager() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * A blocked request is granted as soon as the conflicting lock is released.
+     */
+    @Test public void waiterWokenOnRelease() throws Exception {
+        lm.acquireLock(p0, Permissions.READ_WRITE, tid1);
+        Acquirer a = new Acquirer(tid2, p0, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(a.acquired);
+        assertEquals(Thread.State.TIMED_WAITING, a.getState());
+
+        lm.releaseTransLocks(tid1);
+        a.join(TIMEOUT * 10);
+        assertTrue(a.acquired);
+        assertTrue(lm.isHolding(tid2, p0));
+    }
+
+    /**
+     * In a two-transaction deadlock only the younger transaction is aborted
+     * and the older one gets its lock once the victim releases.
+     */
+    @Test public void youngestIsVictim() throws Exception {
+        lm.acquireLock(p0, Permissions.READ_WRITE, tid1);
+        lm.acquireLock(p1, Permissions.READ_WRITE, tid2);
+
+        Acquirer a1 = new Acquirer(tid1, p1, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer a2 = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+        a2.join(TIMEOUT * 10);
+        assertTrue(a2.aborted);
+        assertFalse(a1.aborted);
+        assertFalse(a1.acquired);
+
+        lm.releaseTransLocks(tid2);
+        a1.join(TIMEOUT * 10);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Two readers that both try to upgrade deadlock; one of them must win.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquireLock(p0, Permissions.READ_ONLY, tid1);
+        lm.acquireLock(p0, Permissions.READ_ONLY, tid2);
+
+        Acquirer a1 = new Acquirer(tid1, p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer a2 = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+        a2.join(TIMEOUT * 10);
+        assertTrue(a2.aborted);
+
+        lm.releaseTransLocks(tid2);
+        a1.join(TIMEOUT * 10);
+        assertTrue(a1.acquired);
+        assertFalse(lm.isHolding(tid2, p0));
+    }
+
+    /**
+     * An upgrade that waits for two readers, each waiting for the upgrader,
+     * closes two cycles at once; both readers are aborted, not just one.
+     */
+    @Test public void upgradeAgainstReaders() throws Exception {
+        lm.acquireLock(p0, Permissions.READ_WRITE, tid1);
+        lm.acquireLock(p1, Permissions.READ_ONLY, tid1);
+        lm.acquireLock(p1, Permissions.READ_ONLY, tid2);
+        lm.acquireLock(p1, Permissions.READ_ONLY, tid3);
+
+        Acquirer a2 = new Acquirer(tid2, p0, Permissions.READ_WRITE);
+        Acquirer a3 = new Acquirer(tid3, p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Acquirer a1 = new Acquirer(tid1, p1, Permissions.READ_WRITE);
+        a2.join(TIMEOUT * 5);
+        a3.join(TIMEOUT * 5);
+        assertTrue(a2.aborted);
+        assertTrue(a3.aborted);
+        assertFalse(a1.aborted);
+
+        lm.releaseTransLocks(tid2);
+        lm.releaseTransLocks(tid3);
+        a1.join(TIMEOUT * 5);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * A pool thread waiting for a lock lets the pool run the task that
+     * releases it, even on a pool of one thread.
+     */
+    @Test public void waiterOnPoolDoesNotStarveIt() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            lm.acquireLock(p0, Permissions.READ_WRITE, tid1);
+            Future<?> waiter = pool.submit(() -> {
+                lm.acquireLock(p0, Permissions.READ_ONLY, tid2);
+                return null;
+            });
+            Thread.sleep(TIMEOUT);
+            Future<?> releaser = pool.submit(() -> lm.releaseTransLocks(tid1));
+            releaser.get(TIMEOUT * 10, TimeUnit.MILLISECONDS);
+            waiter.get(TIMEOUT * 10, TimeUnit.MILLISECONDS);
+            assertTrue(lm.isHolding(tid2, p0));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
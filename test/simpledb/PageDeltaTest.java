@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageDelta;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class PageDeltaTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static PageDelta roundTrip(PageDelta delta) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(baos));
+        return PageDelta.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    }
+
+    /**
+     * Inserting and deleting tuples is logged compactly, and the serialized
+     * delta turns the before image into the after image and back.
+     */
+    @Test public void insertDelete() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = after.iterator();
+        after.deleteTuple(it.next());
+        after.insertTuple(Utility.getHeapTuple(new int[]{42, 43}));
+        after.insertTuple(Utility.getHeapTuple(new int[]{44, 45}));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PageDelta.diff(before, after).write(new DataOutputStream(baos));
+        assertTrue(baos.size() < 100);
+
+        PageDelta delta = roundTrip(PageDelta.diff(before, after));
+        byte[] data = before.getPageData();
+        delta.redo(data);
+        assertArrayEquals(after.getPageData(), data);
+        delta.undo(data);
+        assertArrayEquals(before.getPageData(), data);
+    }
+
+    /**
+     * Changes that are not slot inserts or deletes fall back to byte ranges.
+     */
+    @Test public void ranges() throws Exception {
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] changed = HeapPageReadTest.EXAMPLE_DATA.clone();
+        int last = changed.length - 1;
+        // rewrite the fields of the first tuple in place, and the last byte
+        Arrays.fill(changed, before.getSlotOffset(), before.getSlotOffset() + 8, (byte) 7);
+        changed[last] = 1;
+        HeapPage after = new HeapPage(pid, changed);
+
+        PageDelta delta = roundTrip(PageDelta.diff(before, after));
+        byte[] data = before.getPageData();
+        delta.redo(data);
+        assertArrayEquals(after.getPageData(), data);
+        delta.undo(data);
+        assertArrayEquals(before.getPageData(), data);
+        assertTrue(PageDelta.diff(before, before).isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
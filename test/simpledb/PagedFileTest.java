@@ -0,0 +1,113 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.PagedFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PagedFileTest extends SimpleDbTestBase {
+
+    private File f;
+    private PagedFile disk;
+
+    @Before public void createFile() throws IOException {
+        f = File.createTempFile("pagedfile", ".dat");
+        f.deleteOnExit();
+        disk = new PagedFile(f);
+    }
+
+    @After public void closeFile() throws IOException {
+        disk.close();
+    }
+
+    /**
+     * Positional writes land where they should and short reads stop at the
+     * end of the file.
+     */
+    @Test public void readWrite() throws Exception {
+        byte[] page = new byte[16];
+        Arrays.fill(page, (byte) 7);
+        disk.write(16, page);
+        disk.force();
+        assertEquals(32, f.length());
+
+        byte[] buf = new byte[16];
+        assertEquals(16, disk.read(16, buf));
+        assertArrayEquals(page, buf);
+        assertEquals(16, disk.read(0, buf));
+        assertArrayEquals(new byte[16], buf);
+        assertEquals(8, disk.read(24, buf));
+        assertEquals(-1, disk.read(32, buf));
+    }
+
+    /**
+     * An interrupted thread's I/O fails, but the file keeps working for
+     * everyone else.
+     */
+    @Test public void survivesInterrupt() throws Exception {
+        final byte[] page = new byte[16];
+        disk.write(0, page);
+        final boolean[] interrupted = new boolean[1];
+        Thread t = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                disk.write(0, page);
+            } catch (ClosedByInterruptException e) {
+                interrupted[0] = true;
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(interrupted[0]);
+
+        Arrays.fill(page, (byte) 3);
+        disk.write(0, page);
+        byte[] buf = new byte[16];
+        assertEquals(16, disk.read(0, buf));
+        assertArrayEquals(page, buf);
+    }
+
+    /**
+     * Mapped reads see later writes and remap as the file grows.
+     */
+    @Test public void mappedReads() throws Exception {
+        byte[] page = new byte[16];
+        Arrays.fill(page, (byte) 1);
+        disk.write(0, page);
+        disk.setMapped(true);
+
+        byte[] buf = new byte[16];
+        assertEquals(16, disk.read(0, buf));
+        assertArrayEquals(page, buf);
+
+        Arrays.fill(page, (byte) 2);
+        disk.write(0, page);
+        disk.write(16, page);
+        assertEquals(16, disk.read(0, buf));
+        assertArrayEquals(page, buf);
+        assertEquals(16, disk.read(16, buf));
+        assertArrayEquals(page, buf);
+        assertEquals(8, disk.read(24, buf));
+        assertEquals(-1, disk.read(32, buf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagedFileTest.class);
+    }
+}
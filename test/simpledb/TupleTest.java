@@ -1,11 +1,15 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -40,6 +44,26 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(td, tup.getTupleDesc());
     }
 
+    /**
+     * Unit test for Tuple.resetTupleDesc(): renaming the fields keeps their
+     * values, changing their types clears them
+     */
+    @Test public void resetTupleDesc() {
+        Tuple tup = new Tuple(Utility.getTupleDesc(2));
+        tup.setField(0, new IntField(7));
+        tup.setField(1, new IntField(8));
+
+        TupleDesc renamed = Utility.getTupleDesc(2, "renamed");
+        tup.resetTupleDesc(renamed);
+        assertEquals(renamed, tup.getTupleDesc());
+        assertEquals(new IntField(7), tup.getField(0));
+        assertEquals(new IntField(8), tup.getField(1));
+
+        tup.resetTupleDesc(Utility.getTupleDesc(3));
+        assertEquals(new IntField(0), tup.getField(0));
+        assertEquals(new IntField(0), tup.getField(2));
+    }
+
     /**
      * Unit test for Tuple.getRecordId() and Tuple.setRecordId()
      */
@@ -59,6 +83,32 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.copyFields() and Tuple.compareField() over mixed
+     * int and string fields
+     */
+    @Test public void copyAndCompareFields() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE});
+        Tuple from = new Tuple(td);
+        from.setField(0, new StringField("abc", Type.STRING_LEN));
+        from.setField(1, new IntField(7));
+        from.setField(2, new IntField(-3));
+
+        TupleDesc merged = TupleDesc.merge(Utility.getTupleDesc(1), td);
+        Tuple to = new Tuple(merged);
+        to.setField(0, new IntField(42));
+        to.copyFields(from, 0, 1, 3);
+        assertEquals(new IntField(42), to.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), to.getField(1));
+        assertEquals(new IntField(7), to.getField(2));
+        assertEquals(new IntField(-3), to.getField(3));
+
+        assertTrue(to.compareField(2, Predicate.Op.EQUALS, from, 1));
+        assertTrue(to.compareField(3, Predicate.Op.LESS_THAN, from, 1));
+        assertTrue(to.compareField(1, Predicate.Op.EQUALS, from, 0));
+        assertFalse(to.compareField(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(41)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,51 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * AVG(c1) GROUP BY c0 over a table whose c0 takes about a tenth as many
+ * values as it has rows, with the buffer pool holding the table. Run with
+ * all groups in memory, and with a memory budget of a tenth of the groups,
+ * so they are spilled. Prints the rate at which input rows are consumed.
+ * <p>
+ * Arguments: [rows].
+ */
+public class AggregateBenchmark {
+
+    private static void measure(String label, final HeapFile table, int rows, MemoryBudget budget)
+            throws Exception {
+        BenchmarkUtil.measure(label, "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), new int[]{0}, new int[]{1},
+                    new Aggregator.Op[]{Aggregator.Op.AVG}, budget);
+            agg.open();
+            while (agg.hasNext()) {
+                agg.next();
+            }
+            agg.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return rows;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 500000);
+        final int groups = rows / 10;
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, groups, null, null);
+        Database.resetBufferPool(table.numPages() + 10);
+        System.out.println("table: " + rows + " rows, about " + groups + " groups");
+
+        measure("in memory", table, rows, MemoryBudget.DEFAULT);
+        // a group is held as its key and five accumulators
+        measure("spilled", table, rows, MemoryBudget.ofTuples(Math.max(1, groups / 10), Utility.getTupleDesc(6)));
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchPlan;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Two analytic plans, each run tuple at a time and again after
+ * BatchPlan.toBatchPlan: a filtered, grouped SUM over one table, and a
+ * COUNT over the hash join of two tables. The buffer pool holds both tables,
+ * so this measures the operators rather than the disk. Prints the rate at
+ * which input rows are consumed.
+ * <p>
+ * Arguments: [rows] [columns].
+ */
+public class BatchExecutionBenchmark {
+
+    private interface Planner {
+        OpIterator plan(TransactionId tid);
+    }
+
+    private static void measure(String label, long rows, Planner planner) throws Exception {
+        BenchmarkUtil.measure(label, "rows",
+                BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS, () -> {
+                    TransactionId tid = new TransactionId();
+                    OpIterator it = planner.plan(tid);
+                    it.open();
+                    while (it.hasNext()) {
+                        it.next();
+                    }
+                    it.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    return rows;
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 500000);
+        final int columns = BenchmarkUtil.intArg(args, 1, 4);
+
+        final HeapFile t1 = SystemTestUtil.createRandomHeapFile(columns, rows, null, null);
+        final HeapFile t2 = SystemTestUtil.createRandomHeapFile(columns, rows / 10, null, null);
+        Database.resetBufferPool(t1.numPages() + t2.numPages() + 10);
+        System.out.println("tables: " + rows + " and " + rows / 10 + " rows, "
+                + (t1.numPages() + t2.numPages()) + " pages");
+
+        // values are drawn from [0, 65536): keep half, grouped by the first column
+        final Predicate half = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(32768));
+        final Planner agg = tid -> new Aggregate(new Filter(half, new SeqScan(tid, t1.getId(), "t1")),
+                2, 0, Aggregator.Op.SUM);
+        final Planner join = tid -> new Aggregate(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, t2.getId(), "t2"), new SeqScan(tid, t1.getId(), "t1")),
+                0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+
+        measure("filter + group by, tuples", rows, agg);
+        measure("filter + group by, batches", rows, tid -> BatchPlan.toBatchPlan(agg.plan(tid)));
+        measure("join + count, tuples", rows + rows / 10, join);
+        measure("join + count, batches", rows + rows / 10, tid -> BatchPlan.toBatchPlan(join.plan(tid)));
+    }
+}
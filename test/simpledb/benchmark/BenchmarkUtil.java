@@ -0,0 +1,132 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Minimal JMH-style harness shared by the benchmarks in this package.
+ * Each measurement runs a number of warmup iterations whose results are
+ * thrown away, then a number of measured iterations, and reports the mean
+ * and standard deviation of the throughput.
+ * <p>
+ * Benchmarks are plain classes with a main method; run them with
+ * <code>ant runbench -Dbench=ClassName [-Dargs="..."]</code>.
+ */
+public class BenchmarkUtil {
+
+    public static final int DEFAULT_WARMUP = 2;
+    public static final int DEFAULT_ITERATIONS = 5;
+
+    /**
+     * One timed iteration of a benchmark.
+     */
+    public interface Iteration {
+        /**
+         * @return the number of operations completed by this iteration
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Body of one benchmark thread.
+     */
+    public interface Worker {
+        /**
+         * @param id the index of this thread, from 0 to threads - 1
+         * @return the number of operations completed by this thread
+         */
+        long run(int id) throws Exception;
+    }
+
+    /**
+     * Run an iteration repeatedly and print its throughput.
+     *
+     * @return the mean throughput in operations per second
+     */
+    public static double measure(String label, String unit, int warmup, int iterations,
+                                 Iteration iteration) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            iteration.run();
+        }
+        double[] rates = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long ops = iteration.run();
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            rates[i] = ops * 1e9 / elapsed;
+        }
+        double mean = 0;
+        for (double r : rates) {
+            mean += r;
+        }
+        mean /= iterations;
+        double var = 0;
+        for (double r : rates) {
+            var += (r - mean) * (r - mean);
+        }
+        double stddev = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+        System.out.printf("%-40s %14.1f +- %10.1f %s/s%n", label, mean, stddev, unit);
+        return mean;
+    }
+
+    /**
+     * Run the worker on the given number of threads, all released at the
+     * same time, and wait for them to finish.
+     *
+     * @return the total number of operations completed by all threads
+     */
+    public static long runThreads(int threads, Worker worker) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final long[] ops = new long[threads];
+        List<Thread> list = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                try {
+                    barrier.await();
+                    ops[id] = worker.run(id);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            list.add(t);
+            t.start();
+        }
+        for (Thread t : list) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        long total = 0;
+        for (long o : ops) {
+            total += o;
+        }
+        return total;
+    }
+
+    /**
+     * @return args[index] parsed as an int, or def if it is missing
+     */
+    public static int intArg(String[] args, int index, int def) {
+        return args.length > index ? Integer.parseInt(args[index]) : def;
+    }
+
+    /**
+     * @return the thread counts 1, 2, 4, ... up to and including max
+     */
+    public static int[] threadCounts(int max) {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int n = 1; n <= max; n *= 2) {
+            counts.add(n);
+        }
+        int[] ret = new int[counts.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = counts.get(i);
+        }
+        return ret;
+    }
+}
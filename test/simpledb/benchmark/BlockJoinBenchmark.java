@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A nested loops range join, t1.c0 &gt; t2.c0, with about one pair in two
+ * hundred matching, through a buffer pool smaller than the inner table, so
+ * every scan of it reads its pages from the file again. Prints the rate at
+ * which input rows are consumed with a block of one outer tuple, which
+ * rescans the inner table per outer tuple, and with the default block.
+ * <p>
+ * Arguments: [rows per table] [buffer pool pages].
+ */
+public class BlockJoinBenchmark {
+
+    private static void measure(String label, final HeapFile t1, final HeapFile t2, MemoryBudget budget,
+                                int rows) throws Exception {
+        BenchmarkUtil.measure(label, "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            Join join = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                    new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"), budget);
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return 2L * rows;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 5000);
+        final int pages = BenchmarkUtil.intArg(args, 1, 10);
+
+        final HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+        final HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, rows * 100, null, null);
+        Database.resetBufferPool(pages);
+        System.out.println("tables: 2 x " + rows + " rows, " + t2.numPages() + " inner pages; buffer pool: "
+                + pages + " pages");
+
+        measure("block 1", t1, t2, MemoryBudget.ofTuples(1, t1.getTupleDesc()), rows);
+        measure("default block", t1, t2, MemoryBudget.DEFAULT, rows);
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Throughput of concurrent read-only SeqScans against a shared BufferPool,
+ * from 1 up to 32 threads. Every thread scans the same table in its own
+ * transaction, so the only contention left is inside the buffer pool and
+ * the lock manager.
+ * <p>
+ * Arguments: [rows] [pool pages] [max threads] [scans per thread]. With a
+ * pool smaller than the table every scan also exercises eviction.
+ */
+public class BufferPoolScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 200000);
+        final int poolPages = BenchmarkUtil.intArg(args, 1, 1000);
+        final int maxThreads = BenchmarkUtil.intArg(args, 2, 32);
+        final int scans = BenchmarkUtil.intArg(args, 3, 2);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + table.numPages()
+                + " pages; buffer pool: " + poolPages + " pages");
+
+        for (final int threads : BenchmarkUtil.threadCounts(maxThreads)) {
+            Database.resetBufferPool(poolPages);
+            BenchmarkUtil.measure(threads + " threads", "tuples",
+                    BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS,
+                    () -> BenchmarkUtil.runThreads(threads, id -> {
+                        long count = 0;
+                        for (int i = 0; i < scans; i++) {
+                            TransactionId tid = new TransactionId();
+                            SeqScan scan = new SeqScan(tid, table.getId(), "t");
+                            scan.open();
+                            while (scan.hasNext()) {
+                                scan.next();
+                                count++;
+                            }
+                            scan.close();
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                        return count;
+                    }));
+        }
+    }
+}
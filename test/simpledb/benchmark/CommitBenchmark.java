@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+
+/**
+ * Commit throughput of many small writers, with the log forced on every
+ * commit versus group commit. Each thread inserts into its own table so
+ * the transactions never conflict and the log is the only shared resource.
+ * <p>
+ * Under FORCE every commit also writes its data pages synchronously, which
+ * caps the end-to-end rate no matter how the log is synced, so the "log
+ * only" runs write one UPDATE and one COMMIT record per transaction and
+ * force the log without touching the tables.
+ * <p>
+ * Arguments: [max threads] [commits per thread] [max latency in us] [max batch].
+ */
+public class CommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int maxThreads = BenchmarkUtil.intArg(args, 0, 32);
+        final int commits = BenchmarkUtil.intArg(args, 1, 50);
+        final int latency = BenchmarkUtil.intArg(args, 2, (int) LogFile.DEFAULT_GROUP_COMMIT_LATENCY_MICROS);
+        final int batch = BenchmarkUtil.intArg(args, 3, LogFile.DEFAULT_GROUP_COMMIT_BATCH);
+
+        final HeapFile[] tables = new HeapFile[maxThreads];
+        for (int i = 0; i < maxThreads; i++) {
+            File f = File.createTempFile("commitbench", ".dat");
+            f.deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), tables[i].getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+
+        for (final boolean group : new boolean[]{false, true}) {
+            if (group) {
+                Database.getLogFile().enableGroupCommit(latency, batch);
+            }
+            else {
+                Database.getLogFile().disableGroupCommit();
+            }
+            for (final int threads : BenchmarkUtil.threadCounts(maxThreads)) {
+                BenchmarkUtil.measure((group ? "log only, group commit, " : "log only, force per commit, ")
+                                + threads + " threads",
+                        "commits", BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS,
+                        () -> BenchmarkUtil.runThreads(threads, id -> {
+                            LogFile log = Database.getLogFile();
+                            for (int i = 0; i < commits; i++) {
+                                Transaction t = new Transaction();
+                                t.start();
+                                Page p = Database.getBufferPool().getPage(t.getId(),
+                                        new HeapPageId(tables[id].getId(), 0), Permissions.READ_ONLY);
+                                log.logWrite(t.getId(), p, p);
+                                log.logCommit(t.getId());
+                                Database.getBufferPool().transactionComplete(t.getId());
+                            }
+                            return commits;
+                        }));
+            }
+            for (final int threads : BenchmarkUtil.threadCounts(maxThreads)) {
+                BenchmarkUtil.measure((group ? "group commit, " : "force per commit, ") + threads + " threads",
+                        "commits", BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS,
+                        () -> BenchmarkUtil.runThreads(threads, id -> {
+                            for (int i = 0; i < commits; i++) {
+                                Transaction t = new Transaction();
+                                t.start();
+                                Database.getBufferPool().insertTuple(t.getId(), tables[id].getId(),
+                                        Utility.getHeapTuple(i, 2));
+                                t.commit();
+                            }
+                            return commits;
+                        }));
+            }
+        }
+    }
+}
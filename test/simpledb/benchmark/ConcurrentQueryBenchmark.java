@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelPlan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * The counts of each value of c0 in one table joined with those in another,
+ * with the buffer pool holding both tables, run by 1, 2, 4 and 8 clients at
+ * once, each running the same number of queries: on the client threads, and
+ * split into pipelines run on the shared worker pool with 4 workers a query.
+ * Prints the rate at which queries complete, and the time the slowest client
+ * took over the time the fastest took; the closer to 1, the more fairly the
+ * clients shared the cores.
+ * <p>
+ * Arguments: [rows] [queries per client].
+ */
+public class ConcurrentQueryBenchmark {
+
+    private static OpIterator plan(TransactionId tid, HeapFile left, HeapFile right) {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Aggregate(new SeqScan(tid, left.getId(), "l"), 1, 0, Aggregator.Op.COUNT),
+                new Aggregate(new SeqScan(tid, right.getId(), "r"), 1, 0, Aggregator.Op.COUNT));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 200000);
+        final int queries = BenchmarkUtil.intArg(args, 1, 4);
+
+        final HeapFile left = SystemTestUtil.createRandomHeapFile(2, rows, 10000, null, null);
+        final HeapFile right = SystemTestUtil.createRandomHeapFile(2, rows, 10000, null, null);
+        Database.resetBufferPool(left.numPages() + right.numPages() + 10);
+        System.out.println("tables: " + rows + " rows each; cores: "
+                + Runtime.getRuntime().availableProcessors());
+
+        for (boolean scheduled : new boolean[]{false, true}) {
+            ParallelPlan.setWorkers(scheduled ? 4 : ParallelPlan.DEFAULT_WORKERS);
+            for (int clients : BenchmarkUtil.threadCounts(8)) {
+                final long[] elapsed = new long[clients];
+                BenchmarkUtil.measure((scheduled ? "pipelines, " : "client threads, ") + clients + " clients",
+                        "queries", 1, 3, () -> BenchmarkUtil.runThreads(clients, id -> {
+                            long start = System.nanoTime();
+                            for (int q = 0; q < queries; q++) {
+                                TransactionId tid = new TransactionId();
+                                OpIterator plan = plan(tid, left, right);
+                                if (scheduled) {
+                                    plan = ParallelPlan.schedule(ParallelPlan.parallelize(plan));
+                                }
+                                plan.open();
+                                while (plan.hasNext()) {
+                                    plan.next();
+                                }
+                                plan.close();
+                                Database.getBufferPool().transactionComplete(tid);
+                            }
+                            elapsed[id] = System.nanoTime() - start;
+                            return queries;
+                        }));
+                long min = Long.MAX_VALUE;
+                long max = 0;
+                for (long e : elapsed) {
+                    min = Math.min(min, e);
+                    max = Math.max(max, e);
+                }
+                System.out.printf("  slowest / fastest client %.2f%n", (double) max / min);
+            }
+        }
+        ParallelPlan.setWorkers(ParallelPlan.DEFAULT_WORKERS);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.benchmark;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Random;
+
+/**
+ * An ORDER BY over more rows than the memory budget holds, so OrderBy sorts
+ * them in runs written to spill files and merges the runs. The rows are
+ * generated as they are read, not stored in a table, and are checked to come
+ * out sorted. Prints the rate at which rows are sorted, including reading
+ * them all back.
+ * <p>
+ * Arguments: [rows] [memory budget in MB].
+ */
+public class ExternalSortBenchmark {
+
+    /**
+     * Rows of two random ints.
+     */
+    private static class RandomRows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+        private final long rows;
+        private Random random;
+        private long produced;
+
+        RandomRows(long rows) {
+            this.rows = rows;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            random = new Random(42);
+            produced = 0;
+            super.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        protected Tuple fetchNext() {
+            if (produced == rows) {
+                return null;
+            }
+            produced++;
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(random.nextInt()));
+            t.setField(1, new IntField((int) produced));
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return TD;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 50000000);
+        final int budget = BenchmarkUtil.intArg(args, 1, 64);
+        System.out.println("sorting " + rows + " rows of 2 ints; budget " + budget + " MB; heap "
+                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+
+        BenchmarkUtil.measure("external sort", "rows", 0, 1, () -> {
+            OrderBy sort = new OrderBy(new int[]{0}, new boolean[]{true}, new RandomRows(rows),
+                    new MemoryBudget(budget * 1024L * 1024));
+            sort.open();
+            long n = 0;
+            int last = Integer.MIN_VALUE;
+            while (sort.hasNext()) {
+                int v = ((IntField) sort.next().getField(0)).getValue();
+                if (v < last) {
+                    throw new IllegalStateException("row " + n + " out of order");
+                }
+                last = v;
+                n++;
+            }
+            sort.close();
+            if (n != rows) {
+                throw new IllegalStateException(n + " rows sorted, expected " + rows);
+            }
+            return n;
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A HashEquiJoin whose build side is many times its memory budget, through
+ * a buffer pool much smaller than either table, so every page a join reads
+ * more than once comes from the file again. Prints the rate at which input
+ * rows are consumed with the default budget, and with a budget that holds
+ * the whole build side.
+ * <p>
+ * Arguments: [rows per table] [buffer pool pages].
+ */
+public class HashJoinSpillBenchmark {
+
+    private static void measure(String label, final HeapFile t1, final HeapFile t2, MemoryBudget budget,
+                                int rows) throws Exception {
+        BenchmarkUtil.measure(label, "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"), budget);
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return 2L * rows;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 1000000);
+        final int pages = BenchmarkUtil.intArg(args, 1, 100);
+
+        // join keys drawn from [0, rows): about one match per row
+        final HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+        final HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+        Database.resetBufferPool(pages);
+        System.out.println("tables: 2 x " + rows + " rows, " + (t1.numPages() + t2.numPages())
+                + " pages; buffer pool: " + pages + " pages");
+
+        measure("default budget", t1, t2, MemoryBudget.DEFAULT, rows);
+        measure("budget " + rows + " rows", t1, t2, MemoryBudget.ofTuples(rows, t1.getTupleDesc()), rows);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log bytes written per transaction for small inserts and deletes.
+ * <p>
+ * Arguments: [transactions] [tuples per transaction].
+ */
+public class LogVolumeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int transactions = BenchmarkUtil.intArg(args, 0, 200);
+        final int tuples = BenchmarkUtil.intArg(args, 1, 1);
+
+        File f = File.createTempFile("logvolume", ".dat");
+        f.deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        LogFile log = Database.getLogFile();
+        List<Tuple> inserted = new ArrayList<Tuple>();
+
+        // the first record truncates whatever log the last run left behind
+        Transaction first = new Transaction();
+        first.start();
+        first.commit();
+
+        long start = log.getLogSize();
+        for (int i = 0; i < transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < tuples; j++) {
+                Tuple tup = Utility.getHeapTuple(new int[]{i, j});
+                Database.getBufferPool().insertTuple(t.getId(), table.getId(), tup);
+                inserted.add(tup);
+            }
+            t.commit();
+        }
+        long afterInserts = log.getLogSize();
+        for (int i = 0; i < transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < tuples; j++) {
+                Database.getBufferPool().deleteTuple(t.getId(), inserted.get(i * tuples + j));
+            }
+            t.commit();
+        }
+        long afterDeletes = log.getLogSize();
+
+        System.out.printf("%-40s %10.1f bytes/txn%n", "insert " + tuples + " tuples",
+                (afterInserts - start) / (double) transactions);
+        System.out.printf("%-40s %10.1f bytes/txn%n", "delete " + tuples + " tuples",
+                (afterDeletes - afterInserts) / (double) transactions);
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Full-table SeqScan throughput over a HeapFile read with read calls versus
+ * served from a memory mapping. The buffer pool is much smaller than the
+ * table, so every scan reads every page from the file again; the file
+ * itself stays in the operating system's page cache, as a hot fact table
+ * would.
+ * <p>
+ * Arguments: [rows] [columns] [pool pages].
+ */
+public class MappedScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 1000000);
+        final int columns = BenchmarkUtil.intArg(args, 1, 4);
+        final int poolPages = BenchmarkUtil.intArg(args, 2, 100);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(columns, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + table.numPages()
+                + " pages; buffer pool: " + poolPages + " pages");
+
+        for (final boolean mapped : new boolean[]{false, true}) {
+            table.setMemoryMapped(mapped);
+            Database.resetBufferPool(poolPages);
+            BenchmarkUtil.measure(mapped ? "mmap" : "read calls", "pages",
+                    BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS, () -> {
+                        TransactionId tid = new TransactionId();
+                        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+                        scan.open();
+                        while (scan.hasNext()) {
+                            scan.next();
+                        }
+                        scan.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                        return table.numPages();
+                    });
+        }
+    }
+}
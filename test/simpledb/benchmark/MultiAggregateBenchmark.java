@@ -0,0 +1,59 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SUM(c1), COUNT(c1) and MAX(c2) GROUP BY c0, c3 over a table whose values
+ * are below 100, so there are up to 10000 groups, through a buffer pool
+ * smaller than the table. Run as three Aggregates, each scanning
+ * the table, and as one Aggregate computing all three. Prints the rate at
+ * which table rows are consumed.
+ * <p>
+ * Arguments: [rows] [buffer pool pages].
+ */
+public class MultiAggregateBenchmark {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX};
+    private static final int[] FIELDS = {1, 1, 2};
+    private static final int[] GROUP_FIELDS = {0, 3};
+
+    private static void drain(Aggregate agg) throws Exception {
+        agg.open();
+        while (agg.hasNext()) {
+            agg.next();
+        }
+        agg.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 300000);
+        final int pages = BenchmarkUtil.intArg(args, 1, 50);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, 100, null, null);
+        Database.resetBufferPool(pages);
+        System.out.println("table: " + rows + " rows, " + table.numPages() + " pages; buffer pool: "
+                + pages + " pages");
+
+        BenchmarkUtil.measure("one aggregate per pass", "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < OPS.length; i++) {
+                drain(new Aggregate(new SeqScan(tid, table.getId(), "t"), GROUP_FIELDS,
+                        new int[]{FIELDS[i]}, new Aggregator.Op[]{OPS[i]}));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            return rows;
+        });
+        BenchmarkUtil.measure("all aggregates in one pass", "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            drain(new Aggregate(new SeqScan(tid, table.getId(), "t"), GROUP_FIELDS, FIELDS, OPS));
+            Database.getBufferPool().transactionComplete(tid);
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PagedFile;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random page reads and writes through a RandomAccessFile opened per I/O
+ * (the old HeapFile path: "r" per read, "rws" per write) versus one shared
+ * {@link PagedFile}.  Writes come in commits of several pages; the shared
+ * channel forces once per commit where "rws" syncs every page.
+ * <p>
+ * Arguments: [max threads] [pages in file] [reads per thread] [commits per
+ * thread] [pages per commit].
+ */
+public class PageIoBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int maxThreads = BenchmarkUtil.intArg(args, 0, 8);
+        final int numPages = BenchmarkUtil.intArg(args, 1, 1024);
+        final int reads = BenchmarkUtil.intArg(args, 2, 5000);
+        final int commits = BenchmarkUtil.intArg(args, 3, 20);
+        final int pagesPerCommit = BenchmarkUtil.intArg(args, 4, 4);
+        final int pageSize = BufferPool.getPageSize();
+
+        final File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) numPages * pageSize);
+        }
+        final PagedFile shared = new PagedFile(f);
+
+        for (final int threads : BenchmarkUtil.threadCounts(maxThreads)) {
+            BenchmarkUtil.measure("read, file per I/O, " + threads + " threads", "pages",
+                    BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS,
+                    () -> BenchmarkUtil.runThreads(threads, id -> {
+                        byte[] buf = new byte[pageSize];
+                        for (int i = 0; i < reads; i++) {
+                            RandomAccessFile raf = new RandomAccessFile(f, "r");
+                            raf.seek(randomPage(numPages) * pageSize);
+                            raf.read(buf);
+                            raf.close();
+                        }
+                        return reads;
+                    }));
+            BenchmarkUtil.measure("read, shared channel, " + threads + " threads", "pages",
+                    BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS,
+                    () -> BenchmarkUtil.runThreads(threads, id -> {
+                        byte[] buf = new byte[pageSize];
+                        for (int i = 0; i < reads; i++) {
+                            shared.read(randomPage(numPages) * pageSize, buf);
+                        }
+                        return reads;
+                    }));
+        }
+
+        for (final int threads : BenchmarkUtil.threadCounts(maxThreads)) {
+            BenchmarkUtil.measure("write, rws per I/O, " + threads + " threads", "commits",
+                    1, BenchmarkUtil.DEFAULT_ITERATIONS,
+                    () -> BenchmarkUtil.runThreads(threads, id -> {
+                        byte[] page = new byte[pageSize];
+                        for (int i = 0; i < commits; i++) {
+                            for (int j = 0; j < pagesPerCommit; j++) {
+                                RandomAccessFile raf = new RandomAccessFile(f, "rws");
+                                raf.seek(randomPage(numPages) * pageSize);
+                                raf.write(page);
+                                raf.close();
+                            }
+                        }
+                        return commits;
+                    }));
+            BenchmarkUtil.measure("write, force per commit, " + threads + " threads", "commits",
+                    1, BenchmarkUtil.DEFAULT_ITERATIONS,
+                    () -> BenchmarkUtil.runThreads(threads, id -> {
+                        byte[] page = new byte[pageSize];
+                        for (int i = 0; i < commits; i++) {
+                            for (int j = 0; j < pagesPerCommit; j++) {
+                                shared.write(randomPage(numPages) * pageSize, page);
+                            }
+                            shared.force();
+                        }
+                        return commits;
+                    }));
+        }
+        shared.close();
+    }
+
+    private static long randomPage(int numPages) {
+        return ThreadLocalRandom.current().nextInt(numPages);
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.ParallelPlan;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SUM(c1), COUNT(c1) and MAX(c2) GROUP BY c0 over a table whose c0 takes
+ * 10000 values, with the buffer pool holding the table, aggregated by 1, 2,
+ * 4, 8 and 16 worker threads. Prints the rate at which table rows are
+ * consumed, and the speedup over one thread; the speedup is bounded by the
+ * number of cores.
+ * <p>
+ * Arguments: [rows].
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX};
+    private static final int[] FIELDS = {1, 1, 2};
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 1000000);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, 10000, null, null);
+        Database.resetBufferPool(table.numPages() + 10);
+        System.out.println("table: " + rows + " rows, " + table.numPages() + " pages; cores: "
+                + Runtime.getRuntime().availableProcessors());
+
+        double base = 0;
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            ParallelPlan.setWorkers(threads);
+            double rate = BenchmarkUtil.measure(threads + " threads", "rows", 1, 3, () -> {
+                TransactionId tid = new TransactionId();
+                Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), new int[]{0}, FIELDS, OPS);
+                agg.open();
+                while (agg.hasNext()) {
+                    agg.next();
+                }
+                agg.close();
+                Database.getBufferPool().transactionComplete(tid);
+                return rows;
+            });
+            if (threads == 1) {
+                base = rate;
+            }
+            System.out.printf("  speedup %.2fx%n", rate / base);
+        }
+        ParallelPlan.setWorkers(ParallelPlan.DEFAULT_WORKERS);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.benchmark;
+
+import java.util.Arrays;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A projection of the rows of a table that pass a filter keeping half of
+ * them, with the buffer pool holding the table, run on the calling thread
+ * and through a Gather with 1, 2, 4, 8 and 16 workers. Prints the rate at
+ * which table rows are consumed, and the speedup over the calling thread;
+ * the speedup is bounded by the number of cores.
+ * <p>
+ * Arguments: [rows].
+ */
+public class ParallelScanBenchmark {
+
+    private static OpIterator plan(TransactionId tid, HeapFile table) {
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        return new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(pred, new SeqScan(tid, table.getId(), "t")));
+    }
+
+    private static void drain(OpIterator it) throws Exception {
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 1000000);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, null);
+        Database.resetBufferPool(table.numPages() + 10);
+        System.out.println("table: " + rows + " rows, " + table.numPages() + " pages; cores: "
+                + Runtime.getRuntime().availableProcessors());
+
+        double base = BenchmarkUtil.measure("calling thread", "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            drain(plan(tid, table));
+            Database.getBufferPool().transactionComplete(tid);
+            return rows;
+        });
+        for (int threads : new int[]{1, 2, 4, 8, 16}) {
+            double rate = BenchmarkUtil.measure(threads + " workers", "rows", 1, 3, () -> {
+                TransactionId tid = new TransactionId();
+                drain(new Gather(plan(tid, table), threads));
+                Database.getBufferPool().transactionComplete(tid);
+                return rows;
+            });
+            System.out.printf("  speedup %.2fx%n", rate / base);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A range join, t1.c0 &gt; t2.c0, where t1's values are drawn from a range
+ * a hundred times smaller than t2's, so about one pair in two hundred
+ * matches. Run as a nested loops Join and as a SortMergeJoin; the buffer
+ * pool holds both tables. Prints the rate at which input rows are consumed.
+ * <p>
+ * Arguments: [rows per table].
+ */
+public class RangeJoinBenchmark {
+
+    private interface Planner {
+        OpIterator plan(JoinPredicate p, OpIterator child1, OpIterator child2);
+    }
+
+    private static void measure(String label, final HeapFile t1, final HeapFile t2, int rows,
+                                Planner planner) throws Exception {
+        BenchmarkUtil.measure(label, "rows", 1, 3, () -> {
+            TransactionId tid = new TransactionId();
+            OpIterator join = planner.plan(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                    new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"));
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+            return 2L * rows;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 10000);
+
+        final HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, rows, rows, null, null);
+        final HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, rows, rows * 100, null, null);
+        Database.resetBufferPool(t1.numPages() + t2.numPages() + 10);
+        System.out.println("tables: 2 x " + rows + " rows");
+
+        measure("nested loops", t1, t2, rows, Join::new);
+        measure("sort-merge", t1, t2, rows, SortMergeJoin::new);
+    }
+}
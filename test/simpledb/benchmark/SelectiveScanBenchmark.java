@@ -0,0 +1,57 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A SeqScan under a Filter that keeps about one row in a hundred, with a
+ * buffer pool much smaller than the table so that every page is decoded
+ * again on every scan. Prints the scan rate and the bytes the scanning
+ * thread allocates per page, which is what lazy tuple decoding cuts.
+ * <p>
+ * Arguments: [rows] [columns] [pool pages].
+ */
+public class SelectiveScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 500000);
+        final int columns = BenchmarkUtil.intArg(args, 1, 4);
+        final int poolPages = BenchmarkUtil.intArg(args, 2, 100);
+
+        // values are drawn from [0, 65536); keep the top 1%
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(columns, rows, null, null);
+        final Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(64880));
+        System.out.println("table: " + rows + " rows, " + table.numPages()
+                + " pages; buffer pool: " + poolPages + " pages");
+        Database.resetBufferPool(poolPages);
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long[] allocated = new long[1];
+        final long[] pages = new long[1];
+        BenchmarkUtil.measure("filter 1%", "pages",
+                BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS, () -> {
+                    long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    TransactionId tid = new TransactionId();
+                    Filter filter = new Filter(pred, new SeqScan(tid, table.getId(), "t"));
+                    filter.open();
+                    while (filter.hasNext()) {
+                        filter.next();
+                    }
+                    filter.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    allocated[0] += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                    pages[0] += table.numPages();
+                    return table.numPages();
+                });
+        System.out.printf("%-40s %14.1f bytes/page%n", "allocated", (double) allocated[0] / pages[0]);
+    }
+}
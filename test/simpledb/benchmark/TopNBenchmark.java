@@ -0,0 +1,54 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * "Top N by a column" over one table, run as a full OrderBy followed by a
+ * Limit, and as a TopN. The buffer pool holds the table. Prints the rate at
+ * which input rows are consumed.
+ * <p>
+ * Arguments: [rows] [N].
+ */
+public class TopNBenchmark {
+
+    private interface Planner {
+        OpIterator plan(TransactionId tid);
+    }
+
+    private static void measure(String label, long rows, Planner planner) throws Exception {
+        BenchmarkUtil.measure(label, "rows",
+                BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS, () -> {
+                    TransactionId tid = new TransactionId();
+                    OpIterator it = planner.plan(tid);
+                    it.open();
+                    while (it.hasNext()) {
+                        it.next();
+                    }
+                    it.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    return rows;
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 1000000);
+        final int n = BenchmarkUtil.intArg(args, 1, 100);
+
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, null, null);
+        Database.resetBufferPool(table.numPages() + 10);
+        System.out.println("table: " + rows + " rows; top " + n);
+
+        measure("order by + limit", rows, tid -> new Limit(n, 0,
+                new OrderBy(1, false, new SeqScan(tid, table.getId(), "t"))));
+        measure("top-n", rows, tid -> new TopN(new int[]{1}, new boolean[]{false}, n, 0,
+                new SeqScan(tid, table.getId(), "t")));
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A HashEquiJoin of two wide int tables. Prints the join rate and the bytes
+ * the joining thread allocates per output row, then keeps every output
+ * tuple of one more run and prints the heap they alone retain per row,
+ * which is set by the tuple layout.
+ * <p>
+ * Arguments: [rows] [columns per table].
+ */
+public class WideJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int rows = BenchmarkUtil.intArg(args, 0, 200000);
+        final int columns = BenchmarkUtil.intArg(args, 1, 8);
+
+        // join keys drawn from [0, rows): about one match per row
+        final HeapFile t1 = SystemTestUtil.createRandomHeapFile(columns, rows, rows, null, null);
+        final HeapFile t2 = SystemTestUtil.createRandomHeapFile(columns, rows, rows, null, null);
+        Database.resetBufferPool(t1.numPages() + t2.numPages() + 10);
+        System.out.println("tables: 2 x " + rows + " rows of " + columns + " ints");
+
+        final JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long[] allocated = new long[1];
+        final long[] joined = new long[1];
+        BenchmarkUtil.measure("hash join", "rows",
+                BenchmarkUtil.DEFAULT_WARMUP, BenchmarkUtil.DEFAULT_ITERATIONS, () -> {
+                    long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    TransactionId tid = new TransactionId();
+                    HashEquiJoin join = new HashEquiJoin(pred,
+                            new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"));
+                    long n = 0;
+                    join.open();
+                    while (join.hasNext()) {
+                        join.next();
+                        n++;
+                    }
+                    join.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    allocated[0] += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+                    joined[0] += n;
+                    return n;
+                });
+        System.out.printf("%-40s %14.1f bytes/row%n", "allocated", (double) allocated[0] / joined[0]);
+
+        // measure the output alone: drop the buffer pool, and with it every
+        // page and decoded input tuple, on both sides of the run
+        Database.resetBufferPool(t1.numPages() + t2.numPages() + 10);
+        long before = SystemTestUtil.getMemoryFootprint();
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(pred,
+                new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"));
+        List<Tuple> out = new ArrayList<>();
+        join.open();
+        while (join.hasNext()) {
+            out.add(join.next());
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(t1.numPages() + t2.numPages() + 10);
+        long after = SystemTestUtil.getMemoryFootprint();
+        System.out.printf("%-40s %14.1f bytes/row (%d rows)%n", "retained by output",
+                (double) (after - before) / out.size(), out.size());
+    }
+}
@@ -2,27 +2,53 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.junit.After;
 import org.junit.Test;
+import simpledb.Parser;
+import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.ParallelPlan;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import static org.junit.Assert.*;
+
 public class AggregateTest extends SimpleDbTestBase {
+    @After public void resetWorkers() {
+        ParallelPlan.setWorkers(ParallelPlan.DEFAULT_WORKERS);
+    }
+
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, List<List<Integer>> expectedResult)
             throws DbException, TransactionAbortedException {
+        validateAggregate(table, operation, aggregateColumn, groupColumn, expectedResult, MemoryBudget.DEFAULT);
+    }
+
+    private void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn,
+                                   List<List<Integer>> expectedResult, MemoryBudget budget)
+            throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
-        Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
+        int[] gfields = groupColumn == Aggregator.NO_GROUPING ? new int[0] : new int[]{groupColumn};
+        Aggregate ag = new Aggregate(ss, gfields, new int[]{aggregateColumn}, new Aggregator.Op[]{operation}, budget);
 
         SystemTestUtil.matchTuples(ag, expectedResult);
         Database.getBufferPool().transactionComplete(tid);
@@ -83,6 +109,11 @@ public class AggregateTest extends SimpleDbTestBase {
     private final static int COLUMNS = 3;
     private void doAggregate(Aggregator.Op operation, int groupColumn)
             throws IOException, DbException, TransactionAbortedException {
+        doAggregate(operation, groupColumn, MemoryBudget.DEFAULT);
+    }
+
+    private void doAggregate(Aggregator.Op operation, int groupColumn, MemoryBudget budget)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the table
         List<List<Integer>> createdTuples = new ArrayList<>();
         HeapFile table = SystemTestUtil.createRandomHeapFile(
@@ -93,7 +124,7 @@ public class AggregateTest extends SimpleDbTestBase {
                 aggregate(createdTuples, operation, groupColumn);
 
         // validate that we get the answer
-        validateAggregate(table, operation, 1, groupColumn, expected);
+        validateAggregate(table, operation, 1, groupColumn, expected, budget);
     }
 
     // @Test public void testSum() throws IOException, DbException, TransactionAbortedException {
@@ -121,6 +152,144 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    // about ten groups of one aggregate, or five of five, fit in SMALL
+    private static final MemoryBudget SMALL = new MemoryBudget(1000);
+
+    /**
+     * The groups do not fit the memory budget, so they are spilled, and
+     * with a budget of one group so are the partitions they spill to.
+     */
+    @Test public void testSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        Aggregator.Op[] ops = {Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.COUNT, Aggregator.Op.AVG};
+        for (MemoryBudget budget : new MemoryBudget[]{SMALL, new MemoryBudget(1)}) {
+            for (Aggregator.Op op : ops) {
+                doAggregate(op, 0, budget);
+            }
+        }
+    }
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN, Aggregator.Op.AVG};
+    private static final int[] OP_FIELDS = {1, 1, 1, 2, 2};
+
+    /**
+     * @return the rows of SELECT c0, c2, SUM(c1), COUNT(c1), MAX(c1),
+     *         MIN(c2), AVG(c2) GROUP BY c0, c2 over tuples
+     */
+    private List<List<Integer>> aggregateByTwo(List<List<Integer>> tuples) {
+        Map<List<Integer>, List<List<Integer>>> groups = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            groups.computeIfAbsent(Arrays.asList(t.get(0), t.get(2)), k -> new ArrayList<>()).add(t);
+        }
+        List<List<Integer>> results = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<List<Integer>>> e : groups.entrySet()) {
+            List<Integer> result = new ArrayList<>(e.getKey());
+            for (int i = 0; i < OPS.length; i++) {
+                List<Integer> values = new ArrayList<>();
+                for (List<Integer> t : e.getValue()) {
+                    values.add(t.get(OP_FIELDS[i]));
+                }
+                result.add(computeAggregate(values, OPS[i]));
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Several aggregates grouped by two columns in one Aggregate, in memory
+     * and spilled.
+     */
+    @Test public void testMultipleAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 16, null, tuples);
+        List<List<Integer>> expected = aggregateByTwo(tuples);
+        for (MemoryBudget budget : new MemoryBudget[]{MemoryBudget.DEFAULT, SMALL}) {
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), new int[]{0, 2}, OP_FIELDS, OPS,
+                    budget);
+            assertEquals(2 + OPS.length, ag.getTupleDesc().numFields());
+            SystemTestUtil.matchTuples(ag, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Worker threads aggregate page ranges of the table, under a Filter,
+     * into partial aggregates that are merged, also when they are spilled;
+     * a child that cannot be split is aggregated on the calling thread.
+     */
+    @Test public void testParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 20000, 16, null, tuples);
+        assertTrue(table.numPages() > 8);
+        List<List<Integer>> expected = aggregateByTwo(tuples);
+        ParallelPlan.setWorkers(4);
+        for (MemoryBudget budget : new MemoryBudget[]{MemoryBudget.DEFAULT, SMALL}) {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            assertTrue(ParallelPlan.canSplit(scan));
+            Aggregate ag = new Aggregate(scan, new int[]{0, 2}, OP_FIELDS, OPS, budget);
+            SystemTestUtil.matchTuples(ag, expected);
+            ag.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        List<List<Integer>> filtered = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 8) filtered.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        Predicate lessThan8 = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(8));
+        validateAggregate(new Filter(lessThan8, new SeqScan(tid, table.getId(), "")),
+                Aggregator.Op.SUM, Aggregator.NO_GROUPING, aggregate(filtered, Aggregator.Op.SUM,
+                        Aggregator.NO_GROUPING));
+        validateAggregate(new OrderBy(0, true, new SeqScan(tid, table.getId(), "")),
+                Aggregator.Op.MAX, 0, aggregate(tuples, Aggregator.Op.MAX, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void validateAggregate(OpIterator child, Aggregator.Op operation, int groupColumn,
+                                   List<List<Integer>> expectedResult)
+            throws DbException, TransactionAbortedException {
+        Aggregate ag = new Aggregate(child, 1, groupColumn, operation);
+        SystemTestUtil.matchTuples(ag, expectedResult);
+        ag.close();
+    }
+
+    /**
+     * A query with several aggregates and GROUP BY fields is planned as one
+     * Aggregate, whose columns are projected in the order of the SELECT list.
+     */
+    @Test public void testQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 16, null, tuples, "c");
+        Database.getCatalog().addTable(table, "agg");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("agg", new TableStats(table.getId(), 1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : aggregateByTwo(tuples)) {
+            // c2, MAX(c1), c0, SUM(c1), MIN(c2)
+            expected.add(Arrays.asList(row.get(1), row.get(4), row.get(0), row.get(2), row.get(5)));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT agg.c2, MAX(agg.c1), agg.c0, SUM(agg.c1), MIN(agg.c2) FROM agg GROUP BY agg.c0, agg.c2;")
+                .physicalPlan(tid, stats, false);
+        Aggregate ag = (Aggregate) ((Operator) plan).getChildren()[0];
+        assertEquals(2, ag.groupFields().length);
+        assertEquals(3, ag.aggregateFields().length);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
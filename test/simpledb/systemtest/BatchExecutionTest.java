@@ -0,0 +1,165 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchPlan;
+import simpledb.execution.BatchToTuple;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs plans tuple at a time and through BatchPlan, and checks that both
+ * return the same rows.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    // more than one batch, and more than one page
+    private static final int ROWS = 5000;
+
+    private static List<List<Integer>> run(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private interface Planner {
+        OpIterator plan(TransactionId tid);
+    }
+
+    /**
+     * Check that the batch version of the plan built by planner returns the
+     * same rows as the plan itself.
+     */
+    private static void validate(Planner planner) throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(planner.plan(tid));
+        OpIterator batch = BatchPlan.toBatchPlan(planner.plan(tid));
+        assertTrue(batch instanceof BatchToTuple);
+        SystemTestUtil.matchTuples(batch, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, null, null);
+        validate(tid -> new SeqScan(tid, table.getId(), "t"));
+    }
+
+    @Test public void testFilterProject() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate pred = new Predicate(1, op, new IntField(50));
+            validate(tid -> new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                    new Filter(pred, new SeqScan(tid, table.getId(), "t"))));
+        }
+    }
+
+    @Test public void testStackedFilters() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null);
+        validate(tid -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(60)),
+                        new SeqScan(tid, table.getId(), "t"))));
+    }
+
+    @Test public void testJoin() throws IOException, DbException, TransactionAbortedException {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, null);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, ROWS, 2000, null, null);
+        validate(tid -> new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 2),
+                new SeqScan(tid, t1.getId(), "t1"),
+                new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000)),
+                        new SeqScan(tid, t2.getId(), "t2"))));
+    }
+
+    /**
+     * A join whose child1 does not fit in the memory budget spills like
+     * HashEquiJoin does.
+     */
+    @Test public void testJoinOverBudget() throws IOException, DbException, TransactionAbortedException {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, null);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, null);
+        MemoryBudget budget = MemoryBudget.ofTuples(ROWS / 10, Utility.getTupleDesc(2));
+        validate(tid -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, t1.getId(), "t1"), new SeqScan(tid, t2.getId(), "t2"), budget));
+    }
+
+    @Test public void testAggregate() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 300, null, null);
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            validate(tid -> new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, op));
+            validate(tid -> new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, Aggregator.NO_GROUPING, op));
+        }
+    }
+
+    /**
+     * Operators without a batch version keep running on tuples, over batch
+     * children.
+     */
+    @Test public void testOtherOperators() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10000));
+        List<List<Integer>> expected = run(new OrderBy(1, true,
+                new Filter(pred, new SeqScan(tid, table.getId(), "t"))));
+
+        OpIterator batch = BatchPlan.toBatchPlan(new OrderBy(1, true,
+                new Filter(pred, new SeqScan(tid, table.getId(), "t"))));
+        assertTrue(batch instanceof OrderBy);
+        assertTrue(((OrderBy) batch).getChildren()[0] instanceof BatchToTuple);
+        assertEquals(expected, run(batch));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null);
+        TransactionId tid = new TransactionId();
+        OpIterator batch = BatchPlan.toBatchPlan(new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+                new SeqScan(tid, table.getId(), "t")));
+        batch.open();
+        List<Tuple> first = new ArrayList<>();
+        while (batch.hasNext()) {
+            first.add(batch.next());
+        }
+        batch.rewind();
+        for (Tuple t : first) {
+            assertTrue(batch.hasNext());
+            assertEquals(SystemTestUtil.tupleToList(t), SystemTestUtil.tupleToList(batch.next()));
+        }
+        assertFalse(batch.hasNext());
+        batch.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
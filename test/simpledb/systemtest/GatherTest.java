@@ -0,0 +1,153 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.ParallelPlan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs plans on the calling thread and through Gather, and checks that both
+ * return the same rows.
+ */
+public class GatherTest extends SimpleDbTestBase {
+
+    // several pages, so several morsels
+    private static final int ROWS = 5000;
+
+    @After public void resetWorkers() {
+        ParallelPlan.setWorkers(ParallelPlan.DEFAULT_WORKERS);
+    }
+
+    private static List<List<Integer>> run(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private interface Planner {
+        OpIterator plan(TransactionId tid);
+    }
+
+    /**
+     * Check that Gathers over the plan built by planner, with several worker
+     * and morsel sizes, return the same rows as the plan itself, also after
+     * a rewind.
+     */
+    private static void validate(Planner planner) throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(planner.plan(tid));
+        for (int workers : new int[]{1, 4}) {
+            for (int morselPages : new int[]{1, Gather.DEFAULT_MORSEL_PAGES}) {
+                Gather gather = new Gather(planner.plan(tid), workers, morselPages);
+                SystemTestUtil.matchTuples(gather, expected);
+                gather.open();
+                gather.rewind();
+                List<List<Integer>> rows = new ArrayList<>();
+                while (gather.hasNext()) {
+                    rows.add(SystemTestUtil.tupleToList(gather.next()));
+                }
+                gather.close();
+                assertEquals(expected.size(), rows.size());
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        assertTrue(table.numPages() > 4);
+        validate(tid -> new SeqScan(tid, table.getId(), "t"));
+    }
+
+    @Test public void testEmptyTable() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        validate(tid -> new SeqScan(tid, table.getId(), "t"));
+    }
+
+    @Test public void testFilterProject() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null);
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50));
+        validate(tid -> new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(pred, new SeqScan(tid, table.getId(), "t"))));
+    }
+
+    /**
+     * Closing a Gather before its workers are done stops them.
+     */
+    @Test public void testCloseEarly() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        Gather gather = new Gather(new SeqScan(tid, table.getId(), "t"), 4, 1);
+        gather.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(gather.hasNext());
+            gather.next();
+        }
+        gather.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotSplittable() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        new Gather(new OrderBy(0, true, new SeqScan(new TransactionId(), table.getId(), "t")), 4);
+    }
+
+    /**
+     * parallelize puts a Gather over each side of a join, and the plan
+     * returns the same rows.
+     */
+    @Test public void testParallelize() throws IOException, DbException, TransactionAbortedException {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        Predicate pred = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+        Planner planner = tid -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new Filter(pred, new SeqScan(tid, right.getId(), "r")));
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(planner.plan(tid));
+
+        OpIterator plan = ParallelPlan.parallelize(planner.plan(tid));
+        assertFalse(((Operator) plan).getChildren()[0] instanceof Gather);
+
+        ParallelPlan.setWorkers(4);
+        plan = ParallelPlan.parallelize(planner.plan(tid));
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            assertTrue(child instanceof Gather);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GatherTest.class);
+    }
+}
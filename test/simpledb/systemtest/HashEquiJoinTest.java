@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks HashEquiJoin with inputs that fit its memory budget, that have to
+ * be partitioned, and that cannot be partitioned.
+ */
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static MemoryBudget tuples(int n) {
+        return MemoryBudget.ofTuples(n, Utility.getTupleDesc(COLUMNS));
+    }
+
+    private static List<List<Integer>> expectedJoin(List<List<Integer>> t1Tuples, List<List<Integer>> t2Tuples) {
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t1 : t1Tuples) {
+            byKey.computeIfAbsent(t1.get(0), k -> new ArrayList<>()).add(t1);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t2 : t2Tuples) {
+            for (List<Integer> t1 : byKey.getOrDefault(t2.get(0), new ArrayList<>())) {
+                List<Integer> out = new ArrayList<>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+        return expected;
+    }
+
+    private void validateJoin(int table1Rows, int table2Rows, int maxValue,
+            Map<Integer, Integer> columnSpecification, MemoryBudget budget)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, columnSpecification, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table2Rows, maxValue, columnSpecification, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin joinOp = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), budget);
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, t2Tuples));
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(2000, 3000, 1000, null, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * The build side is many times the budget, so its partitions are split
+     * again.
+     */
+    @Test public void testPartitioned()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(5000, 4000, 5000, null, tuples(100));
+    }
+
+    /**
+     * Every tuple has the same key, so no split helps and the join falls
+     * back to chunks.
+     */
+    @Test public void testSingleKey()
+            throws IOException, DbException, TransactionAbortedException {
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 7);
+        validateJoin(300, 200, 1000, columnSpecification, tuples(50));
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin joinOp = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), tuples(100));
+        List<List<Integer>> first = new ArrayList<>();
+        joinOp.open();
+        while (joinOp.hasNext()) {
+            first.add(SystemTestUtil.tupleToList(joinOp.next()));
+        }
+        assertFalse(first.isEmpty());
+        joinOp.rewind();
+        for (List<Integer> t : first) {
+            assertTrue(joinOp.hasNext());
+            assertEquals(t, SystemTestUtil.tupleToList(joinOp.next()));
+        }
+        assertFalse(joinOp.hasNext());
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -10,8 +10,10 @@ import org.junit.Test;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.HeapFile;
@@ -20,9 +22,16 @@ import simpledb.transaction.TransactionId;
 
 public class JoinTest extends SimpleDbTestBase {
     private static final int COLUMNS = 2;
+
     public void validateJoin(int table1ColumnValue, int table1Rows, int table2ColumnValue,
             int table2Rows)
             throws IOException, DbException, TransactionAbortedException {
+        validateJoin(table1ColumnValue, table1Rows, table2ColumnValue, table2Rows, MemoryBudget.DEFAULT);
+    }
+
+    private void validateJoin(int table1ColumnValue, int table1Rows, int table2ColumnValue,
+            int table2Rows, MemoryBudget budget)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the two tables
         Map<Integer, Integer> columnSpecification = new HashMap<>();
         columnSpecification.put(0, table1ColumnValue);
@@ -55,7 +64,7 @@ public class JoinTest extends SimpleDbTestBase {
         SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
         SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
         JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
-        Join joinOp = new Join(p, ss1, ss2);
+        Join joinOp = new Join(p, ss1, ss2, budget);
 
         // test the join results
         SystemTestUtil.matchTuples(joinOp, expectedResults);
@@ -79,6 +88,14 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /**
+     * The outer table spans several blocks, the last of them partly full.
+     */
+    @Test public void testBlocks()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(1, 10, 1, 20, MemoryBudget.ofTuples(3, Utility.getTupleDesc(COLUMNS)));
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
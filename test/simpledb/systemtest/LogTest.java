@@ -435,6 +435,112 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestOpenCrashRecoverTwice()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // crash and recover: T1 is undone with CLRs
+        // crash again during the next run and recover: the CLRs are
+        // redone, not undone, so T1 stays undone and T0's data stays
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 14);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+        insertRow(hf1, t1, 15);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 14, false);
+        look(hf1, t, 15, false);
+        t.commit();
+    }
+
+    @Test public void TestFuzzyCheckpoint()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts without flushing, checkpoint, T1 commits
+        // T2 inserts without flushing, checkpoint, crash
+        // the checkpoints flush nothing; only T1's data should be there
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 16);
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf2, t1, 17);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 18);
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf2, t2, 19);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 16, true);
+        look(hf2, t, 17, true);
+        look(hf1, t, 18, false);
+        look(hf2, t, 19, false);
+        t.commit();
+    }
+
+    @Test public void TestPageWriterCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the page writer steals T1's and T2's pages
+        // T1 commits, T2 aborts, T3's pages are stolen and it crashes
+        // only T1's data should be there
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 20);
+        assertEquals(1, Database.getBufferPool().writeDirtyPages(10));
+        assertEquals(0, Database.getBufferPool().writeDirtyPages(10));
+        insertRow(hf1, t1, 21);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 22);
+        assertEquals(1, Database.getBufferPool().writeDirtyPages(10));
+        t2.transactionComplete(true);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf2, t3, 23);
+        Database.getBufferPool().writeDirtyPages(10);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 20, true);
+        look(hf1, t, 21, true);
+        look(hf2, t, 22, false);
+        look(hf2, t, 23, false);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
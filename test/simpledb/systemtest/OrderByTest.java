@@ -0,0 +1,103 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks OrderBy sorting in memory, and externally in one or more merge
+ * passes.
+ */
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+
+    private static List<List<Integer>> run(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return rows;
+    }
+
+    /**
+     * Sort a random table on fields, and check the result against a stable
+     * sort of the table's tuples.
+     */
+    private void validateSort(int[] fields, boolean[] asc, MemoryBudget budget) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 20, null, tuples);
+        Comparator<List<Integer>> cmp = (a, b) -> 0;
+        for (int i = 0; i < fields.length; i++) {
+            int f = fields[i];
+            Comparator<List<Integer>> key = Comparator.comparing(l -> l.get(f));
+            cmp = cmp.thenComparing(asc[i] ? key : key.reversed());
+        }
+        tuples.sort(cmp);
+
+        TransactionId tid = new TransactionId();
+        OrderBy orderBy = new OrderBy(fields, asc, new SeqScan(tid, table.getId(), "t"), budget);
+        orderBy.open();
+        assertEquals(tuples, run(orderBy));
+        orderBy.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemory() throws IOException, DbException, TransactionAbortedException {
+        validateSort(new int[]{1}, new boolean[]{false}, MemoryBudget.DEFAULT);
+    }
+
+    @Test public void testMultipleFields() throws IOException, DbException, TransactionAbortedException {
+        validateSort(new int[]{2, 0}, new boolean[]{true, false}, MemoryBudget.DEFAULT);
+    }
+
+    /**
+     * About 100 tuples fit in the budget, so there are about 50 runs,
+     * merged at once.
+     */
+    @Test public void testExternal() throws IOException, DbException, TransactionAbortedException {
+        validateSort(new int[]{0, 1}, new boolean[]{true, false}, new MemoryBudget(8000));
+    }
+
+    /**
+     * About 10 tuples fit in the budget, so there are more runs than are
+     * merged at once.
+     */
+    @Test public void testMergePasses() throws IOException, DbException, TransactionAbortedException {
+        validateSort(new int[]{1}, new boolean[]{true}, new MemoryBudget(800));
+    }
+
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        OrderBy orderBy = new OrderBy(new int[]{2}, new boolean[]{true}, new SeqScan(tid, table.getId(), "t"),
+                new MemoryBudget(8000));
+        orderBy.open();
+        List<List<Integer>> first = run(orderBy);
+        assertEquals(ROWS, first.size());
+        orderBy.rewind();
+        assertEquals(first, run(orderBy));
+        orderBy.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
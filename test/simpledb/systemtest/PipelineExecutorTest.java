@@ -0,0 +1,191 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.ParallelPlan;
+import simpledb.execution.Pipeline;
+import simpledb.execution.PipelineExecutor;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs plans on the calling thread and split into pipelines by
+ * ParallelPlan.schedule, and checks that both return the same rows.
+ */
+public class PipelineExecutorTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    @After public void resetWorkers() {
+        ParallelPlan.setWorkers(ParallelPlan.DEFAULT_WORKERS);
+    }
+
+    private static List<List<Integer>> run(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * The counts of each value of c0 in left, joined with the rows of right
+     * whose c1 is over 500, sorted: three pipelines, the two inputs of the
+     * join being independent.
+     */
+    private static OpIterator plan(TransactionId tid, HeapFile left, HeapFile right) {
+        Predicate pred = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Aggregate(new SeqScan(tid, left.getId(), "l"), 1, 0, Aggregator.Op.COUNT),
+                new OrderBy(1, true, new Filter(pred, new SeqScan(tid, right.getId(), "r"))));
+    }
+
+    @Test public void testSchedule() throws IOException, DbException, TransactionAbortedException {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(plan(tid, left, right));
+
+        for (int workers : new int[]{1, 4}) {
+            ParallelPlan.setWorkers(workers);
+            OpIterator plan = ParallelPlan.schedule(ParallelPlan.parallelize(plan(tid, left, right)));
+            assertTrue(plan instanceof PipelineExecutor);
+            OpIterator join = ((Operator) plan).getChildren()[0];
+            assertTrue(join instanceof Pipeline);
+            for (OpIterator input : ((Operator) ((Operator) join).getChildren()[0]).getChildren()) {
+                assertTrue(input instanceof Pipeline);
+            }
+            SystemTestUtil.matchTuples(plan, expected);
+            plan.open();
+            plan.rewind();
+            int rows = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                rows++;
+            }
+            plan.close();
+            assertEquals(expected.size(), rows);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testNoBlockingOperators() throws IOException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        OpIterator plan = new SeqScan(new TransactionId(), table.getId(), "t");
+        assertSame(plan, ParallelPlan.schedule(plan));
+    }
+
+    /**
+     * Queries run at the same time share the worker pool, and each returns
+     * its own rows.
+     */
+    @Test public void testConcurrentQueries() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(plan(tid, left, right));
+        Database.getBufferPool().transactionComplete(tid);
+
+        ParallelPlan.setWorkers(4);
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    TransactionId mine = new TransactionId();
+                    OpIterator plan = ParallelPlan.schedule(ParallelPlan.parallelize(plan(mine, left, right)));
+                    assertEquals(expected.size(), run(plan).size());
+                    Database.getBufferPool().transactionComplete(mine);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), failures);
+    }
+
+    /**
+     * An exception in one pipeline is thrown from open, once the other
+     * pipelines are done, and the pipelines are closed.
+     */
+    @Test public void testFailure() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregate counts = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.COUNT);
+        OpIterator plan = ParallelPlan.schedule(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                counts, new OrderBy(0, true, new Failing(counts.getTupleDesc()))));
+        try {
+            plan.open();
+            fail("expected the failing pipeline's exception");
+        } catch (DbException expected) {
+            assertEquals("failed", expected.getMessage());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static class Failing extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+
+        Failing(TupleDesc td) {
+            this.td = td;
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            throw new DbException("failed");
+        }
+
+        public void rewind() {
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PipelineExecutorTest.class);
+    }
+}
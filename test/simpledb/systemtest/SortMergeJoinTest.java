@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MemoryBudget;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks SortMergeJoin on equality and range predicates against a nested
+ * loops join of the tables' tuples, with inputs it sorts and inputs that are
+ * already sorted.
+ */
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<List<Integer>> expectedJoin(List<List<Integer>> t1Tuples, Predicate.Op op,
+            List<List<Integer>> t2Tuples) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(1)))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Join field 0 of one random table to field 1 of another with op.
+     */
+    private void validateJoin(int table1Rows, int table2Rows, int maxValue, Predicate.Op op)
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(table1Rows, table2Rows, maxValue, op, MemoryBudget.DEFAULT);
+    }
+
+    private void validateJoin(int table1Rows, int table2Rows, int maxValue, Predicate.Op op,
+            MemoryBudget budget) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, maxValue, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table2Rows, maxValue, null, t2Tuples);
+
+        TransactionId tid = new TransactionId();
+        SortMergeJoin joinOp = new SortMergeJoin(new JoinPredicate(0, op, 1),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""), budget);
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, op, t2Tuples));
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEquality()
+            throws IOException, DbException, TransactionAbortedException {
+        // about five tuples per key on each side
+        validateJoin(2000, 3000, 500, Predicate.Op.EQUALS);
+    }
+
+    @Test public void testRange()
+            throws IOException, DbException, TransactionAbortedException {
+        Predicate.Op[] ops = {Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        for (Predicate.Op op : ops) {
+            validateJoin(300, 400, 200, op);
+        }
+    }
+
+    /**
+     * The inputs do not fit the join's memory budget, so they are sorted
+     * externally, and a range join rewinds a merge of spilled runs.
+     */
+    @Test public void testExternalSort()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(1000, 1500, 300, Predicate.Op.EQUALS, new MemoryBudget(8000));
+        validateJoin(200, 1000, 300, Predicate.Op.GREATER_THAN_OR_EQ, new MemoryBudget(8000));
+    }
+
+    /**
+     * A BTreeScan keyed on the join field, and an OrderBy on it, are used
+     * as they are rather than sorted again.
+     */
+    @Test public void testSortedInputs() throws Exception {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 300, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(COLUMNS, 2000, 300, null, t2Tuples, 1);
+
+        TransactionId tid = new TransactionId();
+        OrderBy sorted1 = new OrderBy(0, true, new SeqScan(tid, table1.getId(), ""));
+        BTreeScan sorted2 = new BTreeScan(tid, table2.getId(), "", null);
+        assertTrue(SortMergeJoin.isSortedOn(sorted2, 1, true));
+        assertFalse(SortMergeJoin.isSortedOn(sorted2, 0, true));
+        assertFalse(SortMergeJoin.isSortedOn(sorted2, 1, false));
+
+        SortMergeJoin joinOp = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                sorted1, sorted2);
+        assertSame(sorted1, joinOp.getChildren()[0]);
+        assertSame(sorted2, joinOp.getChildren()[1]);
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, Predicate.Op.EQUALS, t2Tuples));
+        joinOp.close();
+        // the output is in order of the join fields
+        assertTrue(SortMergeJoin.isSortedOn(joinOp, 0, true));
+        assertTrue(SortMergeJoin.isSortedOn(joinOp, COLUMNS + 1, true));
+
+        sorted2 = new BTreeScan(tid, table2.getId(), "", null);
+        joinOp = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1),
+                new SeqScan(tid, table1.getId(), ""), sorted2);
+        assertSame(sorted2, joinOp.getChildren()[1]);
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, Predicate.Op.GREATER_THAN, t2Tuples));
+        joinOp.close();
+
+        // a descending join cannot use the index order
+        joinOp = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                new SeqScan(tid, table1.getId(), ""), new BTreeScan(tid, table2.getId(), "", null));
+        assertTrue(joinOp.getChildren()[1] instanceof OrderBy);
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, Predicate.Op.LESS_THAN, t2Tuples));
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, 300, null, null);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, 300, null, null);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN}) {
+            OpIterator joinOp = new SortMergeJoin(new JoinPredicate(0, op, 1),
+                    new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+            List<List<Integer>> first = new ArrayList<>();
+            joinOp.open();
+            while (joinOp.hasNext()) {
+                first.add(SystemTestUtil.tupleToList(joinOp.next()));
+            }
+            assertFalse(first.isEmpty());
+            joinOp.rewind();
+            for (List<Integer> t : first) {
+                assertTrue(joinOp.hasNext());
+                assertEquals(t, SystemTestUtil.tupleToList(joinOp.next()));
+            }
+            assertFalse(joinOp.hasNext());
+            joinOp.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotEquals() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null);
+        TransactionId tid = new TransactionId();
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 1),
+                new SeqScan(tid, table.getId(), ""), new SeqScan(tid, table.getId(), ""));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
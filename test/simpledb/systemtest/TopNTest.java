@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks TopN and Limit against a sorted copy of their input, and LIMIT and
+ * OFFSET queries.
+ */
+public class TopNTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+
+    private static List<List<Integer>> run(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private static List<List<Integer>> slice(List<List<Integer>> rows, int limit, int offset) {
+        int from = Math.min(offset, rows.size());
+        return rows.subList(from, (int) Math.min(rows.size(), (long) from + limit));
+    }
+
+    @Test public void testTopN() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // few distinct values, so ties must be broken in input order
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 50, null, tuples);
+        Comparator<List<Integer>> byFirst = Comparator.comparing(l -> l.get(1));
+        Comparator<List<Integer>> bySecond = Comparator.comparing(l -> l.get(2));
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(byFirst.reversed().thenComparing(bySecond));
+
+        TransactionId tid = new TransactionId();
+        int[][] limits = {{100, 0}, {100, 50}, {1, 0}, {0, 10}, {ROWS * 2, 0}, {10, ROWS - 5}, {10, ROWS}};
+        for (int[] l : limits) {
+            TopN topN = new TopN(new int[]{1, 2}, new boolean[]{false, true}, l[0], l[1],
+                    new SeqScan(tid, table.getId(), "t"));
+            assertEquals(slice(sorted, l[0], l[1]), run(topN));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testLimit() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        TransactionId tid = new TransactionId();
+        int[][] limits = {{100, 0}, {100, 50}, {0, 0}, {ROWS * 2, 10}, {10, ROWS}};
+        for (int[] l : limits) {
+            Limit limit = new Limit(l[0], l[1], new SeqScan(tid, table.getId(), "t"));
+            assertEquals(slice(tuples, l[0], l[1]), run(limit));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testQuery() throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples, "c");
+        Database.getCatalog().addTable(table, "topn");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("topn", new TableStats(table.getId(), 1));
+        List<List<Integer>> sorted = new ArrayList<>(tuples);
+        sorted.sort(Comparator.comparing((List<Integer> l) -> l.get(0)).reversed());
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        OpIterator plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn ORDER BY topn.c0 DESC LIMIT 20 OFFSET 5;").physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        assertEquals(slice(sorted, 20, 5), run(plan));
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM topn limit 7;").physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        assertEquals(slice(tuples, 7, 0), run(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TopNTest.class);
+    }
+}
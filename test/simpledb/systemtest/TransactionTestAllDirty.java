@@ -34,6 +34,34 @@ public class TransactionTestAllDirty extends SimpleDbTestBase {
         t.commit();
     }
 
+    /**
+     * A scan that finds the only page dirty waits for it to be committed,
+     * and then evicts it, rather than failing at once.
+     */
+    @Test public void testWaitsForCommit() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(1);
+
+        Transaction writer = new Transaction();
+        writer.start();
+        AbortEvictionTest.insertRow(f, writer);
+        Thread committer = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+                writer.commit();
+            } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        committer.start();
+
+        Transaction reader = new Transaction();
+        reader.start();
+        assertTrue(AbortEvictionTest.findMagicTuple(f, reader));
+        reader.commit();
+        committer.join();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(TransactionTestAllDirty.class);